@@ -0,0 +1,142 @@
+package io.lw900925.tools.app;
+
+import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 生成基准测试使用的JPEG/PNG/MP4/MOV样本
+ *
+ * @author lw900925
+ */
+public class CorpusGenerator {
+
+    /**
+     * 每种格式的样本数量
+     */
+    public static final int FILES_PER_TYPE = 16;
+
+    public static final List<String> EXTENSIONS = Arrays.asList("jpg", "png", "mp4", "mov");
+
+    /**
+     * 1904-01-01T00:00:00Z 到 1970-01-01T00:00:00Z 的秒数
+     */
+    private static final long EPOCH_OFFSET = 2082844800L;
+
+    public static void main(String[] args) throws IOException {
+        generate(Paths.get(args[0]));
+    }
+
+    /**
+     * 样本目录，由 -Djmh.corpus 指定，样本不存在时生成
+     */
+    public static Path corpus() throws IOException {
+        Path dir = Paths.get(System.getProperty("jmh.corpus", "build/jmh-corpus"));
+        generate(dir);
+        return dir;
+    }
+
+    /**
+     * 指定扩展名的样本
+     */
+    public static List<Path> files(String extension) throws IOException {
+        try (Stream<Path> stream = Files.list(corpus())) {
+            return stream.filter(path -> path.toString().endsWith("." + extension)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    public static void generate(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        Random random = new Random(42);
+        for (int i = 0; i < FILES_PER_TYPE; i++) {
+            long seconds = 1_500_000_000L + random.nextInt(100_000_000);
+            String dateTime = String.format("%tY:%<tm:%<td %<tH:%<tM:%<tS", seconds * 1000);
+
+            Path jpeg = dir.resolve(String.format("IMG_%04d.jpg", i));
+            if (Files.notExists(jpeg)) {
+                writeJpeg(jpeg, image(random, 1600, 1200), dateTime);
+            }
+            Path png = dir.resolve(String.format("IMG_%04d.png", i));
+            if (Files.notExists(png)) {
+                ImageIO.write(image(random, 800, 600), "png", png.toFile());
+            }
+            // MP4的moov在文件末尾，MOV的moov在文件开头
+            Path mp4 = dir.resolve(String.format("VID_%04d.mp4", i));
+            if (Files.notExists(mp4)) {
+                Files.write(mp4, video("isom", seconds + EPOCH_OFFSET, 8 << 20, false));
+            }
+            Path mov = dir.resolve(String.format("VID_%04d.mov", i));
+            if (Files.notExists(mov)) {
+                Files.write(mov, video("qt  ", seconds + EPOCH_OFFSET, 8 << 20, true));
+            }
+        }
+    }
+
+    private static BufferedImage image(Random random, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int seed = random.nextInt();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 31 + seed) ^ (y * 17));
+            }
+        }
+        return image;
+    }
+
+    private static void writeJpeg(Path file, BufferedImage image, String dateTime) throws IOException {
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", jpeg);
+        try (OutputStream output = Files.newOutputStream(file)) {
+            TiffOutputSet outputSet = new TiffOutputSet();
+            outputSet.getOrCreateExifDirectory().add(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL, dateTime);
+            new ExifRewriter().updateExifMetadataLossless(jpeg.toByteArray(), output, outputSet);
+        } catch (Exception e) {
+            throw new IOException("Generate " + file + " failed", e);
+        }
+    }
+
+    private static byte[] video(String brand, long time, int mdatSize, boolean moovFirst) throws IOException {
+        ByteBuffer mvhd = ByteBuffer.allocate(100).putInt(0).putInt((int) time).putInt((int) time).putInt(600).putInt(6000);
+        ByteBuffer tkhd = ByteBuffer.allocate(84).putInt(0).putInt((int) time).putInt((int) time).putInt(1);
+        ByteBuffer mdhd = ByteBuffer.allocate(24).putInt(0).putInt((int) time).putInt((int) time).putInt(600).putInt(6000);
+        byte[] moov = box("moov", box("mvhd", mvhd.array()), box("trak", box("tkhd", tkhd.array()), box("mdia", box("mdhd", mdhd.array()))));
+        byte[] mdat = box("mdat", new byte[mdatSize]);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(box("ftyp", brand.getBytes(), new byte[4], brand.getBytes()));
+        output.write(moovFirst ? moov : mdat);
+        output.write(moovFirst ? mdat : moov);
+        return output.toByteArray();
+    }
+
+    private static byte[] box(String type, byte[]... payloads) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(output);
+        int size = 8;
+        for (byte[] payload : payloads) {
+            size += payload.length;
+        }
+        data.writeInt(size);
+        data.writeBytes(type);
+        for (byte[] payload : payloads) {
+            data.write(payload);
+        }
+        return output.toByteArray();
+    }
+}
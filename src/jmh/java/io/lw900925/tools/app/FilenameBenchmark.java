@@ -0,0 +1,34 @@
+package io.lw900925.tools.app;
+
+import io.lw900925.tools.support.TimestampCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * rebuildExif 和 group 中根据文件名解析日期、计算分组目录
+ *
+ * @author lw900925
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilenameBenchmark {
+
+    @Param({"2020_09_13_12_26_IMG_4821.JPG", "20200913_122640_123.JPG"})
+    private String filename;
+
+    @Benchmark
+    public LocalDateTime parseArchiveName() {
+        return TimestampCodec.parseArchiveName(filename);
+    }
+
+    @Benchmark
+    public String formatMonthDirectory() {
+        return TimestampCodec.formatMonthDirectory(TimestampCodec.parseYearMonth(filename));
+    }
+}
@@ -0,0 +1,46 @@
+package io.lw900925.tools.app;
+
+import io.lw900925.tools.metadata.MetadataExtractor;
+import io.lw900925.tools.metadata.MetadataExtractorRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 每种格式的MetadataExtractor，吞吐量以 文件/秒 计
+ *
+ * @author lw900925
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataExtractorBenchmark {
+
+    @Param({"jpg", "png", "mp4", "mov"})
+    private String extension;
+
+    private MetadataExtractor extractor;
+    private List<File> files;
+
+    @Setup
+    public void setUp() throws Exception {
+        extractor = new MetadataExtractorRegistry().find(extension).getExtractor();
+        files = CorpusGenerator.files(extension).stream().map(Path::toFile).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CorpusGenerator.FILES_PER_TYPE)
+    public void extract(Blackhole blackhole) throws Exception {
+        for (File file : files) {
+            blackhole.consume(extractor.extract(file));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package io.lw900925.tools.app;
+
+import com.drew.metadata.Metadata;
+import com.drew.metadata.Tag;
+import io.lw900925.tools.metadata.ExtractorDescriptor;
+import io.lw900925.tools.metadata.MetadataExtractorRegistry;
+import io.lw900925.tools.support.TimestampCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * rename 中每个文件都要执行的扩展名匹配、标签查找和日期解析
+ *
+ * @author lw900925
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenameBenchmark {
+
+    @Param({"jpg", "png", "mp4", "mov"})
+    private String extension;
+
+    private MetadataExtractorRegistry registry;
+    private ExtractorDescriptor descriptor;
+    private Metadata metadata;
+    private String tagDesc;
+    private Instant metadataTime;
+
+    @Setup
+    public void setUp() throws Exception {
+        registry = new MetadataExtractorRegistry();
+        descriptor = registry.find(extension);
+        metadata = descriptor.getExtractor().extract(CorpusGenerator.files(extension).get(0).toFile());
+        tagDesc = descriptor.findTag(metadata).getDescription();
+        metadataTime = Instant.now();
+    }
+
+    @Benchmark
+    public ExtractorDescriptor findExtractor() {
+        return registry.find(extension);
+    }
+
+    @Benchmark
+    public Tag findTag() {
+        return descriptor.findTag(metadata);
+    }
+
+    /**
+     * 解析失败时 rename 会回退到文件创建时间，失败路径同样计入
+     */
+    @Benchmark
+    public Instant parseDate() {
+        return RenameShell.parseDate(tagDesc);
+    }
+
+    @Benchmark
+    public String formatFilename() {
+        return TimestampCodec.formatFilename(metadataTime);
+    }
+}
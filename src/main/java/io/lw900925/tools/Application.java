@@ -3,9 +3,14 @@ package io.lw900925.tools;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+import java.util.Arrays;
+
 @SpringBootApplication
 public class Application {
     public static void main(String[] args) {
+        if (args.length > 0 && BatchLauncher.COMMAND.equals(args[0])) {
+            System.exit(BatchLauncher.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
         SpringApplication.run(Application.class, args);
     }
 }
@@ -0,0 +1,264 @@
+package io.lw900925.tools;
+
+import io.lw900925.tools.app.RunMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.convert.ConversionException;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.shell.standard.ShellComponent;
+import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.*;
+
+/**
+ * 非交互的批处理入口：java -jar tools.jar batch &lt;命令&gt; [参数]
+ * <p>
+ * 与交互式shell使用相同的命令和参数，但不启动Spring Shell和JLine终端，所有bean延迟初始化，
+ * 只创建执行的命令用到的bean，适合定时任务和作业调度频繁地执行小批量任务。
+ * <p>
+ * 退出码：{@value #OK}-成功，{@value #ERRORS}-部分文件处理失败，{@value #USAGE}-命令或参数错误，{@value #ABORTED}-运行中止。
+ *
+ * @author lw900925
+ */
+public final class BatchLauncher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchLauncher.class);
+
+    /**
+     * 命令行第一个参数为该值时进入批处理模式
+     */
+    public static final String COMMAND = "batch";
+
+    public static final int OK = 0;
+    public static final int ERRORS = 1;
+    public static final int USAGE = 2;
+    public static final int ABORTED = 3;
+
+    /**
+     * 批处理模式不需要的交互式shell和终端
+     */
+    private static final String[] EXCLUDED_AUTO_CONFIGURATIONS = {
+            "org.springframework.shell.SpringShellAutoConfiguration",
+            "org.springframework.shell.jline.JLineShellAutoConfiguration",
+            "org.springframework.shell.standard.StandardAPIAutoConfiguration",
+            "org.springframework.shell.standard.commands.StandardCommandsAutoConfiguration",
+            "org.springframework.shell.jcommander.JCommanderParameterResolverAutoConfiguration",
+            "org.springframework.shell.legacy.LegacyAdapterAutoConfiguration"
+    };
+
+    private BatchLauncher() {
+    }
+
+    /**
+     * @param args 命令名和参数，不含{@link #COMMAND}
+     * @return 退出码
+     */
+    public static int run(String[] args) {
+        ConfigurableApplicationContext context;
+        try {
+            context = new SpringApplicationBuilder(Application.class)
+                    .bannerMode(Banner.Mode.OFF)
+                    .web(WebApplicationType.NONE)
+                    .logStartupInfo(false)
+                    .lazyInitialization(true)
+                    .properties("spring.autoconfigure.exclude=" + String.join(",", EXCLUDED_AUTO_CONFIGURATIONS),
+                            "spring.shell.interactive.enabled=false")
+                    .run();
+        } catch (Exception e) {
+            LOGGER.error("Start failed - " + e.getMessage(), e);
+            return ABORTED;
+        }
+
+        try {
+            if (args.length == 0 || "help".equals(args[0]) || "--help".equals(args[0])) {
+                System.err.println(usage(context));
+                return args.length == 0 ? USAGE : OK;
+            }
+            return execute(context, args[0], Arrays.copyOfRange(args, 1, args.length));
+        } finally {
+            context.close();
+        }
+    }
+
+    private static int execute(ConfigurableApplicationContext context, String command, String[] args) {
+        // 按类型查找命令，不实例化其他命令的bean
+        for (String beanName : context.getBeanNamesForAnnotation(ShellComponent.class)) {
+            for (Method method : commands(context, beanName)) {
+                if (!command.equals(commandName(method)) && !command.equals(method.getName())) {
+                    continue;
+                }
+
+                Object[] values;
+                try {
+                    values = bind(method, args);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    System.err.println(usage(method));
+                    return USAGE;
+                }
+                return invoke(context, context.getBean(beanName), method, values);
+            }
+        }
+        System.err.println("Unknown command: " + command);
+        System.err.println(usage(context));
+        return USAGE;
+    }
+
+    private static List<Method> commands(ConfigurableApplicationContext context, String beanName) {
+        List<Method> commands = new ArrayList<>();
+        for (Method method : ClassUtils.getUserClass(context.getType(beanName)).getMethods()) {
+            if (method.isAnnotationPresent(ShellMethod.class)) {
+                commands.add(method);
+            }
+        }
+        return commands;
+    }
+
+    private static int invoke(ConfigurableApplicationContext context, Object bean, Method method, Object[] values) {
+        try {
+            Object result = method.invoke(bean, values);
+            if (result != null) {
+                System.out.println(result);
+            }
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IllegalArgumentException) {
+                System.err.println(cause.getMessage());
+                return USAGE;
+            }
+            LOGGER.error(cause.getMessage(), cause);
+            return ABORTED;
+        } catch (IllegalAccessException e) {
+            LOGGER.error(e.getMessage(), e);
+            return ABORTED;
+        }
+
+        RunMetrics.Run run = context.getBean(RunMetrics.class).current();
+        if (run == null) {
+            return OK;
+        } else if (run.getFailure() != null) {
+            return ABORTED;
+        }
+        return run.errorCount() > 0 ? ERRORS : OK;
+    }
+
+    /**
+     * 与Spring Shell相同的规则：默认使用方法名，驼峰转为短横线，例如 rebuildExif 为 rebuild-exif
+     */
+    private static String commandName(Method method) {
+        ShellMethod shellMethod = method.getAnnotation(ShellMethod.class);
+        return shellMethod.key().length > 0 ? shellMethod.key()[0] : uncamelify(method.getName());
+    }
+
+    /**
+     * 按{@link ShellOption}把命令行参数转为方法参数，boolean参数出现即为true
+     */
+    private static Object[] bind(Method method, String[] args) {
+        Parameter[] parameters = method.getParameters();
+        Map<String, Integer> keys = new HashMap<>();
+        for (int i = 0; i < parameters.length; i++) {
+            for (String key : keys(parameters[i])) {
+                keys.put(key, i);
+            }
+        }
+
+        String[] raw = new String[parameters.length];
+        for (int i = 0; i < args.length; i++) {
+            Integer index = keys.get(args[i]);
+            if (index == null) {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            if (isFlag(parameters[index])) {
+                raw[index] = "true";
+            } else if (i + 1 < args.length) {
+                raw[index] = args[++i];
+            } else {
+                throw new IllegalArgumentException("Missing value for option: " + args[i]);
+            }
+        }
+
+        ConversionService conversionService = DefaultConversionService.getSharedInstance();
+        Object[] values = new Object[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            ShellOption option = parameters[i].getAnnotation(ShellOption.class);
+            String value = raw[i];
+            if (value == null) {
+                String defaultValue = option == null ? ShellOption.NONE : option.defaultValue();
+                if (isFlag(parameters[i]) && ShellOption.NONE.equals(defaultValue)) {
+                    value = "false";
+                } else if (ShellOption.NONE.equals(defaultValue)) {
+                    throw new IllegalArgumentException("Missing required option: " + keys(parameters[i]).get(0));
+                } else if (!ShellOption.NULL.equals(defaultValue)) {
+                    value = defaultValue;
+                }
+            }
+            try {
+                values[i] = value == null ? null : conversionService.convert(value, parameters[i].getType());
+            } catch (ConversionException e) {
+                throw new IllegalArgumentException("Invalid value for option " + keys(parameters[i]).get(0) + ": " + value);
+            }
+        }
+        return values;
+    }
+
+    private static List<String> keys(Parameter parameter) {
+        ShellOption option = parameter.getAnnotation(ShellOption.class);
+        if (option != null && option.value().length > 0) {
+            return Arrays.asList(option.value());
+        }
+        return Collections.singletonList("--" + uncamelify(parameter.getName()));
+    }
+
+    private static boolean isFlag(Parameter parameter) {
+        return parameter.getType() == boolean.class || parameter.getType() == Boolean.class;
+    }
+
+    private static String uncamelify(String name) {
+        StringBuilder builder = new StringBuilder();
+        for (char c : name.toCharArray()) {
+            if (Character.isUpperCase(c)) {
+                builder.append('-').append(Character.toLowerCase(c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 一个命令的参数说明
+     */
+    private static String usage(Method method) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Usage: batch ").append(commandName(method)).append(" [options]").append(System.lineSeparator());
+        for (Parameter parameter : method.getParameters()) {
+            ShellOption option = parameter.getAnnotation(ShellOption.class);
+            builder.append(String.format("  %-28s %s%n", String.join(", ", keys(parameter)), option == null ? "" : option.help()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 所有命令的列表
+     */
+    private static String usage(ConfigurableApplicationContext context) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Usage: batch <command> [options]").append(System.lineSeparator());
+        for (String beanName : context.getBeanNamesForAnnotation(ShellComponent.class)) {
+            for (Method method : commands(context, beanName)) {
+                builder.append(String.format("  %-28s %s%n", commandName(method), method.getAnnotation(ShellMethod.class).value()));
+            }
+        }
+        return builder.toString();
+    }
+}
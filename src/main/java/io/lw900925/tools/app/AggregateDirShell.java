@@ -1,61 +1,235 @@
 package io.lw900925.tools.app;
 
+import io.lw900925.tools.support.CopyEngine;
+import io.lw900925.tools.support.ExternalSorter;
+import io.lw900925.tools.support.FileTransfer;
+import io.lw900925.tools.support.FileTraversal;
+import io.lw900925.tools.support.Pipeline;
+import io.lw900925.tools.support.Plan;
+import io.lw900925.tools.support.TargetDirectoryCache;
+import io.lw900925.tools.support.TimestampCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.shell.standard.CommandValueProvider;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
 import org.springframework.shell.standard.ShellOption;
-import org.springframework.util.FileSystemUtils;
 
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @ShellComponent
 public class AggregateDirShell {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AggregateDirShell.class);
 
+    @Autowired
+    private AppProperties appProperties;
+
+    @Autowired
+    private RunMetrics runMetrics;
+
     @ShellMethod(value = "整理&重命名文件夹")
     public void aggregateDir(@ShellOption(valueProvider = CommandValueProvider.class, value = {"-S", "--source"}, help = "原文件夹") String source,
-                             @ShellOption(valueProvider = CommandValueProvider.class, value = {"-T", "--target"}, help = "目标文件夹")String target) {
-        try {
-            long count = Files.list(Paths.get(source)).count();
-
-            int index = 1;
-            List<Path> paths = Files.list(Paths.get(source)).collect(Collectors.toList());
-            for (Path path : paths) {
-                List<LocalDateTime> localDateTimes = new ArrayList<>();
-                Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-                    @Override
-                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                        String filename = file.getFileName().toString();
-                        filename = filename.substring(0, filename.lastIndexOf("_IMG")) + DateTimeFormatter.ofPattern("_ss_SSS").format(LocalDateTime.now());
-                        localDateTimes.add(LocalDateTime.parse(filename, DateTimeFormatter.ofPattern("yyyy_MM_dd_HH_mm_ss_SSS")));
-                        return FileVisitResult.CONTINUE;
+                             @ShellOption(valueProvider = CommandValueProvider.class, value = {"-T", "--target"}, help = "目标文件夹")String target,
+                             @ShellOption(value = {"-M", "--mode"}, help = "放置方式：copy-拷贝，move-移动，hardlink-硬链接，reflink-写时复制，不支持时回退为拷贝", defaultValue = "copy") String mode,
+                             @ShellOption(value = {"-P", "--parallelism"}, help = "并行度，大于1时同时扫描和放置多个文件夹", defaultValue = "1") int parallelism,
+                             @ShellOption(value = "--dry-run", help = "只生成执行计划，不写入目标文件夹") boolean dryRun,
+                             @ShellOption(value = "--plan-file", help = "执行计划输出到文件，每行为 源文件夹<TAB>目标文件夹", defaultValue = ShellOption.NULL) String planFile) {
+        FileTransfer.Mode transferMode = FileTransfer.Mode.of(mode);
+        Path targetDirectory = Paths.get(target);
+        try (RunMetrics.Run run = runMetrics.start("aggregateDir");
+             Plan plan = Plan.create(Paths.get(appProperties.getPlan().getPath()), appProperties.getPlan().getSpillThreshold(), AggregateDirShell::targetName);
+             CopyEngine copyEngine = appProperties.getCopy().createEngine()) {
+
+            // 第一阶段：扫描每个文件夹，取日期最早的一条作为文件夹名
+            Map<Path, DirectoryScan> scans = new ConcurrentHashMap<>();
+            Pipeline.Sink<DirectoryScan> planner = scan -> {
+                plan.add(scan.directory, scan.attrs, targetDirectory, TimestampCodec.formatCompact(scan.earliest), "");
+                scans.put(scan.directory.toAbsolutePath().normalize(), scan);
+            };
+            if (parallelism <= 1) {
+                FileTraversal.list(Paths.get(source), (path, pathAttrs, progress) -> {
+                    // 单个文件夹失败只记录，继续处理后面的文件夹
+                    try {
+                        planner.accept(scan(new DirectoryScan(path, pathAttrs), run));
+                    } catch (Exception e) {
+                        LOGGER.error("Scan failed, directory: {}, message: {}", path, e.getMessage(), e);
+                        run.error("directory");
                     }
+                    return true;
                 });
+            } else {
+                try (Pipeline<DirectoryScan, DirectoryScan> pipeline = Pipeline.create("aggregateDir", parallelism, scan -> scan(scan, run), planner)) {
+                    pipeline.onFailure((item, cause) -> run.error("directory"));
+                    run.queue("scan", pipeline::parseQueueSize);
+                    FileTraversal.list(Paths.get(source), (path, pathAttrs, progress) -> {
+                        pipeline.submit(new DirectoryScan(path, pathAttrs));
+                        return true;
+                    });
+                    pipeline.await();
+                }
+            }
+            long total = plan.resolve();
 
-                // 取日期最早的一条作为文件夹名
-                LocalDateTime localDateTime = localDateTimes.stream().min(Comparator.naturalOrder()).orElseThrow(() -> new NullPointerException(String.format("发生错误，未找到文件[%s]", path)));
-                String filename = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS").format(localDateTime);
-                Path dest = Paths.get(target, filename);
+            if (planFile != null) {
+                plan.export(Paths.get(planFile));
+                LOGGER.info("Plan exported - {}, operations: {}", planFile, total);
+            }
+            AtomicInteger index = new AtomicInteger();
+            if (dryRun) {
+                if (planFile == null) {
+                    plan.forEach(operation -> LOGGER.info("[{}/{}] - source:{} target:{}", index.incrementAndGet(), total, operation.getSource(), operation.getTarget()));
+                }
+                return;
+            }
 
-                // COPY
-                FileSystemUtils.copyRecursively(path, dest);
-                LOGGER.info("[{}/{}] - source:{} target:{}", index, count, path, dest);
-                index ++;
+            // 第二阶段：按计划放置文件夹
+            TargetDirectoryCache directories = new TargetDirectoryCache();
+            directories.createAll(plan.getDirectories());
+            ExternalSorter.Consumer<Plan.Operation> executor = operation -> {
+                long start = System.nanoTime();
+                transferDirectory(operation.getSource(), operation.getTarget(), transferMode, directories, copyEngine);
+                run.record("copy", System.nanoTime() - start);
+                DirectoryScan scan = scans.get(operation.getSource());
+                run.processed(scan.files, scan.bytes);
+
+                int n = index.incrementAndGet();
+                if (run.shouldLog()) {
+                    LOGGER.info("[{}/{}] - source:{} target:{}", n, total, operation.getSource(), operation.getTarget());
+                }
+            };
+            if (parallelism <= 1) {
+                plan.forEach(operation -> {
+                    // 单个文件夹失败只记录，继续处理后面的文件夹
+                    try {
+                        executor.accept(operation);
+                    } catch (Exception e) {
+                        LOGGER.error("Aggregate failed, directory: {}, message: {}", operation.getSource(), e.getMessage(), e);
+                        run.error("directory");
+                    }
+                });
+            } else {
+                try (Pipeline<Plan.Operation, Plan.Operation> pipeline = Pipeline.create("aggregateDir", parallelism, operation -> operation, executor::accept)) {
+                    pipeline.onFailure((item, cause) -> run.error("directory"));
+                    run.queue("copy", pipeline::copyQueueSize);
+                    plan.forEach(pipeline::submit);
+                    pipeline.await();
+                }
             }
         } catch (IOException e) {
             LOGGER.error(e.getMessage(), e);
+            runMetrics.failed(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Aggregate interrupted.", e);
+            runMetrics.failed(e);
+        }
+    }
+
+    /**
+     * 遍历文件夹，只保留日期最早的一条和文件数、字节数，内存占用与文件数无关
+     */
+    private static DirectoryScan scan(DirectoryScan scan, RunMetrics.Run run) throws IOException {
+        long start = System.nanoTime();
+        FileTraversal.walk(scan.directory, (file, attrs, fileProgress) -> {
+            String filename = file.getFileName().toString();
+            LocalDateTime dateTime = TimestampCodec.parseFilename(filename);
+            if (dateTime == null) {
+                throw new DateTimeParseException("Filename does not contain a date: " + filename, filename, 0);
+            }
+            if (scan.earliest == null || dateTime.isBefore(scan.earliest)) {
+                scan.earliest = dateTime;
+            }
+            scan.files++;
+            scan.bytes += attrs.size();
+            return true;
+        });
+        run.record("scan", System.nanoTime() - start);
+        if (scan.earliest == null) {
+            throw new NullPointerException(String.format("发生错误，未找到文件[%s]", scan.directory));
+        }
+        return scan;
+    }
+
+    /**
+     * 文件名只精确到分钟，格式为 yyyyMMdd_HHmmss_SSS，重名时毫秒部分依次加1
+     */
+    static String targetName(Plan.Operation operation, int attempt) {
+        LocalDateTime dateTime = TimestampCodec.parseCompact(operation.getStem());
+        return TimestampCodec.formatCompact(dateTime.withNano(0).plus(attempt, ChronoUnit.MILLIS));
+    }
+
+    /**
+     * 移动时先尝试把整个文件夹原子重命名，不支持时逐个文件放置
+     */
+    private static void transferDirectory(Path source, Path dest, FileTransfer.Mode mode, TargetDirectoryCache directories, CopyEngine copyEngine) throws IOException {
+        if (mode == FileTransfer.Mode.MOVE && Files.notExists(dest)) {
+            try {
+                Files.move(source, dest, StandardCopyOption.ATOMIC_MOVE);
+                return;
+            } catch (AtomicMoveNotSupportedException e) {
+                LOGGER.debug("Atomic move [{}] not supported, fallback to moving files one by one.", source);
+            }
+        }
+
+        FileTraversal.walk(source, (file, attrs, progress) -> {
+            Path targetFile = dest.resolve(source.relativize(file));
+            directories.createParent(targetFile);
+            FileTransfer.transfer(file, targetFile, mode, copyEngine);
+            return true;
+        });
+        if (mode == FileTransfer.Mode.MOVE) {
+            deleteEmptyDirectories(source);
         }
     }
 
+    /**
+     * 从下往上删除已移空的文件夹，还有文件(例如跳过或移动失败的文件)的文件夹保留
+     */
+    private static void deleteEmptyDirectories(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                try {
+                    Files.delete(dir);
+                } catch (DirectoryNotEmptyException ex) {
+                    LOGGER.warn("Directory [{}] is not empty after move, kept.", dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 一个顶层文件夹的扫描结果
+     */
+    private static class DirectoryScan {
+        private final Path directory;
+        private final BasicFileAttributes attrs;
+        private LocalDateTime earliest;
+        private long files;
+        private long bytes;
+
+        DirectoryScan(Path directory, BasicFileAttributes attrs) {
+            this.directory = directory;
+            this.attrs = attrs;
+        }
+
+        @Override
+        public String toString() {
+            return directory.toString();
+        }
+    }
 }
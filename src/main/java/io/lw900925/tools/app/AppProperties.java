@@ -1,12 +1,30 @@
 package io.lw900925.tools.app;
 
+import io.lw900925.tools.metadata.ThumbnailGenerator;
+import io.lw900925.tools.support.CopyEngine;
+import io.lw900925.tools.support.IoScheduler;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 @ConfigurationProperties(prefix = "app")
 @Component
 public class AppProperties {
     private EXIFTool exifTool = new EXIFTool();
+    private Index index = new Index();
+    private Dedupe dedupe = new Dedupe();
+    private Journal journal = new Journal();
+    private Metrics metrics = new Metrics();
+    private Plan plan = new Plan();
+    private Copy copy = new Copy();
+    private Thumbnail thumbnail = new Thumbnail();
+    private Watch watch = new Watch();
+    private Similar similar = new Similar();
+    private Catalog catalog = new Catalog();
 
     public EXIFTool getExifTool() {
         return exifTool;
@@ -16,6 +34,86 @@ public class AppProperties {
         this.exifTool = exifTool;
     }
 
+    public Index getIndex() {
+        return index;
+    }
+
+    public void setIndex(Index index) {
+        this.index = index;
+    }
+
+    public Dedupe getDedupe() {
+        return dedupe;
+    }
+
+    public void setDedupe(Dedupe dedupe) {
+        this.dedupe = dedupe;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Plan getPlan() {
+        return plan;
+    }
+
+    public void setPlan(Plan plan) {
+        this.plan = plan;
+    }
+
+    public Copy getCopy() {
+        return copy;
+    }
+
+    public void setCopy(Copy copy) {
+        this.copy = copy;
+    }
+
+    public Thumbnail getThumbnail() {
+        return thumbnail;
+    }
+
+    public void setThumbnail(Thumbnail thumbnail) {
+        this.thumbnail = thumbnail;
+    }
+
+    public Watch getWatch() {
+        return watch;
+    }
+
+    public void setWatch(Watch watch) {
+        this.watch = watch;
+    }
+
+    public Similar getSimilar() {
+        return similar;
+    }
+
+    public void setSimilar(Similar similar) {
+        this.similar = similar;
+    }
+
+    public Catalog getCatalog() {
+        return catalog;
+    }
+
+    public void setCatalog(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
     public static class EXIFTool {
         private String path;
         private boolean backup;
@@ -36,4 +134,322 @@ public class AppProperties {
             this.backup = backup;
         }
     }
+
+    public static class Index {
+        private String path;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+    }
+
+    public static class Dedupe {
+        private String path;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+    }
+
+    public static class Journal {
+        private String path;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+    }
+
+    public static class Metrics {
+        /**
+         * 运行结束时输出报告的文件夹，为空时不输出
+         */
+        private String reportDir;
+        /**
+         * 逐文件日志的最小间隔(毫秒)，0表示每个文件都输出
+         */
+        private long logInterval = 1000;
+
+        public String getReportDir() {
+            return reportDir;
+        }
+
+        public void setReportDir(String reportDir) {
+            this.reportDir = reportDir;
+        }
+
+        public long getLogInterval() {
+            return logInterval;
+        }
+
+        public void setLogInterval(long logInterval) {
+            this.logInterval = logInterval;
+        }
+    }
+
+    public static class Plan {
+        /**
+         * 执行计划过大时临时文件所在的文件夹
+         */
+        private String path;
+        /**
+         * 内存中最多保留的操作数，超过时写入临时文件
+         */
+        private int spillThreshold = 100000;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public int getSpillThreshold() {
+            return spillThreshold;
+        }
+
+        public void setSpillThreshold(int spillThreshold) {
+            this.spillThreshold = spillThreshold;
+        }
+    }
+
+    public static class Copy {
+        /**
+         * 单次传输的最大长度，也是直接缓冲区的大小
+         */
+        private DataSize chunkSize = DataSize.ofMegabytes(8);
+        /**
+         * 同时进行的拷贝数
+         */
+        private int inFlight = 4;
+        /**
+         * fsync策略：none、file、batch、end
+         */
+        private CopyEngine.Sync sync = CopyEngine.Sync.NONE;
+        /**
+         * sync为batch时每批的文件数
+         */
+        private int batchSize = 100;
+        /**
+         * 是否使用transferTo零拷贝，关闭时通过直接缓冲区读写
+         */
+        private boolean zeroCopy = true;
+        /**
+         * 机械盘上同时进行的读写数
+         */
+        private int rotationalInFlight = 1;
+        /**
+         * 固态盘上同时进行的读写数
+         */
+        private int solidStateInFlight = 4;
+        /**
+         * 视为机械盘的路径前缀，用于无法自动判断的设备，例如macOS上挂载的外置硬盘
+         */
+        private List<String> rotationalPaths = new ArrayList<>();
+
+        /**
+         * 按配置创建拷贝引擎，每次运行一个
+         */
+        public CopyEngine createEngine() {
+            return new CopyEngine((int) Math.min(Integer.MAX_VALUE, chunkSize.toBytes()), inFlight, sync, batchSize, zeroCopy,
+                    new IoScheduler(rotationalInFlight, solidStateInFlight, rotationalPaths));
+        }
+
+        public DataSize getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(DataSize chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public void setInFlight(int inFlight) {
+            this.inFlight = inFlight;
+        }
+
+        public CopyEngine.Sync getSync() {
+            return sync;
+        }
+
+        public void setSync(CopyEngine.Sync sync) {
+            this.sync = sync;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public boolean isZeroCopy() {
+            return zeroCopy;
+        }
+
+        public void setZeroCopy(boolean zeroCopy) {
+            this.zeroCopy = zeroCopy;
+        }
+
+        public int getRotationalInFlight() {
+            return rotationalInFlight;
+        }
+
+        public void setRotationalInFlight(int rotationalInFlight) {
+            this.rotationalInFlight = rotationalInFlight;
+        }
+
+        public int getSolidStateInFlight() {
+            return solidStateInFlight;
+        }
+
+        public void setSolidStateInFlight(int solidStateInFlight) {
+            this.solidStateInFlight = solidStateInFlight;
+        }
+
+        public List<String> getRotationalPaths() {
+            return rotationalPaths;
+        }
+
+        public void setRotationalPaths(List<String> rotationalPaths) {
+            this.rotationalPaths = rotationalPaths;
+        }
+    }
+
+    public static class Thumbnail {
+        /**
+         * 缩略图所在文件夹，相对于目标文件夹
+         */
+        private String directory = ".thumbnails";
+        /**
+         * 缩略图长边的像素数
+         */
+        private int size = 320;
+        /**
+         * 解码线程数
+         */
+        private int threads = 2;
+        /**
+         * 同时解码的图像最多占用的内存
+         */
+        private DataSize memoryBudget = DataSize.ofMegabytes(256);
+
+        /**
+         * 按配置创建缩略图生成器，每次运行一个
+         */
+        public ThumbnailGenerator createGenerator() {
+            return new ThumbnailGenerator(size, threads, memoryBudget.toBytes());
+        }
+
+        public String getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(String directory) {
+            this.directory = directory;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public void setSize(int size) {
+            this.size = size;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public void setThreads(int threads) {
+            this.threads = threads;
+        }
+
+        public DataSize getMemoryBudget() {
+            return memoryBudget;
+        }
+
+        public void setMemoryBudget(DataSize memoryBudget) {
+            this.memoryBudget = memoryBudget;
+        }
+    }
+
+    public static class Watch {
+        /**
+         * 文件大小和修改时间保持不变多久后认为写入完成
+         */
+        private Duration settle = Duration.ofSeconds(1);
+        /**
+         * 重新扫描整个源文件夹的间隔，补上操作系统丢失的事件
+         */
+        private Duration reconcileInterval = Duration.ofMinutes(5);
+        /**
+         * 每一批最多处理的文件数
+         */
+        private int batchSize = 200;
+
+        public Duration getSettle() {
+            return settle;
+        }
+
+        public void setSettle(Duration settle) {
+            this.settle = settle;
+        }
+
+        public Duration getReconcileInterval() {
+            return reconcileInterval;
+        }
+
+        public void setReconcileInterval(Duration reconcileInterval) {
+            this.reconcileInterval = reconcileInterval;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+    }
+
+    public static class Similar {
+        private String path;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+    }
+
+    public static class Catalog {
+        private String path;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+    }
 }
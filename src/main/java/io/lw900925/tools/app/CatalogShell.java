@@ -0,0 +1,128 @@
+package io.lw900925.tools.app;
+
+import io.lw900925.tools.metadata.CaptureCatalog;
+import io.lw900925.tools.support.FileTraversal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.shell.standard.CommandValueProvider;
+import org.springframework.shell.standard.ShellComponent;
+import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * 按拍摄时间查询已整理的文件
+ * <p>
+ * group、watch 放置文件时记录到{@link CaptureCatalog}，查询时不遍历文件夹，也不再解析文件名。
+ *
+ * @author lw900925
+ */
+@ShellComponent
+public class CatalogShell {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CatalogShell.class);
+
+    @Autowired
+    private AppProperties appProperties;
+
+    @Autowired
+    private RunMetrics runMetrics;
+
+    @ShellMethod(value = "按拍摄时间查找已整理的文件")
+    public void find(@ShellOption(value = "--from", help = "开始时间(包含)，格式为 yyyy-MM-dd 或 yyyy-MM-dd HH:mm[:ss]", defaultValue = ShellOption.NULL) String from,
+                     @ShellOption(value = "--to", help = "结束时间(包含)，只有日期时到当天结束", defaultValue = ShellOption.NULL) String to,
+                     @ShellOption(value = "--ext", help = "只查找这些扩展名，多个用逗号分隔，例如 jpg,heic", defaultValue = ShellOption.NULL) String ext,
+                     @ShellOption(value = "--output", help = "结果输出到文件，每行为 拍摄时间<TAB>文件", defaultValue = ShellOption.NULL) String output) {
+        LocalDateTime fromTime = from == null ? LocalDateTime.MIN : parseTime(from, LocalTime.MIN);
+        LocalDateTime toTime = to == null ? LocalDateTime.MAX : parseTime(to, LocalTime.MAX.withNano(0));
+        Predicate<String> filter = ext == null ? null : extensionFilter(ext);
+
+        try (RunMetrics.Run run = runMetrics.start("find");
+             CaptureCatalog.Reader reader = CaptureCatalog.read(Paths.get(appProperties.getCatalog().getPath()))) {
+            long start = System.nanoTime();
+            long found;
+            if (output == null) {
+                found = reader.find(fromTime, toTime, filter, (captureTime, file) -> LOGGER.info("{} {}", captureTime, file));
+            } else {
+                Path file = Paths.get(output);
+                if (file.getParent() != null && Files.notExists(file.getParent())) {
+                    Files.createDirectories(file.getParent());
+                }
+                try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                    found = reader.find(fromTime, toTime, filter, (captureTime, path) -> {
+                        writer.write(captureTime + "\t" + path);
+                        writer.newLine();
+                    });
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            run.record("find", elapsed);
+            LOGGER.info("Found {} files in {} ms", found, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage(), e);
+            runMetrics.failed(e);
+        }
+    }
+
+    @ShellMethod(value = "扫描已整理的文件夹，按文件名中的拍摄日期重建目录")
+    public void rebuildCatalog(@ShellOption(valueProvider = CommandValueProvider.class, value = {"-S", "--source"}, help = "已整理的文件夹") String source) {
+        Path root = Paths.get(source);
+        try (RunMetrics.Run run = runMetrics.start("rebuildCatalog");
+             CaptureCatalog catalog = CaptureCatalog.open(Paths.get(appProperties.getCatalog().getPath()), true)) {
+            FileTraversal.walk(root, run.walk((file, attrs, progress) -> {
+                // 隐藏文件夹遍历时已经跳过，这里跳过隐藏文件
+                if (FileTraversal.isHidden(file)) {
+                    return true;
+                }
+                if (!catalog.addArchived(file)) {
+                    LOGGER.debug("{} has no capture date in filename, not cataloged.", file.getFileName());
+                }
+                run.processed(attrs.size());
+                return true;
+            }));
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage(), e);
+            runMetrics.failed(e);
+        }
+    }
+
+    /**
+     * 解析 yyyy-MM-dd 或 yyyy-MM-dd HH:mm[:ss]，只有日期时使用给定的时间
+     */
+    private static LocalDateTime parseTime(String text, LocalTime defaultTime) {
+        try {
+            String value = text.trim();
+            if (value.length() == 10) {
+                return LocalDate.parse(value).atTime(defaultTime);
+            }
+            return LocalDateTime.parse(value.replace(' ', 'T'));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid time: " + text);
+        }
+    }
+
+    private static Predicate<String> extensionFilter(String ext) {
+        Set<String> extensions = new HashSet<>();
+        for (String extension : ext.split(",")) {
+            if (!extension.trim().isEmpty()) {
+                extensions.add(extension.trim().toLowerCase());
+            }
+        }
+        return path -> extensions.contains(RenameShell.extension(path).toLowerCase());
+    }
+}
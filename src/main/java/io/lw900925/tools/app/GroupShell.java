@@ -1,79 +1,178 @@
 package io.lw900925.tools.app;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.io.MoreFiles;
+import io.lw900925.tools.metadata.CaptureCatalog;
+import io.lw900925.tools.support.CopyEngine;
+import io.lw900925.tools.support.DuplicateDetector;
+import io.lw900925.tools.support.ExternalSorter;
+import io.lw900925.tools.support.FileTransfer;
+import io.lw900925.tools.support.FileTraversal;
+import io.lw900925.tools.support.Pipeline;
+import io.lw900925.tools.support.Plan;
+import io.lw900925.tools.support.TargetDirectoryCache;
+import io.lw900925.tools.support.TimestampCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.shell.standard.CommandValueProvider;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
 import org.springframework.shell.standard.ShellOption;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Map;
+import java.time.YearMonth;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @ShellComponent
 public class GroupShell {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GroupShell.class);
 
-    private static final Map<String, String> MONTHS = ImmutableMap.<String, String> builder()
-            .put("01", "01.Jan")
-            .put("02", "02.Feb")
-            .put("03", "03.Mar")
-            .put("04", "04.Apr")
-            .put("05", "05.May")
-            .put("06", "06.Jun")
-            .put("07", "07.Jul")
-            .put("08", "08.Aug")
-            .put("09", "09.Sep")
-            .put("10", "10.Oct")
-            .put("11", "11.Nov")
-            .put("12", "12.Dec")
-            .build();
+    @Autowired
+    private AppProperties appProperties;
+
+    @Autowired
+    private RunMetrics runMetrics;
 
     @ShellMethod(value = "将文件夹中的文件按月份分组，输出到目标文件夹")
     public void group(@ShellOption(valueProvider = CommandValueProvider.class, value = {"-S", "--source"}, help = "原文件夹") String source,
-                      @ShellOption(valueProvider = CommandValueProvider.class, value = {"-T", "--target"}, help = "目标文件夹")String target) {
-        try {
-            long count = Files.walk(Paths.get(source)).filter(path -> !Files.isDirectory(path)).count();
-
-            Files.walkFileTree(Paths.get(source), new SimpleFileVisitor<Path>() {
-
-                private int index = 1;
+                      @ShellOption(valueProvider = CommandValueProvider.class, value = {"-T", "--target"}, help = "目标文件夹")String target,
+                      @ShellOption(value = {"-M", "--mode"}, help = "放置方式：copy-拷贝，move-移动，hardlink-硬链接，reflink-写时复制，不支持时回退为拷贝", defaultValue = "copy") String mode,
+                      @ShellOption(value = "--dedupe", help = "内容重复的文件：none-照常拷贝，skip-跳过，link-创建指向已有文件的硬链接；移动时重复的源文件会被删除", defaultValue = "none") String dedupe,
+                      @ShellOption(value = "--dry-run", help = "只生成执行计划，不写入目标文件夹") boolean dryRun,
+                      @ShellOption(value = "--plan-file", help = "执行计划输出到文件，每行为 源文件<TAB>目标文件", defaultValue = ShellOption.NULL) String planFile) {
+        FileTransfer.Mode transferMode = FileTransfer.Mode.of(mode);
+        DuplicateDetector.Action action = DuplicateDetector.Action.of(dedupe);
+        try (RunMetrics.Run run = runMetrics.start("group");
+             DuplicateDetector duplicateDetector = action == DuplicateDetector.Action.NONE || dryRun ? null : DuplicateDetector.open(Paths.get(appProperties.getDedupe().getPath()));
+             CaptureCatalog catalog = dryRun ? null : CaptureCatalog.open(Paths.get(appProperties.getCatalog().getPath()), false);
+             Plan plan = Plan.create(Paths.get(appProperties.getPlan().getPath()), appProperties.getPlan().getSpillThreshold(), GroupShell::targetName);
+             CopyEngine copyEngine = appProperties.getCopy().createEngine()) {
 
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            // 第一阶段：根据文件名确定月份文件夹，生成执行计划
+            FileTraversal.walk(Paths.get(source), run.walk((file, attrs, progress) -> {
+                String filename = file.getFileName().toString();
+                if (filename.contains(".DS_Store")) {
+                    return true;
+                }
+                // 只看文件名开头的年份和月份
+                YearMonth yearMonth = TimestampCodec.parseYearMonth(filename);
+                int dot = filename.lastIndexOf('.');
+                if (yearMonth == null) {
+                    // 不知道放到哪个月份，跳过
+                    LOGGER.warn("{} has no year and month at the start of filename, skipped.", file);
+                    run.error(dot < 0 ? "" : filename.substring(dot + 1).toLowerCase());
+                    return true;
+                }
+                Path directory = Paths.get(target, TimestampCodec.formatMonthDirectory(yearMonth));
+                plan.add(file, attrs, directory, dot < 0 ? filename : filename.substring(0, dot), dot < 0 ? "" : filename.substring(dot + 1));
+                return true;
+            }));
+            long start = System.nanoTime();
+            long total = plan.resolve();
+            run.record("plan", System.nanoTime() - start);
 
-                    String filename = file.getFileName().toString();
-                    if (filename.contains(".DS_Store")) {
-                        return FileVisitResult.CONTINUE;
-                    }
+            if (planFile != null) {
+                plan.export(Paths.get(planFile));
+                LOGGER.info("Plan exported - {}, operations: {}", planFile, total);
+            }
+            AtomicInteger index = new AtomicInteger();
+            if (dryRun) {
+                if (planFile == null) {
+                    plan.forEach(operation -> LOGGER.info("[{}/{}] - {} -> {}", index.incrementAndGet(), total, operation.getSource(), operation.getTarget()));
+                }
+                return;
+            }
 
-                    // 获取文件名中的年份和月份
-                    String year = filename.substring(0, 4);
-                    String month = filename.substring(4, 6);
-                    if (month.contains("_")) {
-                        month = filename.substring(5, 7);
+            // 第二阶段：一次建好所有 年/月 文件夹，按计划放置文件，同时进行的拷贝数由拷贝引擎决定
+            TargetDirectoryCache directories = new TargetDirectoryCache();
+            directories.createAll(plan.getDirectories());
+            ExternalSorter.Consumer<Plan.Operation> executor = operation -> {
+                Path file = operation.getSource();
+                Path targetPath = operation.getTarget();
+                String filename = file.getFileName().toString();
+                directories.createParent(targetPath);
+                long copyStart = System.nanoTime();
+                try {
+                    if (duplicateDetector == null) {
+                        FileTransfer.transfer(file, targetPath, transferMode, copyEngine);
+                        catalog.addArchived(targetPath);
+                    } else {
+                        Path duplicate = duplicateDetector.findOrCopy(file, Files.readAttributes(file, BasicFileAttributes.class), () -> {
+                            FileTransfer.transfer(file, targetPath, transferMode, copyEngine);
+                            return targetPath;
+                        });
+                        if (duplicate != null && action == DuplicateDetector.Action.LINK) {
+                            FileTransfer.transfer(duplicate, targetPath, FileTransfer.Mode.HARDLINK, copyEngine);
+                            LOGGER.debug("{} is duplicate of {}, linked.", filename, duplicate);
+                        } else if (duplicate != null) {
+                            LOGGER.debug("{} is duplicate of {}, skipped.", filename, duplicate);
+                        }
+                        if (duplicate == null || action == DuplicateDetector.Action.LINK) {
+                            catalog.addArchived(targetPath);
+                        }
+                        if (duplicate != null && transferMode == FileTransfer.Mode.MOVE) {
+                            deleteDuplicate(file, duplicate);
+                        }
                     }
+                } finally {
+                    run.record("copy", System.nanoTime() - copyStart);
+                }
+                run.processed(operation.getSize());
 
-                    Path targetPath = Paths.get(target + File.separator + year + File.separator + MONTHS.get(month) + File.separator + filename);
-                    if (Files.notExists(targetPath.getParent())) {
-                        Files.createDirectories(targetPath.getParent());
+                int n = index.incrementAndGet();
+                if (run.shouldLog()) {
+                    LOGGER.info("[{}/{}] - {} -> {}", n, total, filename, targetPath.getFileName());
+                }
+            };
+            int inFlight = appProperties.getCopy().getInFlight();
+            if (inFlight <= 1) {
+                plan.forEach(operation -> {
+                    // 单个文件失败只记录，继续处理后面的文件
+                    try {
+                        executor.accept(operation);
+                    } catch (Exception e) {
+                        LOGGER.error("Group failed, file: {}, message: {}", operation.getSource(), e.getMessage(), e);
+                        run.error(operation.getExtension());
                     }
-                    Files.copy(file, targetPath);
-
-                    LOGGER.info("[{}/{}] - {}", index, count, filename);
-
-                    index++;
-
-                    return FileVisitResult.CONTINUE;
+                });
+            } else {
+                try (Pipeline<Plan.Operation, Plan.Operation> pipeline = Pipeline.create("group", inFlight, operation -> operation, executor::accept)) {
+                    pipeline.onFailure((item, cause) -> run.error(((Plan.Operation) item).getExtension()));
+                    run.queue("copy", pipeline::copyQueueSize);
+                    plan.forEach(pipeline::submit);
+                    pipeline.await();
                 }
-            });
+            }
         } catch (IOException e) {
             LOGGER.error(e.getMessage(), e);
+            runMetrics.failed(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Group interrupted.", e);
+            runMetrics.failed(e);
+        }
+    }
+
+    /**
+     * 移动模式下内容重复的源文件不再放置，和移动一样从源文件夹删除。
+     * 小文件只比较了哈希，删除前逐字节确认与已有文件一致，不一致时保留源文件
+     */
+    private static void deleteDuplicate(Path file, Path duplicate) throws IOException {
+        if (!MoreFiles.asByteSource(file).contentEquals(MoreFiles.asByteSource(duplicate))) {
+            throw new IOException(String.format("%s differs from duplicate %s, source kept", file, duplicate));
         }
+        Files.delete(file);
+        LOGGER.debug("{} is duplicate of {}, source deleted.", file.getFileName(), duplicate);
+    }
+
+    /**
+     * 保留原文件名，重名时加上序号，例如 IMG_0001_1.JPG
+     */
+    static String targetName(Plan.Operation operation, int attempt) {
+        String stem = attempt == 0 ? operation.getStem() : operation.getStem() + "_" + attempt;
+        return operation.getExtension().isEmpty() ? stem : stem + "." + operation.getExtension();
     }
 }
@@ -1,14 +1,19 @@
 package io.lw900925.tools.app;
 
 import com.google.common.collect.ImmutableMap;
+import io.lw900925.tools.metadata.ExifTool;
+import io.lw900925.tools.metadata.JpegExifRewriter;
+import io.lw900925.tools.metadata.QuickTimeTimestampWriter;
+import io.lw900925.tools.metadata.ThumbnailGenerator;
+import io.lw900925.tools.support.CopyEngine;
+import io.lw900925.tools.support.FileTraversal;
+import io.lw900925.tools.support.Journal;
+import io.lw900925.tools.support.TargetDirectoryCache;
+import io.lw900925.tools.support.TimestampCodec;
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.ImageWriteException;
-import org.apache.commons.imaging.Imaging;
-import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
-import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
 import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
 import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
-import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,107 +23,151 @@ import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
 import org.springframework.shell.standard.ShellOption;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
-import java.time.ZoneId;
+import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Map;
 
 @ShellComponent
 public class RebuildExifShell {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RebuildExifShell.class);
 
+    private static final int EXIFTOOL_BATCH_SIZE = 50;
+    private static final int JOURNAL_BATCH_SIZE = 256;
+    private static final DateTimeFormatter FILE_DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ssXXX");
+
     @Autowired
     private AppProperties appProperties;
 
+    @Autowired
+    private RunMetrics runMetrics;
+
     @ShellMethod(value = "重建照片EXIF信息")
     public void rebuildExif(@ShellOption(valueProvider = CommandValueProvider.class, value = {"-S", "--source"}, help = "原文件夹") String source,
-                            @ShellOption(valueProvider = CommandValueProvider.class, value = {"-T", "--target"}, help = "目标文件夹")String target) {
-        try {
-            long count = Files.walk(Paths.get(source)).filter(path -> !Files.isDirectory(path)).count();
-            Files.walkFileTree(Paths.get(source), new SimpleFileVisitor<Path>() {
-                private int index = 1;
-
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-
-                    String filename = file.getFileName().toString();
-                    if (filename.contains(".DS_Store")) {
-                        return FileVisitResult.CONTINUE;
-                    }
-
-                    Path targetPath = null;
-                    String extension = filename.substring(filename.lastIndexOf(0x2e) + 1);
+                            @ShellOption(valueProvider = CommandValueProvider.class, value = {"-T", "--target"}, help = "目标文件夹")String target,
+                            @ShellOption(value = "--resume", help = "接着上次中断的进度执行，跳过已完成的文件") boolean resume,
+                            @ShellOption(value = "--thumbnails", help = "同时为照片生成缩略图，写入目标文件夹下的缩略图文件夹") boolean thumbnails) {
+        Path journalPath = Journal.resolve(appProperties.getJournal().getPath(), "rebuildExif", source, target);
+        try (RunMetrics.Run run = runMetrics.start("rebuildExif");
+             Journal journal = Journal.open(journalPath, resume);
+             // 先于运行日志关闭，关闭时执行剩余的exiftool命令并记录结果
+             ExifTool exifTool = openExifTool();
+             CopyEngine copyEngine = appProperties.getCopy().createEngine();
+             ThumbnailGenerator thumbnailGenerator = thumbnails ? appProperties.getThumbnail().createGenerator() : null) {
+            // 上次中断时写了一半的目标文件先删除，写入完整的补记完成
+            journal.recover();
+            TargetDirectoryCache directories = new TargetDirectoryCache();
+            FileTraversal.Visitor rewrite = (file, attrs, progress) -> {
+                String filename = file.getFileName().toString();
+                // 单个文件失败只记录，继续处理后面的文件
+                String extension = filename.substring(filename.lastIndexOf(0x2e) + 1);
+                long start = System.nanoTime();
+                try {
+                    Path targetPath = Paths.get(target, filename);
                     if (Arrays.asList("jpeg", "jpg").contains(extension.toLowerCase())) {
-                        targetPath = withImage(file, target);
+                        targetPath = withImage(file, targetPath, directories, copyEngine);
+                        if (targetPath == null) {
+                            throw new IOException("处理失败");
+                        }
+                        if (thumbnailGenerator != null) {
+                            thumbnailGenerator.submit(file, targetPath.resolveSibling(appProperties.getThumbnail().getDirectory())
+                                    .resolve(targetPath.getFileName() + ".jpg"));
+                        }
                     } else if (Arrays.asList("mp4", "mov", "m4v").contains(extension.toLowerCase())) {
-                        targetPath = withVideo(file, target);
+                        Path videoPath = targetPath;
+                        targetPath = withVideo(file, videoPath, exifTool, directories, copyEngine, (success, output) -> {
+                            if (success) {
+                                run.processed(attrs.size());
+                                journal.completed(file, videoPath);
+                            } else {
+                                LOGGER.error("source:{} failed - exiftool: {}", filename, output);
+                                Files.deleteIfExists(videoPath);
+                                run.error(extension);
+                                journal.failed(file, new IOException("exiftool: " + output));
+                            }
+                        });
+                        if (targetPath == null) {
+                            // 交给exiftool批量执行，执行完后在回调中记录
+                            progress.next();
+                            return true;
+                        }
+                    } else {
+                        throw new UnsupportedOperationException("Unsupported file extension." + file);
                     }
 
-                    if (targetPath == null) {
-                        throw new RuntimeException("处理失败");
+                    run.record("rewrite", System.nanoTime() - start);
+                    run.processed(attrs.size());
+                    journal.completed(file, targetPath);
+                    int index = progress.next();
+                    if (run.shouldLog()) {
+                        LOGGER.info("[{}/{}] - source:{} target:{}", index, progress.total(), filename, targetPath.getFileName());
                     }
-
-                    LOGGER.info("[{}/{}] - source:{} target:{}", index, count, filename, targetPath.getFileName());
-
-                    index++;
-                    return FileVisitResult.CONTINUE;
+                } catch (Exception e) {
+                    LOGGER.error("[{}/{}] - source:{} failed - {}", progress.next(), progress.total(), filename, e.getMessage(), e);
+                    run.error(extension);
+                    journal.failed(file, e);
                 }
-            });
+                return true;
+            };
+
+            // 写入之前记录一批文件的目标文件，只刷一次盘，中断后恢复时只检查这些目标文件
+            Map<Path, BasicFileAttributes> chunk = new LinkedHashMap<>();
+            FileTraversal.Progress progress = FileTraversal.walk(Paths.get(source), run.walk((file, attrs, walkProgress) -> {
+                String filename = file.getFileName().toString();
+                if (filename.contains(".DS_Store")) {
+                    return true;
+                }
+                if (journal.isCompleted(file)) {
+                    LOGGER.debug("[{}/{}] - source:{} completed, skipped", walkProgress.next(), walkProgress.total(), filename);
+                    return true;
+                }
+                chunk.put(file, attrs);
+                if (chunk.size() >= JOURNAL_BATCH_SIZE) {
+                    rewrite(chunk, target, journal, rewrite, walkProgress);
+                }
+                return true;
+            }));
+            rewrite(chunk, target, journal, rewrite, progress);
         } catch (IOException e) {
             LOGGER.error(e.getMessage(), e);
+            runMetrics.failed(e);
         }
     }
 
 
-    private Path withImage(Path file, String target) throws IOException {
+    private Path withImage(Path file, Path targetPath, TargetDirectoryCache directories, CopyEngine copyEngine) throws IOException {
         String filename = file.getFileName().toString();
 
-        Path targetPath = null;
-        TiffOutputSet output = null;
-        ZonedDateTime dateTime = null;
-        try {
-            JpegImageMetadata metadata = (JpegImageMetadata) Imaging.getMetadata(file.toFile());
-            output = metadata.getExif().getOutputSet();
-            TiffOutputDirectory directory = output.getOrCreateExifDirectory();
+        // 重建EXIF信息
+        LocalDateTime localDateTime = getFilenameDateTime(filename);
+        String strDateTime = TimestampCodec.formatExif(localDateTime);
+        ZonedDateTime dateTime = localDateTime.atZone(TimestampCodec.ZONE);
 
-            // 移除原始拍摄日期
-            directory.removeField(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL);
-            directory.removeField(ExifTagConstants.EXIF_TAG_DATE_TIME_DIGITIZED);
+        directories.createParent(targetPath);
 
-            // 重建EXIF信息
-            String strDateTime = getFilenameDateTime(filename);
-            directory.add(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL, strDateTime);
-            directory.add(ExifTagConstants.EXIF_TAG_DATE_TIME_DIGITIZED, strDateTime);
+        // 只解析一次头部，扫描数据直接拷贝
+        try {
+            JpegExifRewriter.rewrite(file, targetPath, copyEngine, output -> {
+                TiffOutputDirectory directory = output.getOrCreateExifDirectory();
 
-            dateTime = ZonedDateTime.parse(strDateTime, DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss").withLocale(Locale.CHINESE).withZone(ZoneId.systemDefault()));
+                // 移除原始拍摄日期
+                directory.removeField(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL);
+                directory.removeField(ExifTagConstants.EXIF_TAG_DATE_TIME_DIGITIZED);
 
-            targetPath = Paths.get(target + File.separator + filename);
+                directory.add(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL, strDateTime);
+                directory.add(ExifTagConstants.EXIF_TAG_DATE_TIME_DIGITIZED, strDateTime);
+            });
         } catch (ImageReadException | ImageWriteException e) {
-            LOGGER.error("读取照片EXIF信息失败 - " + e.getMessage(), e);
-            return null;
-        }
-
-        if (Files.notExists(targetPath.getParent())) {
-            Files.createDirectories(targetPath.getParent());
-        }
-
-        try (InputStream inputStream = Files.newInputStream(file);
-             OutputStream outputStream = Files.newOutputStream(targetPath)) {
-            ExifRewriter rewriter = new ExifRewriter();
-            rewriter.updateExifMetadataLossless(inputStream, outputStream, output);
-        } catch (ImageWriteException | ImageReadException e) {
             LOGGER.error("写入照片EXIF信息失败 - " + e.getMessage(), e);
             return null;
         }
@@ -127,68 +176,94 @@ public class RebuildExifShell {
         return targetPath;
     }
 
-    private Path withVideo(Path file, String target) throws IOException {
+    /**
+     * @param callback 无法直接改写时交给exiftool，执行完后调用
+     * @return 目标文件，交给exiftool时为null
+     */
+    private Path withVideo(Path file, Path targetPath, ExifTool exifTool, TargetDirectoryCache directories, CopyEngine copyEngine,
+                           ExifTool.Callback callback) throws IOException {
         String filename = file.getFileName().toString();
-        String baseFilename = filename.substring(0, filename.lastIndexOf("_IMG_"));
 
         // 将文件拷贝到目标文件夹
-        Path targetPath = Paths.get(target + File.separator + filename);
-        if (Files.notExists(targetPath.getParent())) {
-            Files.createDirectories(targetPath.getParent());
-        }
-        Files.copy(file, targetPath);
+        directories.createParent(targetPath);
+        copyEngine.copy(file, targetPath);
 
         // 格式化标签日期
-        String strDateTime = getFilenameDateTime(filename);
+        LocalDateTime localDateTime = getFilenameDateTime(filename);
+        String strDateTime = TimestampCodec.formatExif(localDateTime);
+        ZonedDateTime dateTime = localDateTime.atZone(TimestampCodec.ZONE);
 
-        // 判断运行环境
-        String command = "${cmd} ${args} ${tags} ${file}";
-        String os = System.getProperty("os.name");
-        if (StringUtils.containsIgnoreCase(os, "windows")) {
-            String exiftool = appProperties.getExifTool().getPath() + File.separator + "exiftool.exe";
-            command = StringUtils.replace(command, "${cmd}", exiftool);
-        } else if (StringUtils.containsIgnoreCase(os, "linux") || StringUtils.containsIgnoreCase(os, "mac")) {
-            throw new RuntimeException("linux 和 macOS 还没支持");
+        // 直接改写mvhd/tkhd/mdhd中的时间字段
+        try {
+            QuickTimeTimestampWriter.write(targetPath, dateTime.toInstant(), dateTime.toInstant());
+        } catch (IOException e) {
+            if (!exifTool.isAvailable()) {
+                throw e;
+            }
+            LOGGER.warn("改写视频时间失败，使用exiftool - {}", e.getMessage());
+
+            // 填入exif标签值
+            boolean backup = appProperties.getExifTool().isBackup();
+            String fileDateTime = FILE_DATE_TIME_FORMATTER.format(dateTime);
+            List<String> args = new ArrayList<>();
+            if (!backup) {
+                args.add("-overwrite_original");
+            }
+            ImmutableMap.<String, String> builder()
+                    .put("-CreateDate", strDateTime)
+                    .put("-ModifyDate", strDateTime)
+                    .put("-MediaCreateDate", strDateTime)
+                    .put("-MediaModifyDate", strDateTime)
+                    .put("-FileCreateDate", fileDateTime)
+                    .put("-FileModifyDate", fileDateTime)
+                    .build()
+                    .forEach((tag, value) -> args.add(tag + "=" + value));
+            args.add(targetPath.toString());
+            exifTool.submit(args, callback);
+            return null;
         }
 
-        // 使用exiftool命令
-        boolean backup = appProperties.getExifTool().isBackup();
-        String delOrig = backup ? "" : "-overwrite_original";
-        command = StringUtils.replace(command, "${args}", delOrig);
-
-        // 填入exif标签值
-        List<String> tags = ImmutableMap.<String, String> builder()
-                .put("-CreateDate", strDateTime)
-                .put("-ModifyDate", strDateTime)
-                .put("-MediaCreateDate", strDateTime)
-                .put("-MediaModifyDate", strDateTime)
-                .put("-FileCreateDate", strDateTime + "+08:00")
-                .put("-FileModifyDate", strDateTime + "+08:00")
-                .build()
-                .entrySet()
-                .stream()
-                .map(entry -> entry.getKey() + "=\"" + entry.getValue() + "\"")
-                .collect(Collectors.toList());
-        String strTags = String.join(" ", tags);
-
-        command = StringUtils.replaceEach(command, new String[] {"${tags}", "${file}"}, new String[] {strTags, targetPath.toString()});
-
-        // 运行命令
-        Runtime runtime = Runtime.getRuntime();
-        runtime.exec(command);
-
+        FileTime fileTime = FileTime.from(dateTime.toInstant());
+        Files.setLastModifiedTime(targetPath, fileTime);
+        Files.setAttribute(targetPath, "basic:creationTime", fileTime);
         return targetPath;
     }
 
-    private String getFilenameDateTime(String filename) {
-        ZonedDateTime dateTime;
-        if (filename.contains("_IMG_")) {
-            String baseFilename = filename.substring(0, filename.lastIndexOf("_IMG_"));
-            dateTime = ZonedDateTime.parse(baseFilename, DateTimeFormatter.ofPattern("yyyy_MM_dd_HH_mm").withZone(ZoneId.systemDefault()).withLocale(Locale.CHINESE));
-        } else {
-            String baseFilename = filename.substring(0, filename.lastIndexOf(0x2e));
-            dateTime = ZonedDateTime.parse(baseFilename, DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS").withZone(ZoneId.systemDefault()).withLocale(Locale.CHINESE));
+    /**
+     * 记录一批文件的目标文件并刷盘，然后逐个处理
+     */
+    private static void rewrite(Map<Path, BasicFileAttributes> chunk, String target, Journal journal, FileTraversal.Visitor rewrite,
+                                FileTraversal.Progress progress) throws IOException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        for (Path file : chunk.keySet()) {
+            journal.intended(file, Paths.get(target, file.getFileName().toString()));
+        }
+        journal.sync();
+        for (Map.Entry<Path, BasicFileAttributes> entry : chunk.entrySet()) {
+            rewrite.visit(entry.getKey(), entry.getValue(), progress);
+        }
+        chunk.clear();
+    }
+
+    /**
+     * exiftool可执行文件，视频时间无法直接改写时使用
+     */
+    private ExifTool openExifTool() {
+        String os = System.getProperty("os.name");
+        String name = StringUtils.containsIgnoreCase(os, "windows") ? "exiftool.exe" : "exiftool";
+        return new ExifTool(Paths.get(appProperties.getExifTool().getPath(), name), EXIFTOOL_BATCH_SIZE);
+    }
+
+    /**
+     * 从文件名中解析拍摄日期，文件名格式为 yyyy_MM_dd_HH_mm_IMG_xxxx 或 yyyyMMdd_HHmmss_SSS
+     */
+    private static LocalDateTime getFilenameDateTime(String filename) {
+        LocalDateTime dateTime = TimestampCodec.parseArchiveName(filename);
+        if (dateTime == null) {
+            throw new DateTimeParseException("Filename does not contain a date: " + filename, filename, 0);
         }
-        return DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss").format(dateTime);
+        return dateTime;
     }
 }
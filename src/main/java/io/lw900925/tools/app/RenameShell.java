@@ -1,201 +1,381 @@
 package io.lw900925.tools.app;
 
 import com.drew.imaging.ImageProcessingException;
-import com.drew.imaging.jpeg.JpegMetadataReader;
-import com.drew.imaging.mp4.Mp4MetadataReader;
-import com.drew.imaging.png.PngMetadataReader;
-import com.drew.imaging.quicktime.QuickTimeMetadataReader;
-import com.drew.metadata.Directory;
 import com.drew.metadata.Metadata;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
-import org.apache.commons.lang3.RandomStringUtils;
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.time.DateUtils;
+import com.drew.metadata.Tag;
+import com.google.common.hash.Hashing;
+import io.lw900925.tools.metadata.ExtractorDescriptor;
+import io.lw900925.tools.metadata.MetadataExtractorRegistry;
+import io.lw900925.tools.metadata.MetadataIndex;
+import io.lw900925.tools.metadata.ThumbnailGenerator;
+import io.lw900925.tools.support.CopyEngine;
+import io.lw900925.tools.support.DuplicateDetector;
+import io.lw900925.tools.support.FileTransfer;
+import io.lw900925.tools.support.FileTraversal;
+import io.lw900925.tools.support.Journal;
+import io.lw900925.tools.support.Pipeline;
+import io.lw900925.tools.support.Plan;
+import io.lw900925.tools.support.TargetDirectoryCache;
+import io.lw900925.tools.support.TimestampCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.shell.standard.CommandValueProvider;
 import org.springframework.shell.standard.ShellComponent;
 import org.springframework.shell.standard.ShellMethod;
 import org.springframework.shell.standard.ShellOption;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.text.ParseException;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
-import java.util.*;
-import java.util.regex.Pattern;
-import java.util.stream.StreamSupport;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @ShellComponent
 public class RenameShell {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RenameShell.class);
 
-    private static final String DEFAULT_PATTERN = "yyyy_MM_dd_HH_mm";
-    private static final String METADATA_PATTERN_1 = "EEE MMM dd HH:mm:ss XXX yyyy";
-    private static final String METADATA_PATTERN_2 = "yyyy:MM:dd HH:mm:ss";
-
-    private static final Map<Set<String>, Map<String, Object>> METADATA_EXTRACTORS = ImmutableMap.<Set<String>, Map<String, Object>> builder()
-            .put(
-                    Sets.newHashSet("jpeg", "jpg"),
-                    ImmutableMap.<String, Object> builder()
-                            .put("patterns", Lists.newArrayList(METADATA_PATTERN_1, METADATA_PATTERN_2))
-                            .put("tags", Lists.newArrayList("Date/Time Original", "File Modified Date"))
-                            .put("extractor", new JpegMetadataExtractor())
-                            .build()
-            )
-            .put(
-                    Sets.newHashSet( "mp4", "m4v" ),
-                    ImmutableMap.<String, Object> builder()
-                            .put("patterns", Lists.newArrayList(METADATA_PATTERN_1))
-                            .put("tags", Lists.newArrayList("Creation Time"))
-                            .put("extractor", new Mp4MetadataExtractor())
-                            .build()
-            )
-            .put(
-                    Sets.newHashSet( "mov" ),
-                    ImmutableMap.<String, Object> builder()
-                            .put("patterns", Lists.newArrayList(METADATA_PATTERN_1))
-                            .put("tags", Lists.newArrayList("Creation Time"))
-                            .put("extractor", new MovMetadataExtractor())
-                            .build()
-            )
-            .put(
-                    Sets.newHashSet("png"),
-                    ImmutableMap.<String, Object> builder()
-                            .put("patterns", Lists.newArrayList(METADATA_PATTERN_1, METADATA_PATTERN_2, "yyyy:MM:dd HH:mm:ss[a]"))
-                            .put("tags", Lists.newArrayList("File Modified Date"))
-                            .put("extractor", new PngMetadataExtractor())
-                            .build()
-            )
-            .build();
+    /**
+     * 文件名中四位数字后缀的取值范围
+     */
+    private static final int SUFFIX_BOUND = 10000;
+
+    @Autowired
+    private AppProperties appProperties;
+
+    @Autowired
+    private MetadataExtractorRegistry metadataExtractorRegistry;
+
+    @Autowired
+    private RunMetrics runMetrics;
 
     @ShellMethod(value = "按照拍摄日期重命名")
-    @SuppressWarnings("unchecked")
     public void rename(@ShellOption(valueProvider = CommandValueProvider.class, value = {"-S", "--source"}, help = "原文件夹") String source,
-                       @ShellOption(valueProvider = CommandValueProvider.class, value = {"-T", "--target"}, help = "目标文件夹")String target) {
-        try {
-
-            long count = Files.walk(Paths.get(source)).filter(path -> !Files.isDirectory(path)).count();
-
-            Files.walkFileTree(Paths.get(source), new SimpleFileVisitor<Path>() {
-
-                private int index = 1;
-
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    String filename = file.getFileName().toString();
-                    if (filename.contains(".DS_Store")) {
-                        return FileVisitResult.CONTINUE;
-                    }
-
-                    // 文件扩展名
-                    String extension = filename.substring(filename.lastIndexOf(0x2e) + 1);
-
-                    // 获取对应的MetadataExtractor
-                    Set<String> extensionSet = METADATA_EXTRACTORS.keySet().stream()
-                            .filter(keys -> keys.contains(extension.toLowerCase()))
-                            .findFirst().orElseThrow(() -> new UnsupportedOperationException("Unsupported file extension." + file));
-                    Map<String, Object> extractorMap = METADATA_EXTRACTORS.get(extensionSet);
-
-
-                    String strDateTime = null;
-                    List<String> patterns = (List<String>) extractorMap.get("patterns");
-                    List<String> tags = (List<String>) extractorMap.get("tags");
-                    MetadataExtractor extractor = (MetadataExtractor) extractorMap.get("extractor");
-                    try {
-                        Metadata metadata = extractor.extract(file.toFile());
-
-                        String tagDesc = StreamSupport.stream(metadata.getDirectories().spliterator(), false)
-                                .map(Directory::getTags)
-                                .flatMap(Collection::stream)
-                                .filter(tag -> tags.contains(tag.getTagName()))
-                                .findFirst().orElseThrow(() -> new NullPointerException(String.format("File [%s] cannot find metadata named %s", file, String.join(",", tags))))
-                                .getDescription();
-
-                        // 日期格式化的Pattern
-                        Locale locale = Locale.ENGLISH;
-                        if (Pattern.compile("[\u4e00-\u9fa5]").matcher(tagDesc).find()) {
-                            locale = Locale.CHINESE;
-                        }
-                        Date date = DateUtils.parseDate(tagDesc, locale, patterns.toArray(new String[0]));
-                        strDateTime = DateTimeFormatter.ofPattern(DEFAULT_PATTERN).withZone(ZoneId.systemDefault()).format(date.toInstant());
-                        if (StringUtils.isEmpty(strDateTime) || strDateTime.equals("null")) {
-                            LOGGER.error("File [{}] has not original date.", filename);
-                            return FileVisitResult.TERMINATE;
-                        }
-
-                    } catch (ImageProcessingException | ParseException e) {
-                        LOGGER.error("Extract metadata failed, file: {}, message: {}", file, e.getMessage());
-                        strDateTime = DateTimeFormatter.ofPattern(DEFAULT_PATTERN).withZone(ZoneId.systemDefault()).format(attrs.creationTime().toInstant());
-                    }
-
-                    // 照片是19xx年拍摄的，可能元数据损坏，根据文件创建日期命名
-                    if (strDateTime.startsWith("19")) {
-                        String creationTime = DateTimeFormatter.ofPattern(DEFAULT_PATTERN).format(attrs.creationTime().toInstant());
-                        LOGGER.warn("File [{}] original date is {}, metadata may broken, I replace original data to {}.", filename, strDateTime, creationTime);
-                        strDateTime = creationTime;
-                    }
-
-                    // 写入到目标文件夹
-                    String millisSecond = RandomStringUtils.random(4, false, true);
-                    String destFilename = strDateTime + "_IMG_" + millisSecond + "." + extension.toUpperCase();
-                    Path targetPath = Paths.get(target + File.separator + destFilename);
-                    if (Files.notExists(targetPath.getParent())) {
-                        Files.createDirectories(targetPath.getParent());
-                    }
-                    Files.copy(file, targetPath);
-
-                    LOGGER.info("[{}/{}] - source:{} target:{}", index, count, filename, destFilename);
-
-                    index++;
-                    return FileVisitResult.CONTINUE;
+                       @ShellOption(valueProvider = CommandValueProvider.class, value = {"-T", "--target"}, help = "目标文件夹")String target,
+                       @ShellOption(value = {"-P", "--parallelism"}, help = "并行度，大于1时解析和拷贝分阶段并行执行", defaultValue = "1") int parallelism,
+                       @ShellOption(value = "--rebuild-index", help = "丢弃元数据索引，重新提取所有文件的元数据") boolean rebuildIndex,
+                       @ShellOption(value = "--dedupe", help = "内容重复的文件：none-照常拷贝，skip-跳过，link-创建指向已有文件的硬链接", defaultValue = "none") String dedupe,
+                       @ShellOption(value = "--resume", help = "接着上次中断的进度执行，跳过已完成的文件") boolean resume,
+                       @ShellOption(value = "--dry-run", help = "只生成执行计划，不写入目标文件夹") boolean dryRun,
+                       @ShellOption(value = "--plan-file", help = "执行计划输出到文件，每行为 源文件<TAB>目标文件", defaultValue = ShellOption.NULL) String planFile,
+                       @ShellOption(value = "--thumbnails", help = "同时为JPEG/PNG生成缩略图，写入目标文件夹下的缩略图文件夹") boolean thumbnails) {
+        DuplicateDetector.Action action = DuplicateDetector.Action.of(dedupe);
+        Path journalPath = Journal.resolve(appProperties.getJournal().getPath(), "rename", source, target);
+        try (RunMetrics.Run run = runMetrics.start("rename");
+             MetadataIndex metadataIndex = MetadataIndex.open(Paths.get(appProperties.getIndex().getPath()), rebuildIndex);
+             DuplicateDetector duplicateDetector = action == DuplicateDetector.Action.NONE || dryRun ? null : DuplicateDetector.open(Paths.get(appProperties.getDedupe().getPath()));
+             // 只生成计划时不改动运行日志，--resume 时仍然跳过已完成的文件
+             Journal journal = dryRun && !resume ? null : Journal.open(journalPath, resume);
+             Plan plan = Plan.create(Paths.get(appProperties.getPlan().getPath()), appProperties.getPlan().getSpillThreshold(), RenameShell::targetName);
+             CopyEngine copyEngine = appProperties.getCopy().createEngine();
+             ThumbnailGenerator thumbnailGenerator = thumbnails && !dryRun ? appProperties.getThumbnail().createGenerator() : null) {
+
+            // 上次中断时写了一半的目标文件先删除，拷贝完整的补记完成
+            if (journal != null && !dryRun) {
+                journal.recover();
+            }
+
+            // 第一阶段：解析所有文件的拍摄日期，生成执行计划
+            plan(source, target, parallelism, plan, metadataIndex, dryRun ? null : journal, run);
+            long start = System.nanoTime();
+            long total = plan.resolve();
+            run.record("plan", System.nanoTime() - start);
+
+            if (planFile != null) {
+                plan.export(Paths.get(planFile));
+                LOGGER.info("Plan exported - {}, operations: {}", planFile, total);
+            }
+            if (dryRun) {
+                if (planFile == null) {
+                    AtomicInteger index = new AtomicInteger();
+                    plan.forEach(operation -> LOGGER.info("[{}/{}] - source:{} target:{}", index.incrementAndGet(), total, operation.getSource(), operation.getTarget()));
                 }
-            });
+                return;
+            }
+
+            // 第二阶段：一次建好所有目标文件夹，按计划拷贝
+            Execution execution = new Execution(total, duplicateDetector, action, journal, copyEngine, thumbnailGenerator, run);
+            execution.directories.createAll(plan.getDirectories());
+            // 开始拷贝之前记录所有目标文件并刷盘，中断后恢复时只检查这些目标文件
+            plan.forEach(operation -> journal.intended(operation.getSource(), operation.getTarget()));
+            journal.sync();
+            execute(plan, parallelism, execution);
         } catch (IOException e) {
             LOGGER.error(e.getMessage(), e);
+            runMetrics.failed(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Rename interrupted.", e);
+            runMetrics.failed(e);
+        }
+    }
+
+    /**
+     * 遍历源文件夹，解析出拍摄日期后加入计划，并行度大于1时遍历和解析并行执行
+     */
+    private void plan(String source, String target, int parallelism, Plan plan, MetadataIndex metadataIndex,
+                      Journal journal, RunMetrics.Run run) throws IOException, InterruptedException {
+        Path targetDirectory = Paths.get(target);
+        if (parallelism <= 1) {
+            FileTraversal.walk(Paths.get(source), run.walk((file, attrs, progress) -> {
+                if (skip(file, journal)) {
+                    return true;
+                }
+
+                // 单个文件失败只记录，继续处理后面的文件
+                try {
+                    RenameTask task = parse(new RenameTask(file, attrs), metadataIndex, run);
+                    plan.add(file, attrs, targetDirectory, task.dateTime, task.extension.toUpperCase());
+                } catch (Exception e) {
+                    LOGGER.error("Rename failed, file: {}, message: {}", file, e.getMessage(), e);
+                    failed(file, e, journal, run);
+                }
+                return true;
+            }));
+            return;
+        }
+
+        try (Pipeline<RenameTask, RenameTask> pipeline = Pipeline.create("rename", parallelism,
+                task -> parse(task, metadataIndex, run),
+                task -> plan.add(task.file, task.attrs, targetDirectory, task.dateTime, task.extension.toUpperCase()))) {
+            pipeline.onFailure((item, cause) -> failed(((RenameTask) item).file, cause, journal, run));
+            run.queue("parse", pipeline::parseQueueSize);
+            FileTraversal.walk(Paths.get(source), run.walk((file, attrs, progress) -> {
+                if (!skip(file, journal)) {
+                    pipeline.submit(new RenameTask(file, attrs));
+                }
+                return true;
+            }));
+            pipeline.await();
+        }
+    }
+
+    /**
+     * 按计划拷贝，并行度大于1时多个线程同时拷贝
+     */
+    private void execute(Plan plan, int parallelism, Execution execution) throws IOException, InterruptedException {
+        Journal journal = execution.journal;
+        if (parallelism <= 1) {
+            plan.forEach(operation -> {
+                // 单个文件失败只记录，继续处理后面的文件
+                try {
+                    journal.completed(operation.getSource(), copy(operation, execution));
+                } catch (Exception e) {
+                    LOGGER.error("Rename failed, file: {}, message: {}", operation.getSource(), e.getMessage(), e);
+                    failed(operation.getSource(), e, journal, execution.run);
+                }
+            });
+            return;
+        }
+
+        try (Pipeline<Plan.Operation, Plan.Operation> pipeline = Pipeline.create("rename", parallelism,
+                operation -> operation,
+                operation -> journal.completed(operation.getSource(), copy(operation, execution)))) {
+            pipeline.onFailure((item, cause) -> failed(((Plan.Operation) item).getSource(), cause, journal, execution.run));
+            execution.run.queue("copy", pipeline::copyQueueSize);
+            plan.forEach(pipeline::submit);
+            pipeline.await();
+        }
+    }
+
+    private static boolean skip(Path file, Journal journal) {
+        if (file.getFileName().toString().contains(".DS_Store")) {
+            return true;
+        }
+        if (journal != null && journal.isCompleted(file)) {
+            LOGGER.debug("Source [{}] completed, skipped", file.getFileName());
+            return true;
+        }
+        return false;
+    }
+
+    private static void failed(Path file, Exception cause, Journal journal, RunMetrics.Run run) throws IOException {
+        run.error(extension(file.getFileName().toString()));
+        if (journal != null) {
+            journal.failed(file, cause);
         }
     }
 
     /**
-     * 文件元数据提取
+     * 解析出扩展名和拍摄日期
      *
-     * @author lw900925
+     * @return 填充了拍摄日期的任务
      */
-    public interface MetadataExtractor {
-        Metadata extract(File file) throws ImageProcessingException, IOException;
+    private RenameTask parse(RenameTask task, MetadataIndex metadataIndex, RunMetrics.Run run) throws Exception {
+        task.extension = extension(task.file.getFileName().toString());
+        task.dateTime = captureDate(task.file, task.attrs, metadataIndex, run);
+        return task;
     }
 
-    public static class JpegMetadataExtractor implements MetadataExtractor {
-        @Override
-        public Metadata extract(File file) throws ImageProcessingException, IOException {
-            return JpegMetadataReader.readMetadata(file);
+    /**
+     * 读取元数据，解析出文件名中使用的拍摄日期，文件未变化时直接使用索引中的拍摄日期。watch 命令也使用同一套逻辑
+     */
+    String captureDate(Path file, BasicFileAttributes attrs, MetadataIndex metadataIndex, RunMetrics.Run run) throws Exception {
+        String filename = file.getFileName().toString();
+
+        // 文件扩展名
+        String extension = extension(filename);
+
+        // 获取对应的MetadataExtractor
+        ExtractorDescriptor descriptor = metadataExtractorRegistry.find(extension);
+        if (descriptor == null) {
+            throw new UnsupportedOperationException("Unsupported file extension." + file);
+        }
+
+        String strDateTime = null;
+
+        MetadataIndex.Entry entry = metadataIndex.get(file, attrs);
+        if (entry != null) {
+            // 文件未变化，直接使用索引中的拍摄日期
+            Instant captureTime = entry.hasCaptureTime() ? Instant.ofEpochMilli(entry.getCaptureTime()) : attrs.creationTime().toInstant();
+            strDateTime = TimestampCodec.formatFilename(captureTime);
+        } else {
+            try {
+                Metadata metadata = run.time("metadata", () -> descriptor.getExtractor().extract(file.toFile()));
+
+                Tag tag = descriptor.findTag(metadata);
+                if (tag == null) {
+                    throw new NullPointerException(String.format("File [%s] cannot find metadata %s", file, descriptor.getTags()));
+                }
+                Instant captureTime = run.time("parse", () -> parseDate(tag.getDescription()));
+                if (captureTime == null) {
+                    LOGGER.error("Parse date failed, file: {}, {}: {}", file, tag.getTagName(), tag.getDescription());
+                    strDateTime = TimestampCodec.formatFilename(attrs.creationTime().toInstant());
+                    metadataIndex.put(file, attrs, MetadataIndex.NO_CAPTURE_TIME, null);
+                } else {
+                    strDateTime = TimestampCodec.formatFilename(captureTime);
+                    metadataIndex.put(file, attrs, captureTime.toEpochMilli(), tag.getTagName());
+                }
+
+            } catch (ImageProcessingException e) {
+                LOGGER.error("Extract metadata failed, file: {}, message: {}", file, e.getMessage());
+                strDateTime = TimestampCodec.formatFilename(attrs.creationTime().toInstant());
+                metadataIndex.put(file, attrs, MetadataIndex.NO_CAPTURE_TIME, null);
+            }
+        }
+
+        // 照片是19xx年拍摄的，可能元数据损坏，根据文件创建日期命名
+        if (strDateTime.startsWith("19")) {
+            String creationTime = TimestampCodec.formatFilename(attrs.creationTime().toInstant());
+            LOGGER.warn("File [{}] original date is {}, metadata may broken, I replace original data to {}.", filename, strDateTime, creationTime);
+            strDateTime = creationTime;
         }
+        return strDateTime;
     }
 
-    public static class Mp4MetadataExtractor implements MetadataExtractor {
-        @Override
-        public Metadata extract(File file) throws ImageProcessingException, IOException {
-            return Mp4MetadataReader.readMetadata(file);
+    static String extension(String filename) {
+        return filename.substring(filename.lastIndexOf(0x2e) + 1);
+    }
+
+    /**
+     * 解析标签中的日期
+     *
+     * @return 无法识别时返回null
+     */
+    static Instant parseDate(String tagDesc) {
+        return TimestampCodec.parseMetadata(tagDesc);
+    }
+
+    /**
+     * 目标文件名为 拍摄日期_IMG_四位数字.扩展名，数字由源文件路径决定，重名时依次加1
+     */
+    static String targetName(Plan.Operation operation, int attempt) {
+        int hash = Hashing.murmur3_32().hashString(operation.getSource().toString(), StandardCharsets.UTF_8).asInt();
+        return String.format("%s_IMG_%04d.%s", operation.getStem(), Math.floorMod(hash + attempt, SUFFIX_BOUND), operation.getExtension());
+    }
+
+    /**
+     * 拷贝到目标文件夹，开启去重时内容相同的文件跳过或创建硬链接
+     *
+     * @return 目标文件，跳过时为内容相同的已有文件
+     */
+    private Path copy(Plan.Operation operation, Execution execution) throws Exception {
+        Path source = operation.getSource();
+        Path targetPath = operation.getTarget();
+        DuplicateDetector duplicateDetector = execution.duplicateDetector;
+        CopyEngine copyEngine = execution.copyEngine;
+        RunMetrics.Run run = execution.run;
+        Path result = run.time("copy", () -> {
+            execution.directories.createParent(targetPath);
+            if (duplicateDetector == null) {
+                copyEngine.copy(source, targetPath);
+                return targetPath;
+            }
+            Path duplicate = duplicateDetector.findOrCopy(source, Files.readAttributes(source, BasicFileAttributes.class), () -> {
+                copyEngine.copy(source, targetPath);
+                return targetPath;
+            });
+            if (duplicate == null) {
+                return targetPath;
+            } else if (execution.action == DuplicateDetector.Action.LINK) {
+                FileTransfer.transfer(duplicate, targetPath, FileTransfer.Mode.HARDLINK, copyEngine);
+                LOGGER.debug("Source [{}] is duplicate of {}, linked.", source.getFileName(), duplicate);
+                return targetPath;
+            }
+            LOGGER.debug("Source [{}] is duplicate of {}, skipped.", source.getFileName(), duplicate);
+            return duplicate;
+        });
+        run.processed(operation.getSize());
+
+        // 源文件刚读过，还在页缓存中，此时生成缩略图不需要再从磁盘读取
+        if (execution.thumbnailGenerator != null && result.equals(targetPath) && ThumbnailGenerator.isSupported(operation.getExtension())) {
+            execution.thumbnailGenerator.submit(source, targetPath.resolveSibling(appProperties.getThumbnail().getDirectory())
+                    .resolve(targetPath.getFileName() + ".jpg"));
+        }
+
+        // 逐文件日志按间隔采样，完整的统计见 stats 命令
+        int n = execution.index.incrementAndGet();
+        if (run.shouldLog()) {
+            LOGGER.info("[{}/{}] - source:{} target:{}", n, execution.total, source.getFileName(), result.getFileName());
         }
+        return result;
     }
 
-    public static class MovMetadataExtractor implements MetadataExtractor {
-        @Override
-        public Metadata extract(File file) throws ImageProcessingException, IOException {
-            return QuickTimeMetadataReader.readMetadata(file);
+    /**
+     * 执行阶段用到的资源
+     */
+    private static class Execution {
+        private final long total;
+        private final AtomicInteger index = new AtomicInteger();
+        private final DuplicateDetector duplicateDetector;
+        private final DuplicateDetector.Action action;
+        private final Journal journal;
+        private final TargetDirectoryCache directories = new TargetDirectoryCache();
+        private final CopyEngine copyEngine;
+        private final ThumbnailGenerator thumbnailGenerator;
+        private final RunMetrics.Run run;
+
+        Execution(long total, DuplicateDetector duplicateDetector, DuplicateDetector.Action action, Journal journal,
+                  CopyEngine copyEngine, ThumbnailGenerator thumbnailGenerator, RunMetrics.Run run) {
+            this.total = total;
+            this.duplicateDetector = duplicateDetector;
+            this.action = action;
+            this.journal = journal;
+            this.copyEngine = copyEngine;
+            this.thumbnailGenerator = thumbnailGenerator;
+            this.run = run;
         }
     }
 
-    public static class PngMetadataExtractor implements MetadataExtractor {
+    /**
+     * 单个文件的重命名任务
+     */
+    private static class RenameTask {
+        private final Path file;
+        private final BasicFileAttributes attrs;
+        private String extension;
+        private String dateTime;
+
+        RenameTask(Path file, BasicFileAttributes attrs) {
+            this.file = file;
+            this.attrs = attrs;
+        }
+
         @Override
-        public Metadata extract(File file) throws ImageProcessingException, IOException {
-            return PngMetadataReader.readMetadata(file);
+        public String toString() {
+            return file.toString();
         }
     }
 }
@@ -0,0 +1,364 @@
+package io.lw900925.tools.app;
+
+import io.lw900925.tools.support.FileTraversal;
+import io.lw900925.tools.support.TimestampCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 命令运行时的统计
+ * <p>
+ * 每次运行使用独立的{@link MeterRegistry}，记录处理的文件数和字节数、各阶段耗时分布、按类型统计的错误数以及队列深度。
+ * 运行中和运行结束后都可以通过 stats 命令查看，配置了 app.metrics.report-dir 时运行结束自动输出JSON报告。
+ *
+ * @author lw900925
+ */
+@Component
+public class RunMetrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RunMetrics.class);
+
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    @Autowired
+    private AppProperties appProperties;
+
+    private volatile Run current;
+
+    /**
+     * 开始一次运行，之前的统计被替换
+     */
+    public Run start(String command) {
+        Run run = new Run(command, appProperties.getMetrics().getLogInterval());
+        current = run;
+        return run;
+    }
+
+    /**
+     * 正在运行或最近一次运行的统计
+     *
+     * @return 还没有运行过任何命令时返回null
+     */
+    public Run current() {
+        return current;
+    }
+
+    /**
+     * 当前运行因异常中止，批处理模式据此返回非0的退出码
+     */
+    public void failed(Throwable cause) {
+        Run run = current;
+        if (run != null) {
+            run.failure = cause;
+        }
+    }
+
+    /**
+     * 一次命令运行
+     */
+    public class Run implements AutoCloseable {
+        private final String command;
+        private final long logIntervalNanos;
+        private final MeterRegistry registry = new SimpleMeterRegistry();
+        private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+        private final Map<String, Counter> errors = new ConcurrentHashMap<>();
+        private final Counter files;
+        private final Counter bytes;
+        private final long startTime = System.nanoTime();
+        private final AtomicLong nextLogTime = new AtomicLong(startTime);
+        private volatile long endTime;
+        private volatile Throwable failure;
+
+        Run(String command, long logIntervalMillis) {
+            this.command = command;
+            this.logIntervalNanos = TimeUnit.MILLISECONDS.toNanos(logIntervalMillis);
+            this.files = registry.counter("tools.files");
+            this.bytes = registry.counter("tools.bytes");
+        }
+
+        /**
+         * 记录一个阶段的耗时
+         */
+        public <T> T time(String stage, Callable<T> callable) throws Exception {
+            long start = System.nanoTime();
+            try {
+                return callable.call();
+            } finally {
+                record(stage, System.nanoTime() - start);
+            }
+        }
+
+        public void record(String stage, long nanos) {
+            timers.computeIfAbsent(stage, key -> Timer.builder("tools.stage")
+                    .tag("stage", key)
+                    .publishPercentiles(PERCENTILES)
+                    .register(registry))
+                    .record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * 统计遍历耗时：从上一次访问返回到下一次访问开始之间的时间都花在目录枚举上
+         */
+        public FileTraversal.Visitor walk(FileTraversal.Visitor visitor) {
+            AtomicLong lastReturn = new AtomicLong(System.nanoTime());
+            return (file, attrs, progress) -> {
+                record("walk", System.nanoTime() - lastReturn.get());
+                try {
+                    return visitor.visit(file, attrs, progress);
+                } finally {
+                    lastReturn.set(System.nanoTime());
+                }
+            };
+        }
+
+        /**
+         * 一个文件处理完成
+         */
+        public void processed(long size) {
+            processed(1, size);
+        }
+
+        public void processed(long count, long size) {
+            files.increment(count);
+            bytes.increment(size);
+        }
+
+        /**
+         * 处理失败，按类型(扩展名)计数
+         */
+        public void error(String type) {
+            errors.computeIfAbsent(StringUtils.defaultIfEmpty(type, "unknown").toLowerCase(Locale.ROOT),
+                    key -> registry.counter("tools.errors", "type", key)).increment();
+        }
+
+        /**
+         * 注册队列深度
+         */
+        public void queue(String name, Supplier<Number> depth) {
+            Gauge.builder("tools.queue", depth).tag("queue", name).register(registry);
+        }
+
+        /**
+         * 逐文件日志限流，每个间隔内只有第一次返回true
+         */
+        public boolean shouldLog() {
+            long now = System.nanoTime();
+            long next = nextLogTime.get();
+            return now - next >= 0 && nextLogTime.compareAndSet(next, now + logIntervalNanos);
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        /**
+         * 处理失败的文件数
+         */
+        public long errorCount() {
+            return (long) errors.values().stream().mapToDouble(Counter::count).sum();
+        }
+
+        /**
+         * 中止运行的异常，正常结束时为null
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        public boolean isRunning() {
+            return endTime == 0;
+        }
+
+        public double elapsedSeconds() {
+            long end = endTime == 0 ? System.nanoTime() : endTime;
+            return (end - startTime) / 1e9;
+        }
+
+        @Override
+        public void close() {
+            endTime = System.nanoTime();
+            LOGGER.info("{} finished - {}", command, summary());
+            String reportDir = appProperties.getMetrics().getReportDir();
+            if (StringUtils.isNotBlank(reportDir)) {
+                Path report = Paths.get(reportDir, command + "-" + TimestampCodec.formatCompact(LocalDateTime.now()) + ".json");
+                try {
+                    export(report);
+                    LOGGER.info("Metrics report - {}", report);
+                } catch (IOException e) {
+                    LOGGER.error("Write metrics report failed - " + e.getMessage(), e);
+                }
+            }
+        }
+
+        /**
+         * 一行摘要
+         */
+        public String summary() {
+            double seconds = Math.max(elapsedSeconds(), 1e-9);
+            return String.format("files: %d (%.1f/s), bytes: %s (%s/s), errors: %d, elapsed: %.1fs",
+                    (long) files.count(), files.count() / seconds,
+                    bytes(bytes.count()), bytes(bytes.count() / seconds),
+                    errorCount(), seconds);
+        }
+
+        /**
+         * stats 命令输出的文本
+         */
+        public String format() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(command).append(isRunning() ? " (running)" : " (finished)").append(System.lineSeparator());
+            builder.append(summary()).append(System.lineSeparator());
+            builder.append(String.format("%-10s %10s %10s %10s %10s %10s %10s%n", "stage", "count", "mean(ms)", "p50(ms)", "p95(ms)", "p99(ms)", "max(ms)"));
+            for (Map.Entry<String, HistogramSnapshot> entry : snapshots().entrySet()) {
+                HistogramSnapshot snapshot = entry.getValue();
+                double[] percentiles = percentiles(snapshot);
+                builder.append(String.format("%-10s %10d %10.3f %10.3f %10.3f %10.3f %10.3f%n", entry.getKey(), snapshot.count(),
+                        snapshot.mean(TimeUnit.MILLISECONDS), percentiles[0], percentiles[1], percentiles[2], snapshot.max(TimeUnit.MILLISECONDS)));
+            }
+            errors.forEach((type, counter) -> builder.append(String.format("error[%s]: %d%n", type, (long) counter.count())));
+            registry.find("tools.queue").gauges().forEach(gauge ->
+                    builder.append(String.format("queue[%s]: %d%n", gauge.getId().getTag("queue"), (long) gauge.value())));
+            return builder.toString();
+        }
+
+        /**
+         * 按扩展名输出JSON或CSV报告
+         */
+        public void export(Path file) throws IOException {
+            if (file.getParent() != null && Files.notExists(file.getParent())) {
+                Files.createDirectories(file.getParent());
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv")) {
+                    writeCsv(writer);
+                } else {
+                    writeJson(writer);
+                }
+            }
+        }
+
+        private void writeCsv(BufferedWriter writer) throws IOException {
+            writer.write("metric,name,count,total,mean_ms,p50_ms,p95_ms,p99_ms,max_ms");
+            writer.newLine();
+            writer.write(String.format(Locale.ROOT, "files,,%d,%.0f,,,,,", (long) files.count(), files.count()));
+            writer.newLine();
+            writer.write(String.format(Locale.ROOT, "bytes,,%d,%.0f,,,,,", (long) bytes.count(), bytes.count()));
+            writer.newLine();
+            writer.write(String.format(Locale.ROOT, "elapsed,,,%.3f,,,,,", elapsedSeconds()));
+            writer.newLine();
+            for (Map.Entry<String, HistogramSnapshot> entry : snapshots().entrySet()) {
+                HistogramSnapshot snapshot = entry.getValue();
+                double[] percentiles = percentiles(snapshot);
+                writer.write(String.format(Locale.ROOT, "stage,%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f", csvField(entry.getKey()), snapshot.count(),
+                        snapshot.total(TimeUnit.MILLISECONDS), snapshot.mean(TimeUnit.MILLISECONDS),
+                        percentiles[0], percentiles[1], percentiles[2], snapshot.max(TimeUnit.MILLISECONDS)));
+                writer.newLine();
+            }
+            for (Map.Entry<String, Counter> entry : errors.entrySet()) {
+                writer.write(String.format(Locale.ROOT, "error,%s,%d,,,,,,", csvField(entry.getKey()), (long) entry.getValue().count()));
+                writer.newLine();
+            }
+        }
+
+        private void writeJson(BufferedWriter writer) throws IOException {
+            StringBuilder json = new StringBuilder();
+            json.append('{');
+            json.append("\"command\":").append(jsonString(command)).append(',');
+            json.append(String.format(Locale.ROOT, "\"elapsedSeconds\":%.3f,", elapsedSeconds()));
+            json.append(String.format(Locale.ROOT, "\"files\":%d,\"bytes\":%d,", (long) files.count(), (long) bytes.count()));
+            json.append("\"stages\":{");
+            StringJoiner stages = new StringJoiner(",");
+            for (Map.Entry<String, HistogramSnapshot> entry : snapshots().entrySet()) {
+                HistogramSnapshot snapshot = entry.getValue();
+                double[] percentiles = percentiles(snapshot);
+                stages.add(String.format(Locale.ROOT, "%s:{\"count\":%d,\"totalMs\":%.3f,\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p95Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f}",
+                        jsonString(entry.getKey()), snapshot.count(), snapshot.total(TimeUnit.MILLISECONDS), snapshot.mean(TimeUnit.MILLISECONDS),
+                        percentiles[0], percentiles[1], percentiles[2], snapshot.max(TimeUnit.MILLISECONDS)));
+            }
+            json.append(stages).append("},");
+            json.append("\"errors\":{");
+            StringJoiner errorJoiner = new StringJoiner(",");
+            errors.forEach((type, counter) -> errorJoiner.add(jsonString(type) + ":" + (long) counter.count()));
+            json.append(errorJoiner).append("}}");
+            writer.write(json.toString());
+            writer.newLine();
+        }
+
+        /**
+         * 错误类型来自文件扩展名，可能包含引号、反斜杠等字符
+         */
+        private String jsonString(String value) {
+            StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    builder.append('\\').append(c);
+                } else if (c < 0x20) {
+                    builder.append(String.format("\\u%04x", (int) c));
+                } else {
+                    builder.append(c);
+                }
+            }
+            return builder.append('"').toString();
+        }
+
+        private String csvField(String value) {
+            if (StringUtils.containsAny(value, ',', '"', '\r', '\n')) {
+                return '"' + value.replace("\"", "\"\"") + '"';
+            }
+            return value;
+        }
+
+        private Map<String, HistogramSnapshot> snapshots() {
+            Map<String, HistogramSnapshot> snapshots = new TreeMap<>();
+            timers.forEach((stage, timer) -> snapshots.put(stage, timer.takeSnapshot()));
+            return snapshots;
+        }
+
+        private double[] percentiles(HistogramSnapshot snapshot) {
+            double[] values = new double[PERCENTILES.length];
+            for (ValueAtPercentile value : snapshot.percentileValues()) {
+                for (int i = 0; i < PERCENTILES.length; i++) {
+                    if (value.percentile() == PERCENTILES[i]) {
+                        values[i] = value.value(TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+            return values;
+        }
+    }
+
+    private static String bytes(double bytes) {
+        String[] units = {"B", "KB", "MB", "GB", "TB"};
+        int unit = 0;
+        while (bytes >= 1024 && unit < units.length - 1) {
+            bytes /= 1024;
+            unit++;
+        }
+        return String.format("%.1f %s", bytes, units[unit]);
+    }
+}
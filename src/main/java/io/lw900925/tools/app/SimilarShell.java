@@ -0,0 +1,222 @@
+package io.lw900925.tools.app;
+
+import io.lw900925.tools.metadata.MetadataIndex;
+import io.lw900925.tools.metadata.PerceptualHash;
+import io.lw900925.tools.metadata.SimilarityIndex;
+import io.lw900925.tools.metadata.ThumbnailGenerator;
+import io.lw900925.tools.support.FileTraversal;
+import io.lw900925.tools.support.Pipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.shell.standard.CommandValueProvider;
+import org.springframework.shell.standard.ShellComponent;
+import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * 查找内容相近的照片
+ * <p>
+ * 内容完全相同的文件由 --dedupe 处理；这里找的是重新压缩、缩放后的副本和连拍，它们的字节不同但看起来几乎一样。
+ *
+ * @author lw900925
+ */
+@ShellComponent
+public class SimilarShell {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimilarShell.class);
+
+    @Autowired
+    private AppProperties appProperties;
+
+    @Autowired
+    private RenameShell renameShell;
+
+    @Autowired
+    private RunMetrics runMetrics;
+
+    @ShellMethod(value = "查找内容相近的照片：重新压缩、缩放的副本和连拍")
+    public void similar(@ShellOption(valueProvider = CommandValueProvider.class, value = {"-S", "--source"}, help = "原文件夹") String source,
+                        @ShellOption(value = {"-P", "--parallelism"}, help = "并行度，大于1时多个线程同时解码", defaultValue = "1") int parallelism,
+                        @ShellOption(value = {"-D", "--distance"}, help = "认为相似的最大汉明距离(0-64)", defaultValue = "6") int distance,
+                        @ShellOption(value = "--scope", help = "查找范围：minute-只比较拍摄时间在同一分钟的照片，all-比较索引中的所有照片", defaultValue = "minute") String scope,
+                        @ShellOption(value = "--rebuild-index", help = "丢弃哈希索引，重新计算所有照片的哈希") boolean rebuildIndex,
+                        @ShellOption(value = "--report", help = "分组结果输出到文件，每行为 分组<TAB>距离<TAB>拍摄时间<TAB>文件", defaultValue = ShellOption.NULL) String report) {
+        boolean sameMinute;
+        if ("minute".equalsIgnoreCase(scope)) {
+            sameMinute = true;
+        } else if ("all".equalsIgnoreCase(scope)) {
+            sameMinute = false;
+        } else {
+            throw new IllegalArgumentException("Unsupported scope: " + scope);
+        }
+
+        try (RunMetrics.Run run = runMetrics.start("similar");
+             MetadataIndex metadataIndex = MetadataIndex.open(Paths.get(appProperties.getIndex().getPath()), false);
+             SimilarityIndex similarityIndex = SimilarityIndex.open(Paths.get(appProperties.getSimilar().getPath()), distance, rebuildIndex)) {
+
+            // 第一阶段：计算每张照片的哈希，文件未变化时直接使用索引
+            List<SimilarityIndex.Entry> scanned = Collections.synchronizedList(new ArrayList<>());
+            if (parallelism <= 1) {
+                FileTraversal.walk(Paths.get(source), run.walk((file, attrs, progress) -> {
+                    if (isSupported(file)) {
+                        // 单个文件失败只记录，继续处理后面的文件
+                        try {
+                            scanned.add(hash(file, attrs, metadataIndex, similarityIndex, run));
+                        } catch (Exception e) {
+                            LOGGER.error("Hash failed, file: {}, message: {}", file, e.getMessage(), e);
+                            run.error(RenameShell.extension(file.getFileName().toString()));
+                        }
+                    }
+                    return true;
+                }));
+            } else {
+                try (Pipeline<Path, SimilarityIndex.Entry> pipeline = Pipeline.create("similar", parallelism,
+                        file -> hash(file, Files.readAttributes(file, BasicFileAttributes.class), metadataIndex, similarityIndex, run),
+                        scanned::add)) {
+                    pipeline.onFailure((item, cause) -> run.error(RenameShell.extension(((Path) item).getFileName().toString())));
+                    run.queue("hash", pipeline::parseQueueSize);
+                    FileTraversal.walk(Paths.get(source), run.walk((file, attrs, progress) -> {
+                        if (isSupported(file)) {
+                            pipeline.submit(file);
+                        }
+                        return true;
+                    }));
+                    pipeline.await();
+                }
+            }
+
+            // 第二阶段：相似的照片连成一组
+            long start = System.nanoTime();
+            List<List<SimilarityIndex.Entry>> groups = group(Paths.get(source), scanned, similarityIndex, sameMinute);
+            run.record("group", System.nanoTime() - start);
+            if (report != null) {
+                export(groups, Paths.get(report));
+            }
+            for (int i = 0; i < groups.size(); i++) {
+                List<SimilarityIndex.Entry> group = groups.get(i);
+                LOGGER.info("Group {} - {} files, captured at {}", i + 1, group.size(), group.get(0).getMinute());
+                for (SimilarityIndex.Entry entry : group) {
+                    LOGGER.info("    [{}] {}", PerceptualHash.distance(group.get(0).getHash(), entry.getHash()), entry.getPath());
+                }
+            }
+            LOGGER.info("Similar - scanned: {}, groups: {}, files in groups: {}", scanned.size(), groups.size(),
+                    groups.stream().mapToInt(List::size).sum());
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage(), e);
+            runMetrics.failed(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Similar interrupted.", e);
+            runMetrics.failed(e);
+        }
+    }
+
+    private static boolean isSupported(Path file) {
+        return !FileTraversal.isHidden(file) && ThumbnailGenerator.isSupported(RenameShell.extension(file.getFileName().toString()));
+    }
+
+    /**
+     * 路径在源文件夹的隐藏文件夹中，例如之前扫描进索引的 .thumbnails 中的缩略图
+     */
+    private static boolean inHiddenDirectory(Path root, Path file) {
+        if (!file.startsWith(root)) {
+            return false;
+        }
+        Path relative = root.relativize(file).getParent();
+        if (relative != null) {
+            for (Path name : relative) {
+                if (FileTraversal.isHidden(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解析拍摄时间并计算哈希，拍摄时间与 rename 命名时使用的相同
+     */
+    private SimilarityIndex.Entry hash(Path file, BasicFileAttributes attrs, MetadataIndex metadataIndex,
+                                       SimilarityIndex similarityIndex, RunMetrics.Run run) throws Exception {
+        SimilarityIndex.Entry entry = similarityIndex.get(file, attrs);
+        if (entry == null) {
+            String minute = renameShell.captureDate(file, attrs, metadataIndex, run);
+            long hash = run.time("hash", () -> PerceptualHash.of(file));
+            entry = similarityIndex.put(file, attrs, minute, hash);
+        }
+        run.processed(attrs.size());
+        return entry;
+    }
+
+    /**
+     * 并查集合并相似的照片，只保留两张以上的组；索引中本次未扫描到的照片已不存在或在隐藏文件夹中时忽略
+     */
+    private static List<List<SimilarityIndex.Entry>> group(Path source, List<SimilarityIndex.Entry> scanned, SimilarityIndex similarityIndex, boolean sameMinute) {
+        Map<SimilarityIndex.Entry, SimilarityIndex.Entry> parents = new IdentityHashMap<>();
+        Set<SimilarityIndex.Entry> scannedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        scannedSet.addAll(scanned);
+        for (SimilarityIndex.Entry entry : scanned) {
+            for (SimilarityIndex.Entry other : similarityIndex.find(entry, sameMinute)) {
+                if (scannedSet.contains(other) || (!inHiddenDirectory(source, other.getPath()) && Files.exists(other.getPath()))) {
+                    parents.put(root(parents, other), root(parents, entry));
+                }
+            }
+        }
+
+        Map<SimilarityIndex.Entry, List<SimilarityIndex.Entry>> groups = new IdentityHashMap<>();
+        for (SimilarityIndex.Entry entry : parents.keySet()) {
+            groups.computeIfAbsent(root(parents, entry), root -> new ArrayList<>()).add(entry);
+        }
+        List<List<SimilarityIndex.Entry>> result = new ArrayList<>();
+        for (List<SimilarityIndex.Entry> group : groups.values()) {
+            if (group.size() > 1) {
+                group.sort(Comparator.comparing(SimilarityIndex.Entry::toString));
+                result.add(group);
+            }
+        }
+        result.sort(Comparator.comparing((List<SimilarityIndex.Entry> group) -> group.get(0).getMinute())
+                .thenComparing(group -> group.get(0).toString()));
+        return result;
+    }
+
+    private static SimilarityIndex.Entry root(Map<SimilarityIndex.Entry, SimilarityIndex.Entry> parents, SimilarityIndex.Entry entry) {
+        SimilarityIndex.Entry root = entry;
+        SimilarityIndex.Entry parent;
+        while ((parent = parents.computeIfAbsent(root, e -> e)) != root) {
+            root = parent;
+        }
+        // 路径压缩
+        while (entry != root) {
+            parent = parents.put(entry, root);
+            entry = parent;
+        }
+        return root;
+    }
+
+    private static void export(List<List<SimilarityIndex.Entry>> groups, Path file) throws IOException {
+        if (file.getParent() != null && Files.notExists(file.getParent())) {
+            Files.createDirectories(file.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < groups.size(); i++) {
+                List<SimilarityIndex.Entry> group = groups.get(i);
+                for (SimilarityIndex.Entry entry : group) {
+                    writer.write(String.format("%d\t%d\t%s\t%s", i + 1, PerceptualHash.distance(group.get(0).getHash(), entry.getHash()),
+                            entry.getMinute(), entry.getPath()));
+                    writer.newLine();
+                }
+            }
+        }
+        LOGGER.info("Report exported - {}, groups: {}", file, groups.size());
+    }
+}
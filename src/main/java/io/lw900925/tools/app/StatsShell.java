@@ -0,0 +1,37 @@
+package io.lw900925.tools.app;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.shell.standard.ShellComponent;
+import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+@ShellComponent
+public class StatsShell {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatsShell.class);
+
+    @Autowired
+    private RunMetrics runMetrics;
+
+    @ShellMethod(value = "查看正在运行或最近一次运行的命令的吞吐量和各阶段耗时")
+    public String stats(@ShellOption(value = "--export", help = "导出到文件，扩展名为.csv时输出CSV，否则输出JSON", defaultValue = ShellOption.NULL) String export) {
+        RunMetrics.Run run = runMetrics.current();
+        if (run == null) {
+            return "No command has been run yet.";
+        }
+        if (StringUtils.isNotBlank(export)) {
+            try {
+                run.export(Paths.get(export));
+            } catch (IOException e) {
+                LOGGER.error("Export metrics failed - " + e.getMessage(), e);
+            }
+        }
+        return run.format();
+    }
+}
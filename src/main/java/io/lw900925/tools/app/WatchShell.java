@@ -0,0 +1,231 @@
+package io.lw900925.tools.app;
+
+import io.lw900925.tools.metadata.CaptureCatalog;
+import io.lw900925.tools.metadata.MetadataIndex;
+import io.lw900925.tools.metadata.ThumbnailGenerator;
+import io.lw900925.tools.support.CopyEngine;
+import io.lw900925.tools.support.DirectoryWatcher;
+import io.lw900925.tools.support.FileTransfer;
+import io.lw900925.tools.support.Journal;
+import io.lw900925.tools.support.Plan;
+import io.lw900925.tools.support.TargetDirectoryCache;
+import io.lw900925.tools.support.TimestampCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.shell.standard.CommandValueProvider;
+import org.springframework.shell.standard.ShellComponent;
+import org.springframework.shell.standard.ShellMethod;
+import org.springframework.shell.standard.ShellOption;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 持续监听收件文件夹，代替每晚定时执行的 rename + group
+ *
+ * @author lw900925
+ */
+@ShellComponent
+public class WatchShell {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WatchShell.class);
+
+    /**
+     * 没有事件时最多等待的毫秒数，到时检查是否需要重新扫描或结束
+     */
+    private static final long TICK_MILLIS = 1000;
+
+    @Autowired
+    private AppProperties appProperties;
+
+    @Autowired
+    private RenameShell renameShell;
+
+    @Autowired
+    private RunMetrics runMetrics;
+
+    @ShellMethod(value = "监听文件夹，新文件写入完成后按拍摄日期重命名并按月份分组")
+    public void watch(@ShellOption(valueProvider = CommandValueProvider.class, value = {"-S", "--source"}, help = "监听的文件夹") String source,
+                      @ShellOption(valueProvider = CommandValueProvider.class, value = {"-T", "--target"}, help = "目标文件夹")String target,
+                      @ShellOption(value = {"-M", "--mode"}, help = "放置方式：copy-拷贝，move-移动，hardlink-硬链接，reflink-写时复制，不支持时回退为拷贝", defaultValue = "copy") String mode,
+                      @ShellOption(value = "--thumbnails", help = "同时为JPEG/PNG生成缩略图，写入目标文件夹下的缩略图文件夹") boolean thumbnails,
+                      @ShellOption(value = "--duration", help = "运行的秒数，0表示一直运行直到中断", defaultValue = "0") long duration) {
+        AppProperties.Watch config = appProperties.getWatch();
+        Path targetDirectory = Paths.get(target).toAbsolutePath().normalize();
+        // 同一个收件文件夹的记录一直保留，重启后已处理的文件不再处理
+        Path journalPath = Journal.resolve(appProperties.getJournal().getPath(), "watch", source, target);
+        Map<Path, Long> failures = new HashMap<>();
+        try (RunMetrics.Run run = runMetrics.start("watch");
+             MetadataIndex metadataIndex = MetadataIndex.open(Paths.get(appProperties.getIndex().getPath()), false);
+             Journal journal = openJournal(journalPath);
+             CaptureCatalog catalog = CaptureCatalog.open(Paths.get(appProperties.getCatalog().getPath()), false);
+             CopyEngine copyEngine = appProperties.getCopy().createEngine();
+             ThumbnailGenerator thumbnailGenerator = thumbnails ? appProperties.getThumbnail().createGenerator() : null;
+             DirectoryWatcher watcher = DirectoryWatcher.open(Paths.get(source), config.getSettle().toMillis(),
+                     file -> accept(file, targetDirectory, journal, failures))) {
+            Session session = new Session(targetDirectory, FileTransfer.Mode.of(mode), metadataIndex, journal, catalog, copyEngine,
+                    thumbnailGenerator, failures, run);
+            LOGGER.info("Watching {} -> {}, pending: {}", source, targetDirectory, watcher.pending());
+
+            long started = System.nanoTime();
+            long reconciled = started;
+            while (watcher.isOpen() && (duration <= 0 || System.nanoTime() - started < TimeUnit.SECONDS.toNanos(duration))) {
+                List<DirectoryWatcher.Arrival> arrivals = watcher.poll(TICK_MILLIS, config.getBatchSize());
+                if (!arrivals.isEmpty()) {
+                    file(arrivals, session);
+                }
+
+                // 事件丢失时立即重新扫描，否则按固定间隔
+                if (watcher.isOverflowed() || System.nanoTime() - reconciled >= config.getReconcileInterval().toNanos()) {
+                    watcher.reconcile();
+                    reconciled = System.nanoTime();
+                    LOGGER.debug("Reconciled {}, pending: {}", source, watcher.pending());
+                }
+            }
+            if (!watcher.isOpen()) {
+                LOGGER.warn("Source [{}] is no longer available, stop watching.", source);
+            }
+        } catch (IOException e) {
+            LOGGER.error(e.getMessage(), e);
+            runMetrics.failed(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.info("Watch interrupted.");
+        }
+    }
+
+    /**
+     * 开始监视之前先恢复上次中断时写了一半的文件，补记完成的文件不会再被当作新文件
+     */
+    private static Journal openJournal(Path path) throws IOException {
+        Journal journal = Journal.open(path, true);
+        try {
+            journal.recover();
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /**
+     * 忽略隐藏文件(多数拷贝工具写入时使用的临时文件)、目标文件夹、已处理和处理失败后没有变化的文件
+     */
+    private static boolean accept(Path file, Path targetDirectory, Journal journal, Map<Path, Long> failures) {
+        if (file.getFileName().toString().startsWith(".") || file.startsWith(targetDirectory) || journal.contains(file)) {
+            return false;
+        }
+        Long failedAt = failures.get(file);
+        if (failedAt == null) {
+            return true;
+        }
+        try {
+            if (Files.getLastModifiedTime(file).toMillis() == failedAt) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        failures.remove(file);
+        return true;
+    }
+
+    /**
+     * 处理一批写入完成的文件：解析拍摄日期，直接放到 目标文件夹/年/月 下，相当于 rename 之后再 group
+     */
+    private void file(List<DirectoryWatcher.Arrival> arrivals, Session session) throws IOException {
+        long start = System.nanoTime();
+        Map<Path, DirectoryWatcher.Arrival> batch = new HashMap<>();
+        try (Plan plan = Plan.create(Paths.get(appProperties.getPlan().getPath()), appProperties.getPlan().getSpillThreshold(), RenameShell::targetName)) {
+            for (DirectoryWatcher.Arrival arrival : arrivals) {
+                Path file = arrival.getFile();
+                // 单个文件失败只记录，继续处理后面的文件
+                try {
+                    String dateTime = renameShell.captureDate(file, arrival.getAttrs(), session.metadataIndex, session.run);
+                    Path directory = session.targetDirectory.resolve(TimestampCodec.formatMonthDirectory(TimestampCodec.parseYearMonth(dateTime)));
+                    plan.add(file, arrival.getAttrs(), directory, dateTime, RenameShell.extension(file.getFileName().toString()).toUpperCase());
+                    batch.put(file, arrival);
+                } catch (Exception e) {
+                    LOGGER.error("Watch failed, file: {}, message: {}", file, e.getMessage(), e);
+                    failed(arrival, e, session);
+                }
+            }
+            plan.resolve();
+            session.directories.createAll(plan.getDirectories());
+            plan.forEach(operation -> session.journal.intended(operation.getSource(), operation.getTarget()));
+            session.journal.sync();
+
+            plan.forEach(operation -> {
+                DirectoryWatcher.Arrival arrival = batch.get(operation.getSource());
+                Path targetPath = operation.getTarget();
+                try {
+                    long copyStart = System.nanoTime();
+                    FileTransfer.transfer(arrival.getFile(), targetPath, session.mode, session.copyEngine);
+                    session.run.record("copy", System.nanoTime() - copyStart);
+                    session.run.processed(operation.getSize());
+                    session.journal.completed(arrival.getFile(), targetPath);
+                    session.catalog.addArchived(targetPath);
+                    // 移动时源文件已不存在，从目标文件生成缩略图
+                    if (session.thumbnailGenerator != null && ThumbnailGenerator.isSupported(operation.getExtension())) {
+                        session.thumbnailGenerator.submit(targetPath, targetPath.resolveSibling(appProperties.getThumbnail().getDirectory())
+                                .resolve(targetPath.getFileName() + ".jpg"));
+                    }
+                    session.run.record("latency", System.nanoTime() - arrival.getArrived());
+                    LOGGER.debug("{} -> {}", arrival.getFile().getFileName(), session.targetDirectory.relativize(targetPath));
+                } catch (Exception e) {
+                    LOGGER.error("Watch failed, file: {}, message: {}", arrival.getFile(), e.getMessage(), e);
+                    failed(arrival, e, session);
+                }
+            });
+        }
+        // 一批处理完即落盘，两批之间可能空闲很久
+        session.copyEngine.sync();
+        session.journal.sync();
+        session.catalog.sync();
+        LOGGER.info("Filed {}/{} files in {} ms", batch.size(), arrivals.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static void failed(DirectoryWatcher.Arrival arrival, Exception cause, Session session) throws IOException {
+        Path file = arrival.getFile();
+        session.run.error(RenameShell.extension(file.getFileName().toString()));
+        session.journal.failed(file, cause);
+        // 文件再次修改之前不再重试
+        session.failures.put(file, arrival.getAttrs().lastModifiedTime().toMillis());
+    }
+
+    /**
+     * 一次监听期间一直保持打开的资源
+     */
+    private static class Session {
+        private final Path targetDirectory;
+        private final FileTransfer.Mode mode;
+        private final MetadataIndex metadataIndex;
+        private final Journal journal;
+        private final CaptureCatalog catalog;
+        private final CopyEngine copyEngine;
+        private final ThumbnailGenerator thumbnailGenerator;
+        private final TargetDirectoryCache directories = new TargetDirectoryCache();
+        private final Map<Path, Long> failures;
+        private final RunMetrics.Run run;
+
+        Session(Path targetDirectory, FileTransfer.Mode mode, MetadataIndex metadataIndex, Journal journal, CaptureCatalog catalog,
+                CopyEngine copyEngine, ThumbnailGenerator thumbnailGenerator, Map<Path, Long> failures, RunMetrics.Run run) {
+            this.targetDirectory = targetDirectory;
+            this.mode = mode;
+            this.metadataIndex = metadataIndex;
+            this.journal = journal;
+            this.catalog = catalog;
+            this.copyEngine = copyEngine;
+            this.thumbnailGenerator = thumbnailGenerator;
+            this.failures = failures;
+            this.run = run;
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package io.lw900925.tools.metadata;
+
+import com.google.common.io.CountingInputStream;
+import io.lw900925.tools.support.TimestampCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * 已整理文件的拍摄时间目录
+ * <p>
+ * 目录文件是按 拍摄时间+路径 排序的定长记录数组，每条记录为 拍摄时间(秒)+路径在字符串表中的偏移，字符串表紧跟在记录后面。
+ * 查询时只读映射记录数组，二分查找时间范围的起点后顺序读取，不遍历文件夹，也不读取文件。
+ * <p>
+ * 拍摄时间按文件名中的本地时间记录，与时区无关。
+ * <p>
+ * group、watch 每放置一个文件，在目录旁的待合并日志中追加一条记录，关闭时合并进目录文件并删除日志；
+ * 查询时一并读取还未合并的记录，同一路径以日志中的记录为准。
+ *
+ * @author lw900925
+ */
+public class CaptureCatalog implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CaptureCatalog.class);
+
+    private static final int MAGIC = 0x43544c47; // CTLG
+    private static final int LOG_MAGIC = 0x43544c4c; // CTLL
+    private static final int VERSION = 1;
+
+    /**
+     * 文件头：MAGIC、VERSION、记录数、字符串表长度
+     */
+    private static final int HEADER_SIZE = 24;
+    private static final int RECORD_SIZE = 16;
+
+    private final Path path;
+    private final Path logPath;
+    private final Map<String, Long> pending = new HashMap<>();
+    private DataOutputStream output;
+
+    private CaptureCatalog(Path path) {
+        this.path = path;
+        this.logPath = logPath(path);
+    }
+
+    /**
+     * 打开目录用于追加记录，不存在时创建
+     *
+     * @param path    目录文件路径
+     * @param rebuild 是否丢弃已有记录重新建立
+     */
+    public static CaptureCatalog open(Path path, boolean rebuild) throws IOException {
+        CaptureCatalog catalog = new CaptureCatalog(path);
+        if (path.getParent() != null && Files.notExists(path.getParent())) {
+            Files.createDirectories(path.getParent());
+        }
+        if (rebuild) {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(catalog.logPath);
+        }
+        long validLength = readLog(catalog.logPath, catalog.pending);
+
+        FileChannel channel = FileChannel.open(catalog.logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // 截掉末尾不完整的记录
+        channel.truncate(validLength);
+        channel.position(validLength);
+        catalog.output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        if (validLength == 0) {
+            catalog.output.writeInt(LOG_MAGIC);
+            catalog.output.writeInt(VERSION);
+        }
+        return catalog;
+    }
+
+    /**
+     * 只读打开目录用于查询，目录不存在时视为空目录
+     */
+    public static Reader read(Path path) throws IOException {
+        Map<String, Long> pending = new HashMap<>();
+        readLog(logPath(path), pending);
+        return new Reader(path, pending);
+    }
+
+    /**
+     * 记录已放置文件的拍摄时间，同一路径后记录的覆盖先记录的
+     */
+    public synchronized void add(Path file, LocalDateTime captureTime) throws IOException {
+        String key = key(file);
+        long seconds = seconds(captureTime);
+        output.writeUTF(key);
+        output.writeLong(seconds);
+        pending.put(key, seconds);
+    }
+
+    /**
+     * 按文件名中的拍摄日期记录已放置的文件
+     *
+     * @return 文件名不含日期时不记录，返回false
+     */
+    public boolean addArchived(Path file) throws IOException {
+        LocalDateTime captureTime = TimestampCodec.parseArchiveName(file.getFileName().toString());
+        if (captureTime == null) {
+            return false;
+        }
+        add(file, captureTime);
+        return true;
+    }
+
+    /**
+     * 待合并日志写入磁盘
+     */
+    public synchronized void sync() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        output.close();
+        if (!pending.isEmpty()) {
+            merge();
+        }
+    }
+
+    /**
+     * 把待合并的记录与目录文件中的记录按顺序合并写入新的目录文件，记录数组和字符串表分别写入两个临时文件后拼接
+     */
+    private void merge() throws IOException {
+        long start = System.nanoTime();
+        List<Entry> additions = new ArrayList<>(pending.size());
+        pending.forEach((key, seconds) -> additions.add(new Entry(seconds, key)));
+        additions.sort(null);
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Path stringsTemp = path.resolveSibling(path.getFileName() + ".str.tmp");
+        long count = 0;
+        long stringsLength = 0;
+        try (Reader existing = new Reader(path, Collections.emptyMap());
+             DataOutputStream records = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)));
+             DataOutputStream strings = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(stringsTemp)))) {
+            records.write(new byte[HEADER_SIZE]);
+            Iterator<Entry> added = additions.iterator();
+            Entry next = added.hasNext() ? added.next() : null;
+            for (long i = 0; i < existing.count; i++) {
+                Entry entry = existing.entry(i);
+                // 同一路径以新记录为准
+                if (pending.containsKey(entry.path)) {
+                    continue;
+                }
+                while (next != null && next.compareTo(entry) < 0) {
+                    stringsLength = write(records, strings, stringsLength, next);
+                    count++;
+                    next = added.hasNext() ? added.next() : null;
+                }
+                stringsLength = write(records, strings, stringsLength, entry);
+                count++;
+            }
+            while (next != null) {
+                stringsLength = write(records, strings, stringsLength, next);
+                count++;
+                next = added.hasNext() ? added.next() : null;
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+             FileChannel stringsChannel = FileChannel.open(stringsTemp, StandardOpenOption.READ)) {
+            long position = HEADER_SIZE + count * RECORD_SIZE;
+            for (long transferred = 0; transferred < stringsLength; ) {
+                transferred += stringsChannel.transferTo(transferred, stringsLength - transferred, channel.position(position + transferred));
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(count).putLong(stringsLength).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        Files.delete(stringsTemp);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // 目录文件替换后才删除日志，中途中断时下次合并重新写入这些记录
+        Files.delete(logPath);
+        LOGGER.info("Capture catalog {} - merged {} records, entries: {}, in {} ms", path, pending.size(), count,
+                (System.nanoTime() - start) / 1_000_000);
+        pending.clear();
+    }
+
+    private static long write(DataOutputStream records, DataOutputStream strings, long offset, Entry entry) throws IOException {
+        byte[] bytes = entry.path.getBytes(StandardCharsets.UTF_8);
+        records.writeLong(entry.seconds);
+        records.writeLong(offset);
+        strings.writeInt(bytes.length);
+        strings.write(bytes);
+        return offset + Integer.BYTES + bytes.length;
+    }
+
+    /**
+     * 读取待合并日志
+     *
+     * @return 有效内容的长度，末尾不完整的记录不计入
+     */
+    private static long readLog(Path logPath, Map<String, Long> pending) throws IOException {
+        long validLength = 0;
+        if (Files.exists(logPath)) {
+            try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(Files.newInputStream(logPath)));
+                 DataInputStream input = new DataInputStream(counting)) {
+                if (input.readInt() != LOG_MAGIC || input.readInt() != VERSION) {
+                    throw new IOException("Unsupported capture catalog log " + logPath);
+                }
+                validLength = counting.getCount();
+                while (true) {
+                    String key = input.readUTF();
+                    pending.put(key, input.readLong());
+                    validLength = counting.getCount();
+                }
+            } catch (EOFException | UTFDataFormatException e) {
+                // 读到末尾，或者上次写入时中断留下的不完整记录
+            }
+        }
+        return validLength;
+    }
+
+    private static Path logPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".log");
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static long seconds(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * 只读映射的目录
+     */
+    public static class Reader implements Closeable {
+        private final Path path;
+        private final long count;
+        private final LongBuffer records;
+        private final ByteBuffer strings;
+        private final Map<String, Long> pending;
+        private final List<Entry> additions = new ArrayList<>();
+
+        private Reader(Path path, Map<String, Long> pending) throws IOException {
+            this.path = path;
+            this.pending = pending;
+            pending.forEach((key, seconds) -> additions.add(new Entry(seconds, key)));
+            additions.sort(null);
+
+            if (Files.notExists(path)) {
+                count = 0;
+                records = LongBuffer.allocate(0);
+                strings = ByteBuffer.allocate(0);
+                return;
+            }
+            // 映射建立后即可关闭通道，映射在缓冲区回收前一直有效
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                    // 读满文件头
+                }
+                header.flip();
+                if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                    throw new IOException("Unsupported capture catalog " + path);
+                }
+                count = header.getLong();
+                long stringsLength = header.getLong();
+                long recordsLength = count * RECORD_SIZE;
+                if (recordsLength > Integer.MAX_VALUE || stringsLength > Integer.MAX_VALUE) {
+                    throw new IOException("Capture catalog " + path + " exceeds the mappable size");
+                }
+                if (channel.size() < HEADER_SIZE + recordsLength + stringsLength) {
+                    throw new IOException("Capture catalog " + path + " is truncated");
+                }
+                records = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, recordsLength).asLongBuffer();
+                strings = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + recordsLength, stringsLength);
+            }
+        }
+
+        /**
+         * 按拍摄时间顺序输出 [from, to] 范围内的文件
+         *
+         * @param filter 按路径过滤，为null时不过滤
+         * @return 输出的文件数
+         */
+        public long find(LocalDateTime from, LocalDateTime to, Predicate<String> filter, Consumer consumer) throws IOException {
+            long fromSeconds = seconds(from);
+            long toSeconds = seconds(to);
+            long found = 0;
+
+            int next = lowerBound(additions, fromSeconds);
+            for (long i = lowerBound(fromSeconds); i < count && records.get((int) (i * 2)) <= toSeconds; i++) {
+                Entry entry = entry(i);
+                if (pending.containsKey(entry.path)) {
+                    continue;
+                }
+                while (next < additions.size() && additions.get(next).compareTo(entry) < 0) {
+                    found += accept(additions.get(next++), toSeconds, filter, consumer);
+                }
+                found += accept(entry, toSeconds, filter, consumer);
+            }
+            while (next < additions.size()) {
+                found += accept(additions.get(next++), toSeconds, filter, consumer);
+            }
+            return found;
+        }
+
+        /**
+         * 目录中的文件数，包含还未合并的记录
+         */
+        public long size() {
+            long size = count + additions.size();
+            if (!pending.isEmpty()) {
+                for (long i = 0; i < count; i++) {
+                    if (pending.containsKey(path(i))) {
+                        size--;
+                    }
+                }
+            }
+            return size;
+        }
+
+        private static int accept(Entry entry, long toSeconds, Predicate<String> filter, Consumer consumer) throws IOException {
+            if (entry.seconds > toSeconds || (filter != null && !filter.test(entry.path))) {
+                return 0;
+            }
+            consumer.accept(LocalDateTime.ofEpochSecond(entry.seconds, 0, ZoneOffset.UTC), Paths.get(entry.path));
+            return 1;
+        }
+
+        /**
+         * 第一条拍摄时间不早于seconds的记录
+         */
+        private long lowerBound(long seconds) {
+            long low = 0;
+            long high = count;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (records.get((int) (middle * 2)) < seconds) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private static int lowerBound(List<Entry> entries, long seconds) {
+            int low = 0;
+            int high = entries.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (entries.get(middle).seconds < seconds) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private Entry entry(long i) {
+            return new Entry(records.get((int) (i * 2)), path(i));
+        }
+
+        private String path(long i) {
+            int offset = (int) records.get((int) (i * 2 + 1));
+            byte[] bytes = new byte[strings.getInt(offset)];
+            ByteBuffer view = strings.duplicate();
+            view.position(offset + Integer.BYTES);
+            view.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void close() {
+            LOGGER.debug("Capture catalog {} closed, entries: {}, pending: {}", path, count, pending.size());
+        }
+    }
+
+    /**
+     * 查询结果的回调
+     */
+    public interface Consumer {
+        void accept(LocalDateTime captureTime, Path file) throws IOException;
+    }
+
+    /**
+     * 一条记录，按拍摄时间、路径排序
+     */
+    private static class Entry implements Comparable<Entry> {
+        private final long seconds;
+        private final String path;
+
+        Entry(long seconds, String path) {
+            this.seconds = seconds;
+            this.path = path;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = Long.compare(seconds, other.seconds);
+            return result != 0 ? result : path.compareTo(other.path);
+        }
+    }
+}
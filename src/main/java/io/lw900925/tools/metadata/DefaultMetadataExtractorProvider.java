@@ -0,0 +1,45 @@
+package io.lw900925.tools.metadata;
+
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.file.FileSystemDirectory;
+import com.drew.metadata.mov.QuickTimeDirectory;
+import com.drew.metadata.mp4.Mp4Directory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+
+import static io.lw900925.tools.metadata.ExtractorDescriptor.TagKey;
+
+/**
+ * 内置支持的文件类型
+ *
+ * @author lw900925
+ */
+public class DefaultMetadataExtractorProvider implements MetadataExtractorProvider {
+
+    private static final TagKey DATE_TIME_ORIGINAL = TagKey.of(ExifSubIFDDirectory.class, ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL);
+    private static final TagKey DATE_TIME = TagKey.of(ExifIFD0Directory.class, ExifIFD0Directory.TAG_DATETIME);
+    private static final TagKey FILE_MODIFIED_DATE = TagKey.of(FileSystemDirectory.class, FileSystemDirectory.TAG_FILE_MODIFIED_DATE);
+
+    @Override
+    public Collection<ExtractorDescriptor> getDescriptors() {
+        return ImmutableList.of(
+                ExtractorDescriptor.of(Sets.newHashSet("jpeg", "jpg"), HeaderMetadataReader::readJpeg,
+                        DATE_TIME_ORIGINAL, FILE_MODIFIED_DATE),
+                ExtractorDescriptor.of(Sets.newHashSet("mp4", "m4v"), HeaderMetadataReader::readMp4,
+                        TagKey.of(Mp4Directory.class, Mp4Directory.TAG_CREATION_TIME)),
+                ExtractorDescriptor.of(Sets.newHashSet("mov"), HeaderMetadataReader::readQuickTime,
+                        TagKey.of(QuickTimeDirectory.class, QuickTimeDirectory.TAG_CREATION_TIME)),
+                ExtractorDescriptor.of(Sets.newHashSet("png"), HeaderMetadataReader::readPng,
+                        FILE_MODIFIED_DATE),
+                ExtractorDescriptor.of(Sets.newHashSet("heic", "heif"), HeaderMetadataReader::readHeif,
+                        DATE_TIME_ORIGINAL, DATE_TIME, FILE_MODIFIED_DATE),
+                ExtractorDescriptor.of(Sets.newHashSet("cr2", "nef", "arw", "dng", "tif", "tiff"), HeaderMetadataReader::readTiff,
+                        DATE_TIME_ORIGINAL, DATE_TIME, FILE_MODIFIED_DATE),
+                ExtractorDescriptor.of(Sets.newHashSet("webp"), HeaderMetadataReader::readWebp,
+                        DATE_TIME_ORIGINAL, DATE_TIME, FILE_MODIFIED_DATE)
+        );
+    }
+}
@@ -0,0 +1,177 @@
+package io.lw900925.tools.metadata;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 常驻的exiftool进程
+ * <p>
+ * 以 -stay_open 模式启动一个exiftool进程，通过标准输入按批次提交命令，
+ * 每个文件一个 -execute，整批写入后再依次读取各自的 {ready} 响应，避免每个文件都启动一个进程。
+ * 每条命令执行完后根据输出中的 "1 image files updated" 判断是否成功，通过{@link Callback}通知提交方。
+ *
+ * @author lw900925
+ */
+public class ExifTool implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExifTool.class);
+
+    private static final String READY = "{ready}";
+    private static final Pattern UPDATED = Pattern.compile("\\b[1-9]\\d* image files (updated|unchanged)");
+
+    private final Path executable;
+    private final int batchSize;
+    private final List<Command> pending = new ArrayList<>();
+    private Process process;
+    private BufferedWriter writer;
+    private BufferedReader reader;
+
+    /**
+     * @param executable exiftool可执行文件
+     * @param batchSize  积累多少条命令后提交一次
+     */
+    public ExifTool(Path executable, int batchSize) {
+        this.executable = executable;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * exiftool可执行文件是否存在
+     */
+    public boolean isAvailable() {
+        return Files.isExecutable(executable);
+    }
+
+    /**
+     * 提交一条命令，积累到一批后统一执行
+     *
+     * @param args     命令参数，不包括 -execute
+     * @param callback 命令执行完后调用，在执行这一批命令的线程中调用
+     */
+    public synchronized void submit(List<String> args, Callback callback) throws IOException {
+        pending.add(new Command(args, callback));
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * 执行所有积累的命令，等待全部完成。exiftool进程无法启动或异常退出时，未完成的命令都按失败回调，
+     * 下一批命令重新启动进程
+     */
+    public synchronized void flush() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Command> batch = new ArrayList<>(pending);
+        pending.clear();
+
+        List<String> outputs = new ArrayList<>();
+        try {
+            if (process == null) {
+                start();
+            }
+            for (Command command : batch) {
+                for (String arg : command.args) {
+                    writer.write(arg);
+                    writer.newLine();
+                }
+                writer.write("-execute");
+                writer.newLine();
+            }
+            writer.flush();
+
+            for (int i = 0; i < batch.size(); i++) {
+                StringBuilder output = new StringBuilder();
+                String line;
+                while ((line = reader.readLine()) != null && !line.equals(READY)) {
+                    output.append(line).append(System.lineSeparator());
+                }
+                if (line == null) {
+                    throw new IOException("exiftool exited unexpectedly: " + output);
+                }
+                LOGGER.debug("exiftool - {}", output.toString().trim());
+                outputs.add(output.toString().trim());
+            }
+        } catch (IOException e) {
+            LOGGER.error("exiftool failed - {}", e.getMessage(), e);
+            destroy();
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (i < outputs.size()) {
+                batch.get(i).callback.done(UPDATED.matcher(outputs.get(i)).find(), outputs.get(i));
+            } else {
+                batch.get(i).callback.done(false, "exiftool failed");
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (process != null) {
+                writer.write("-stay_open");
+                writer.newLine();
+                writer.write("False");
+                writer.newLine();
+                writer.flush();
+                try {
+                    process.waitFor();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    process.destroy();
+                }
+                process = null;
+            }
+        }
+    }
+
+    private void destroy() {
+        if (process != null) {
+            process.destroy();
+            process = null;
+        }
+    }
+
+    private void start() throws IOException {
+        process = new ProcessBuilder(executable.toString(), "-stay_open", "True", "-@", "-")
+                .redirectErrorStream(true)
+                .start();
+        writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        LOGGER.debug("exiftool started - {}", executable);
+    }
+
+    /**
+     * 命令执行结果的回调
+     */
+    public interface Callback {
+
+        /**
+         * @param success 是否更新了文件
+         * @param output  exiftool的输出
+         */
+        void done(boolean success, String output) throws IOException;
+    }
+
+    private static class Command {
+        private final List<String> args;
+        private final Callback callback;
+
+        Command(List<String> args, Callback callback) {
+            this.args = args;
+            this.callback = callback;
+        }
+    }
+}
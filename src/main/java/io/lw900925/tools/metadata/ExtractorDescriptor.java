@@ -0,0 +1,105 @@
+package io.lw900925.tools.metadata;
+
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.Tag;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 一类文件的元数据提取方式：支持的扩展名、提取器，以及按优先级排列的拍摄时间标签
+ *
+ * @author lw900925
+ */
+public final class ExtractorDescriptor {
+
+    private final Set<String> extensions;
+    private final List<TagKey> tags;
+    private final MetadataExtractor extractor;
+
+    private ExtractorDescriptor(Set<String> extensions, List<TagKey> tags, MetadataExtractor extractor) {
+        this.extensions = extensions;
+        this.tags = tags;
+        this.extractor = extractor;
+    }
+
+    /**
+     * @param extensions 扩展名，不区分大小写
+     * @param extractor  提取器
+     * @param tags       拍摄时间标签，按顺序取第一个存在的
+     */
+    public static ExtractorDescriptor of(Set<String> extensions, MetadataExtractor extractor, TagKey... tags) {
+        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        extensions.forEach(extension -> builder.add(extension.toLowerCase(Locale.ROOT)));
+        return new ExtractorDescriptor(builder.build(), ImmutableList.copyOf(tags), extractor);
+    }
+
+    public Set<String> getExtensions() {
+        return extensions;
+    }
+
+    public List<TagKey> getTags() {
+        return tags;
+    }
+
+    public MetadataExtractor getExtractor() {
+        return extractor;
+    }
+
+    /**
+     * 按优先级查找第一个存在的拍摄时间标签
+     *
+     * @return 未找到时返回null
+     */
+    public Tag findTag(Metadata metadata) {
+        for (TagKey key : tags) {
+            Tag tag = key.find(metadata);
+            if (tag != null) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return extensions + " " + tags;
+    }
+
+    /**
+     * 按目录类型和标签ID定位的标签
+     */
+    public static final class TagKey {
+        private final Class<? extends Directory> directoryType;
+        private final int tagType;
+
+        private TagKey(Class<? extends Directory> directoryType, int tagType) {
+            this.directoryType = directoryType;
+            this.tagType = tagType;
+        }
+
+        public static TagKey of(Class<? extends Directory> directoryType, int tagType) {
+            return new TagKey(directoryType, tagType);
+        }
+
+        /**
+         * @return 目录或标签不存在时返回null
+         */
+        public Tag find(Metadata metadata) {
+            Directory directory = metadata.getFirstDirectoryOfType(directoryType);
+            if (directory == null || !directory.containsTag(tagType)) {
+                return null;
+            }
+            return new Tag(tagType, directory);
+        }
+
+        @Override
+        public String toString() {
+            return directoryType.getSimpleName() + "#" + tagType;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package io.lw900925.tools.metadata;
+
+import com.drew.imaging.ImageProcessingException;
+import com.drew.imaging.heif.HeifMetadataReader;
+import com.drew.imaging.jpeg.JpegMetadataReader;
+import com.drew.imaging.jpeg.JpegSegmentType;
+import com.drew.imaging.mp4.Mp4MetadataReader;
+import com.drew.imaging.png.PngMetadataReader;
+import com.drew.imaging.quicktime.QuickTimeMetadataReader;
+import com.drew.imaging.tiff.TiffMetadataReader;
+import com.drew.imaging.webp.WebpMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifReader;
+import com.drew.metadata.file.FileSystemMetadataReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+
+/**
+ * 只读取文件头部的元数据读取器
+ * <p>
+ * metadata-extractor按整个文件解析，对于几个GB的视频来说大部分读取都是浪费的。
+ * 这里通过{@link FileChannel}定位到元数据所在的位置，只把这一段交给metadata-extractor解析：
+ * <ul>
+ *     <li>JPEG：逐个跳过段，读到APP1(Exif)为止</li>
+ *     <li>MP4/MOV：逐个跳过顶层box，直接定位到moov，moov在文件末尾时同样适用</li>
+ *     <li>PNG：读取IDAT之前的所有chunk</li>
+ * </ul>
+ * 快速路径失败时回退到完整读取。各快速路径包内可见，测试时直接调用，避免回退掩盖快速路径的错误。
+ * <p>
+ * TIFF(CR2/NEF等RAW格式)、WebP和HEIF由metadata-extractor自身按偏移量或按块跳读，直接交给对应的读取器。
+ *
+ * @author lw900925
+ */
+public final class HeaderMetadataReader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeaderMetadataReader.class);
+
+    /**
+     * moov或PNG chunk超过这个大小时不再读入内存，直接回退到完整读取
+     */
+    private static final long MAX_HEADER_SIZE = 64L * 1024 * 1024;
+
+    private static final byte[] EXIF_PREAMBLE = "Exif\0\0".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 0x50, 0x4e, 0x47, 0x0d, 0x0a, 0x1a, 0x0a};
+    private static final byte[] PNG_IEND = {0, 0, 0, 0, 0x49, 0x45, 0x4e, 0x44, (byte) 0xae, 0x42, 0x60, (byte) 0x82};
+
+    private HeaderMetadataReader() {
+    }
+
+    public static Metadata readJpeg(File file) throws ImageProcessingException, IOException {
+        return read(file, HeaderMetadataReader::readJpegHeader, JpegMetadataReader::readMetadata);
+    }
+
+    public static Metadata readMp4(File file) throws ImageProcessingException, IOException {
+        return read(file, channel -> Mp4MetadataReader.readMetadata(new ByteArrayInputStream(readMoov(channel))), Mp4MetadataReader::readMetadata);
+    }
+
+    public static Metadata readQuickTime(File file) throws ImageProcessingException, IOException {
+        return read(file, channel -> QuickTimeMetadataReader.readMetadata(new ByteArrayInputStream(readMoov(channel))), QuickTimeMetadataReader::readMetadata);
+    }
+
+    public static Metadata readPng(File file) throws ImageProcessingException, IOException {
+        return read(file, channel -> PngMetadataReader.readMetadata(new ByteArrayInputStream(readPngHeader(channel))), PngMetadataReader::readMetadata);
+    }
+
+    public static Metadata readTiff(File file) throws ImageProcessingException, IOException {
+        return TiffMetadataReader.readMetadata(file);
+    }
+
+    public static Metadata readWebp(File file) throws ImageProcessingException, IOException {
+        return WebpMetadataReader.readMetadata(file);
+    }
+
+    public static Metadata readHeif(File file) throws IOException {
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(file.toPath()))) {
+            Metadata metadata = HeifMetadataReader.readMetadata(input);
+            new FileSystemMetadataReader().read(file, metadata);
+            return metadata;
+        }
+    }
+
+    private static Metadata read(File file, HeaderReader headerReader, FullReader fullReader) throws ImageProcessingException, IOException {
+        long start = System.nanoTime();
+        try (HeaderChannel channel = new HeaderChannel(FileChannel.open(file.toPath(), StandardOpenOption.READ))) {
+            Metadata metadata = headerReader.read(channel);
+            new FileSystemMetadataReader().read(file, metadata);
+            LOGGER.debug("Header read {}/{} bytes in {} us, file: {}", channel.bytesRead(), channel.size(), (System.nanoTime() - start) / 1000, file);
+            return metadata;
+        } catch (Exception e) {
+            LOGGER.debug("Header read failed, fallback to full read, file: {}, message: {}", file, e.getMessage());
+        }
+
+        start = System.nanoTime();
+        Metadata metadata = fullReader.read(file);
+        LOGGER.debug("Full read {} bytes in {} us, file: {}", file.length(), (System.nanoTime() - start) / 1000, file);
+        return metadata;
+    }
+
+    /**
+     * 跳过APP1(Exif)之前的段，只解析Exif，遇到SOS仍未找到时返回空的元数据
+     */
+    static Metadata readJpegHeader(HeaderChannel channel) throws IOException, ImageProcessingException {
+        Metadata metadata = new Metadata();
+        ByteBuffer header = ByteBuffer.allocate(4);
+        if (channel.readShort(0, header) != 0xffd8) {
+            throw new ImageProcessingException("File format could not be determined");
+        }
+
+        long position = 2;
+        while (true) {
+            int marker = channel.readShort(position, header);
+            if ((marker & 0xff00) != 0xff00) {
+                throw new ImageProcessingException("Invalid JPEG segment marker at " + position);
+            }
+            // 填充字节
+            if (marker == 0xffff) {
+                position++;
+                continue;
+            }
+            int type = marker & 0xff;
+            if (type == 0xda || type == 0xd9) {
+                return metadata;
+            }
+            // 没有长度的独立标记
+            if (type == 0x01 || (type >= 0xd0 && type <= 0xd7)) {
+                position += 2;
+                continue;
+            }
+
+            int length = channel.readShort(position + 2, header);
+            if (length < 2) {
+                throw new ImageProcessingException("Invalid JPEG segment length at " + position);
+            }
+            if (type == (JpegSegmentType.APP1.byteValue & 0xff) && length - 2 > EXIF_PREAMBLE.length) {
+                byte[] segment = new byte[length - 2];
+                channel.readFully(position + 4, ByteBuffer.wrap(segment));
+                if (startsWith(segment, EXIF_PREAMBLE)) {
+                    new ExifReader().readJpegSegments(Collections.singletonList(segment), metadata, JpegSegmentType.APP1);
+                    return metadata;
+                }
+            }
+            position += 2 + length;
+        }
+    }
+
+    /**
+     * 跳过顶层box定位到moov，返回整个moov box
+     */
+    static byte[] readMoov(HeaderChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long size = channel.size();
+        long position = 0;
+        while (position + 8 <= size) {
+            header.clear().limit(8);
+            channel.readFully(position, header);
+            long boxSize = header.getInt(0) & 0xffffffffL;
+            String type = new String(header.array(), 4, 4, StandardCharsets.US_ASCII);
+            int headerSize = 8;
+            if (boxSize == 1) {
+                header.clear().limit(8);
+                channel.readFully(position + 8, header);
+                boxSize = header.getLong(0);
+                headerSize = 16;
+            } else if (boxSize == 0) {
+                boxSize = size - position;
+            }
+            if (boxSize < headerSize) {
+                throw new IOException(String.format("Invalid box size %d of [%s] at %d", boxSize, type, position));
+            }
+
+            if ("moov".equals(type)) {
+                if (boxSize > MAX_HEADER_SIZE) {
+                    throw new IOException(String.format("moov box is too large: %d bytes", boxSize));
+                }
+                byte[] moov = new byte[(int) boxSize];
+                channel.readFully(position, ByteBuffer.wrap(moov));
+                return moov;
+            }
+            position += boxSize;
+        }
+        throw new IOException("moov box not found");
+    }
+
+    /**
+     * 读取IDAT之前的所有chunk，拼上IEND组成一个只有头部的PNG
+     */
+    static byte[] readPngHeader(HeaderChannel channel) throws IOException {
+        byte[] signature = new byte[PNG_SIGNATURE.length];
+        channel.readFully(0, ByteBuffer.wrap(signature));
+        if (!startsWith(signature, PNG_SIGNATURE)) {
+            throw new IOException("Invalid PNG signature");
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(signature);
+        ByteBuffer header = ByteBuffer.allocate(8);
+        long position = PNG_SIGNATURE.length;
+        while (true) {
+            header.clear();
+            channel.readFully(position, header);
+            long length = header.getInt(0) & 0xffffffffL;
+            String type = new String(header.array(), 4, 4, StandardCharsets.US_ASCII);
+            if ("IDAT".equals(type) || "IEND".equals(type)) {
+                output.write(PNG_IEND);
+                return output.toByteArray();
+            }
+            if (length > MAX_HEADER_SIZE) {
+                throw new IOException(String.format("PNG chunk [%s] is too large: %d bytes", type, length));
+            }
+            // chunk = 长度(4) + 类型(4) + 数据 + CRC(4)
+            byte[] chunk = new byte[(int) (length + 12)];
+            channel.readFully(position, ByteBuffer.wrap(chunk));
+            output.write(chunk);
+            position += chunk.length;
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @FunctionalInterface
+    private interface HeaderReader {
+        Metadata read(HeaderChannel channel) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface FullReader {
+        Metadata read(File file) throws ImageProcessingException, IOException;
+    }
+
+    /**
+     * 统计读取字节数的FileChannel包装
+     */
+    static class HeaderChannel implements AutoCloseable {
+        private final FileChannel channel;
+        private long bytesRead;
+
+        HeaderChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long size() throws IOException {
+            return channel.size();
+        }
+
+        long bytesRead() {
+            return bytesRead;
+        }
+
+        int readShort(long position, ByteBuffer buffer) throws IOException {
+            buffer.clear().limit(2);
+            readFully(position, buffer);
+            return buffer.getShort(0) & 0xffff;
+        }
+
+        void readFully(long position, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of file at " + position);
+                }
+                position += read;
+                bytesRead += read;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package io.lw900925.tools.metadata;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.common.ImageMetadata;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * 读取图像的低分辨率预览，缩略图和感知哈希共用
+ * <p>
+ * 优先使用JPEG中EXIF内嵌的缩略图；需要解码时先只读取头部得到尺寸，再按间隔采样解码，不会解码完整分辨率的图像。
+ *
+ * @author lw900925
+ */
+public final class ImagePreview {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImagePreview.class);
+
+    private ImagePreview() {
+    }
+
+    /**
+     * JPEG中EXIF内嵌的缩略图
+     *
+     * @return 不是JPEG、没有内嵌缩略图或EXIF损坏时返回null
+     */
+    public static byte[] embeddedThumbnail(Path source) throws IOException {
+        String filename = source.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (!filename.endsWith(".jpg") && !filename.endsWith(".jpeg")) {
+            return null;
+        }
+        try {
+            ImageMetadata metadata = Imaging.getMetadata(source.toFile());
+            if (metadata instanceof JpegImageMetadata) {
+                return ((JpegImageMetadata) metadata).getEXIFThumbnailData();
+            }
+        } catch (ImageReadException e) {
+            LOGGER.debug("Read EXIF thumbnail of [{}] failed - {}", source, e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 打开图像，此时只读取了头部，可以通过{@link ImageReader#getWidth(int)}得到尺寸后再决定如何解码
+     */
+    public static <T> T read(Path source, ReaderCallback<T> callback) throws IOException, InterruptedException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("No image reader for " + source);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return callback.apply(reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 长边缩小到不小于size时的采样间隔
+     */
+    public static int subsampling(int width, int height, int size) {
+        return Math.max(1, Math.max(width, height) / Math.max(1, size));
+    }
+
+    /**
+     * 每隔subsampling个像素取一个像素解码第一帧
+     */
+    public static BufferedImage decode(ImageReader reader, int subsampling) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+    }
+
+    /**
+     * 读取已打开的图像
+     */
+    @FunctionalInterface
+    public interface ReaderCallback<T> {
+        T apply(ImageReader reader) throws IOException, InterruptedException;
+    }
+}
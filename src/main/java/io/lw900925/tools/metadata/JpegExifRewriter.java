@@ -0,0 +1,147 @@
+package io.lw900925.tools.metadata;
+
+import io.lw900925.tools.support.CopyEngine;
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.common.ImageMetadata;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 单次读取的JPEG EXIF改写
+ * <p>
+ * 只把SOS之前的头部读入内存解析并生成新的EXIF，头部之后的扫描数据(通常占文件95%以上)
+ * 通过{@link CopyEngine}直接拷贝到目标文件，不经过堆内存，源文件也只读取一遍。
+ *
+ * @author lw900925
+ */
+public final class JpegExifRewriter {
+
+    private JpegExifRewriter() {
+    }
+
+    /**
+     * 改写EXIF后写入目标文件
+     *
+     * @param source 源文件
+     * @param target 目标文件，不能已存在
+     * @param engine 写入目标文件
+     * @param editor 修改EXIF
+     */
+    public static void rewrite(Path source, Path target, CopyEngine engine, ExifEditor editor) throws IOException, ImageReadException, ImageWriteException {
+        Closeable lease = engine.schedule(source, target);
+        try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ)) {
+            long scanStart = findScanStart(input);
+
+            // 解析头部，生成新的EXIF
+            byte[] header = new byte[(int) scanStart];
+            readFully(input, ByteBuffer.wrap(header), 0);
+            TiffOutputSet outputSet = getOutputSet(Imaging.getMetadata(header));
+            editor.edit(outputSet);
+
+            try (FileChannel output = engine.create(target)) {
+                // 新的头部只有几十KB，先写入内存再一次写入文件
+                ByteArrayOutputStream newHeader = new ByteArrayOutputStream(header.length + 1024);
+                new ExifRewriter().updateExifMetadataLossless(header, newHeader, outputSet);
+                ByteBuffer buffer = ByteBuffer.wrap(newHeader.toByteArray());
+                while (buffer.hasRemaining()) {
+                    output.write(buffer);
+                }
+
+                // 扫描数据原样拷贝
+                engine.transfer(input, scanStart, input.size() - scanStart, output);
+                engine.commit(target, output);
+            } catch (FileAlreadyExistsException e) {
+                // 目标文件不是这次写入的，不能删除
+                throw e;
+            } catch (IOException | ImageReadException | ImageWriteException | RuntimeException e) {
+                Files.deleteIfExists(target);
+                throw e;
+            }
+        } finally {
+            lease.close();
+        }
+    }
+
+    private static TiffOutputSet getOutputSet(ImageMetadata metadata) throws ImageWriteException {
+        if (metadata instanceof JpegImageMetadata) {
+            TiffImageMetadata exif = ((JpegImageMetadata) metadata).getExif();
+            if (exif != null) {
+                return exif.getOutputSet();
+            }
+        }
+        return new TiffOutputSet();
+    }
+
+    /**
+     * 找到SOS段之后第一个字节的位置，头部包含SOS标记本身
+     */
+    private static long findScanStart(FileChannel channel) throws IOException, ImageReadException {
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        if (readShort(channel, buffer, 0) != 0xffd8) {
+            throw new ImageReadException("Not a valid JPEG file");
+        }
+
+        long position = 2;
+        while (true) {
+            int marker = readShort(channel, buffer, position);
+            if ((marker & 0xff00) != 0xff00) {
+                throw new ImageReadException("Invalid JPEG segment marker at " + position);
+            }
+            if (marker == 0xffff) {
+                position++;
+                continue;
+            }
+            int type = marker & 0xff;
+            if (type == 0xda) {
+                return position + 2;
+            }
+            if (type == 0xd9) {
+                throw new ImageReadException("JPEG file has no image data");
+            }
+            if (type == 0x01 || (type >= 0xd0 && type <= 0xd7)) {
+                position += 2;
+                continue;
+            }
+            position += 2 + readShort(channel, buffer, position + 2);
+        }
+    }
+
+    private static int readShort(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        readFully(channel, buffer, position);
+        return buffer.getShort(0) & 0xffff;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at " + position);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * 修改EXIF
+     */
+    @FunctionalInterface
+    public interface ExifEditor {
+        void edit(TiffOutputSet outputSet) throws ImageWriteException;
+    }
+}
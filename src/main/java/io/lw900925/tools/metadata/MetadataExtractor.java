@@ -0,0 +1,17 @@
+package io.lw900925.tools.metadata;
+
+import com.drew.imaging.ImageProcessingException;
+import com.drew.metadata.Metadata;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 文件元数据提取
+ *
+ * @author lw900925
+ */
+@FunctionalInterface
+public interface MetadataExtractor {
+    Metadata extract(File file) throws ImageProcessingException, IOException;
+}
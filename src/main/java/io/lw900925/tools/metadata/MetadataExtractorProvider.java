@@ -0,0 +1,14 @@
+package io.lw900925.tools.metadata;
+
+import java.util.Collection;
+
+/**
+ * 提供{@link ExtractorDescriptor}
+ * <p>
+ * 实现类可以注册为Spring Bean，也可以写入 META-INF/services 通过{@link java.util.ServiceLoader}加载。
+ *
+ * @author lw900925
+ */
+public interface MetadataExtractorProvider {
+    Collection<ExtractorDescriptor> getDescriptors();
+}
@@ -0,0 +1,66 @@
+package io.lw900925.tools.metadata;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 扩展名到{@link ExtractorDescriptor}的映射
+ * <p>
+ * 先加载 META-INF/services 中的{@link MetadataExtractorProvider}，再加载Spring容器中的，
+ * 同一个扩展名后注册的覆盖先注册的。
+ *
+ * @author lw900925
+ */
+@Component
+public class MetadataExtractorRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetadataExtractorRegistry.class);
+
+    private final Map<String, ExtractorDescriptor> descriptors = new ConcurrentHashMap<>();
+
+    @Autowired(required = false)
+    private List<MetadataExtractorProvider> providers = Collections.emptyList();
+
+    public MetadataExtractorRegistry() {
+        for (MetadataExtractorProvider provider : ServiceLoader.load(MetadataExtractorProvider.class)) {
+            register(provider);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        providers.forEach(this::register);
+        LOGGER.debug("Registered extensions: {}", descriptors.keySet());
+    }
+
+    public void register(MetadataExtractorProvider provider) {
+        provider.getDescriptors().forEach(this::register);
+    }
+
+    public void register(ExtractorDescriptor descriptor) {
+        for (String extension : descriptor.getExtensions()) {
+            ExtractorDescriptor previous = descriptors.put(extension, descriptor);
+            if (previous != null && previous != descriptor) {
+                LOGGER.debug("Extension [{}] re-registered, {} -> {}", extension, previous, descriptor);
+            }
+        }
+    }
+
+    /**
+     * @return 不支持的扩展名返回null
+     */
+    public ExtractorDescriptor find(String extension) {
+        ExtractorDescriptor descriptor = descriptors.get(extension);
+        return descriptor != null ? descriptor : descriptors.get(extension.toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,227 @@
+package io.lw900925.tools.metadata;
+
+import com.google.common.io.CountingInputStream;
+import io.lw900925.tools.support.IndexLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 持久化的元数据索引
+ * <p>
+ * 以 路径+大小+修改时间 为键，记录从元数据中提取的拍摄时间和命中的标签名，
+ * 文件未变化时直接使用索引中的结果，不再读取文件内容。
+ * <p>
+ * 索引文件只追加写入，同一路径后写入的记录覆盖先写入的记录；失效记录过多时在关闭时压缩。
+ * 打开期间持有{@link IndexLock}，同一索引同时只能被一个进程打开。
+ *
+ * @author lw900925
+ */
+public class MetadataIndex implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetadataIndex.class);
+
+    private static final int MAGIC = 0x4d494458; // MIDX
+    private static final int VERSION = 1;
+
+    /**
+     * 未能从元数据中提取拍摄时间，使用文件创建时间
+     */
+    public static final long NO_CAPTURE_TIME = Long.MIN_VALUE;
+
+    /**
+     * 记录数超过有效记录数的这个倍数时压缩
+     */
+    private static final int COMPACT_RATIO = 2;
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final Path path;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private IndexLock lock;
+    private DataOutputStream output;
+    private long records;
+
+    private MetadataIndex(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * 打开索引文件，不存在时创建
+     *
+     * @param path    索引文件路径
+     * @param rebuild 是否丢弃已有索引重新建立
+     * @throws IOException 索引已被其他进程打开
+     */
+    public static MetadataIndex open(Path path, boolean rebuild) throws IOException {
+        MetadataIndex index = new MetadataIndex(path);
+        if (path.getParent() != null && Files.notExists(path.getParent())) {
+            Files.createDirectories(path.getParent());
+        }
+        index.lock = IndexLock.acquire(path, "Metadata index");
+        try {
+            if (rebuild) {
+                Files.deleteIfExists(path);
+            }
+            index.load();
+        } catch (IOException e) {
+            index.lock.close();
+            throw e;
+        }
+        return index;
+    }
+
+    /**
+     * 查找文件的拍摄时间，文件大小或修改时间变化时视为未命中
+     *
+     * @return 未命中时返回null
+     */
+    public Entry get(Path file, BasicFileAttributes attrs) {
+        Entry entry = entries.get(key(file));
+        if (entry == null || entry.size != attrs.size() || entry.modifiedTime != attrs.lastModifiedTime().toMillis()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * 记录文件的拍摄时间
+     *
+     * @param captureTime 拍摄时间(毫秒)，未能提取时为{@link #NO_CAPTURE_TIME}
+     * @param tag         命中的标签名
+     */
+    public void put(Path file, BasicFileAttributes attrs, long captureTime, String tag) throws IOException {
+        Entry entry = new Entry(key(file), attrs.size(), attrs.lastModifiedTime().toMillis(), captureTime, tag == null ? "" : tag);
+        entries.put(entry.path, entry);
+        synchronized (this) {
+            write(output, entry);
+            records++;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            output.close();
+            LOGGER.info("Metadata index {} - entries: {}, hits: {}, misses: {}", path, entries.size(), hits, misses);
+            if (records > (long) entries.size() * COMPACT_RATIO && records > COMPACT_THRESHOLD) {
+                compact();
+            }
+        } finally {
+            // 压缩完成后才释放，其他进程打开时读到的是压缩后的文件
+            lock.close();
+        }
+    }
+
+    /**
+     * 只保留每个路径的最新记录，丢弃源文件已不存在的记录
+     */
+    public synchronized void compact() throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        int removed = 0;
+        try (DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            compacted.writeInt(MAGIC);
+            compacted.writeInt(VERSION);
+            for (Entry entry : entries.values()) {
+                if (Files.notExists(Paths.get(entry.path))) {
+                    removed++;
+                    continue;
+                }
+                write(compacted, entry);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Metadata index {} compacted from {} to {} records.", path, records, entries.size() - removed);
+        records = entries.size() - removed;
+    }
+
+    private void load() throws IOException {
+        long validLength = 0;
+        if (Files.exists(path)) {
+            try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(Files.newInputStream(path)));
+                 DataInputStream input = new DataInputStream(counting)) {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    throw new IOException("Unsupported metadata index " + path);
+                }
+                validLength = counting.getCount();
+                while (true) {
+                    Entry entry = read(input);
+                    entries.put(entry.path, entry);
+                    records++;
+                    validLength = counting.getCount();
+                }
+            } catch (EOFException | UTFDataFormatException e) {
+                // 读到末尾，或者上次写入时中断留下的不完整记录
+            }
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // 截掉末尾不完整的记录
+        channel.truncate(validLength);
+        channel.position(validLength);
+        output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        if (validLength == 0) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+        }
+        LOGGER.debug("Metadata index {} loaded, entries: {}, records: {}", path, entries.size(), records);
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static void write(DataOutputStream output, Entry entry) throws IOException {
+        output.writeUTF(entry.path);
+        output.writeLong(entry.size);
+        output.writeLong(entry.modifiedTime);
+        output.writeLong(entry.captureTime);
+        output.writeUTF(entry.tag);
+    }
+
+    private static Entry read(DataInputStream input) throws IOException {
+        return new Entry(input.readUTF(), input.readLong(), input.readLong(), input.readLong(), input.readUTF());
+    }
+
+    /**
+     * 索引记录
+     */
+    public static class Entry {
+        private final String path;
+        private final long size;
+        private final long modifiedTime;
+        private final long captureTime;
+        private final String tag;
+
+        Entry(String path, long size, long modifiedTime, long captureTime, String tag) {
+            this.path = path;
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.captureTime = captureTime;
+            this.tag = tag;
+        }
+
+        public long getCaptureTime() {
+            return captureTime;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        public boolean hasCaptureTime() {
+            return captureTime != NO_CAPTURE_TIME;
+        }
+    }
+}
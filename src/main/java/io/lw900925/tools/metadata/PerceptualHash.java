@@ -0,0 +1,109 @@
+package io.lw900925.tools.metadata;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 64位感知哈希(dHash)
+ * <p>
+ * 图像缩小到9x8的灰度图，每行相邻两个像素比较亮度，左边更亮时该位为1。
+ * 重新压缩、缩放后的图像哈希基本不变，两个哈希的汉明距离越小图像越相似。
+ *
+ * @author lw900925
+ */
+public final class PerceptualHash {
+
+    private static final int WIDTH = 9;
+    private static final int HEIGHT = 8;
+
+    /**
+     * 解码时长边不小于的像素数，足够缩小到9x8时平均掉噪点
+     */
+    private static final int DECODE_SIZE = 64;
+
+    /**
+     * 内嵌缩略图与原图宽高比相差超过这个比例时，缩略图可能带有黑边，改为解码原图
+     */
+    private static final double MAX_ASPECT_DIFFERENCE = 0.02;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * 计算图像文件的哈希，宽高比一致时使用内嵌缩略图，否则按间隔采样解码
+     */
+    public static long of(Path source) throws IOException, InterruptedException {
+        return ImagePreview.read(source, reader -> {
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            byte[] thumbnail = ImagePreview.embeddedThumbnail(source);
+            if (thumbnail != null) {
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+                if (image != null && Math.abs((double) image.getWidth() / image.getHeight() - (double) width / height) <= MAX_ASPECT_DIFFERENCE * width / height) {
+                    return dHash(image);
+                }
+            }
+            return dHash(ImagePreview.decode(reader, ImagePreview.subsampling(width, height, DECODE_SIZE)));
+        });
+    }
+
+    public static long dHash(BufferedImage image) {
+        double[][] cells = shrink(image);
+        long hash = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 1; x < WIDTH; x++) {
+                hash = (hash << 1) | (cells[y][x - 1] > cells[y][x] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * 两个哈希不同的位数
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * 按区域平均缩小到9x8的灰度，每个格子取覆盖范围内所有像素亮度的平均值
+     */
+    private static double[][] shrink(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+        double[][] sums = new double[HEIGHT][WIDTH];
+        int[][] counts = new int[HEIGHT][WIDTH];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellY = (int) ((long) y * HEIGHT / height);
+            for (int x = 0; x < width; x++) {
+                int cellX = (int) ((long) x * WIDTH / width);
+                sums[cellY][cellX] += luminance(row[x]);
+                counts[cellY][cellX]++;
+            }
+        }
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                // 原图小于9x8时部分格子没有像素
+                sums[y][x] = counts[y][x] == 0 ? 0 : sums[y][x] / counts[y][x];
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * 透明部分按白色处理，与缩略图一致
+     */
+    private static int luminance(int argb) {
+        int a = (argb >>> 24) & 0xff;
+        int r = (argb >> 16) & 0xff;
+        int g = (argb >> 8) & 0xff;
+        int b = argb & 0xff;
+        int luminance = (r * 299 + g * 587 + b * 114) / 1000;
+        return (luminance * a + 255 * (255 - a)) / 255;
+    }
+}
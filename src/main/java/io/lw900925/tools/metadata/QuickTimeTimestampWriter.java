@@ -0,0 +1,140 @@
+package io.lw900925.tools.metadata;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * MP4/MOV创建时间和修改时间的原地改写
+ * <p>
+ * 定位moov下的mvhd、trak/tkhd、trak/mdia/mdhd，直接覆盖其中定长的creation_time和modification_time字段，
+ * 不改变文件长度，也不需要重写整个文件。
+ *
+ * @author lw900925
+ */
+public final class QuickTimeTimestampWriter {
+
+    /**
+     * 1904-01-01T00:00:00Z 到 1970-01-01T00:00:00Z 的秒数
+     */
+    private static final long EPOCH_OFFSET = 2082844800L;
+
+    private QuickTimeTimestampWriter() {
+    }
+
+    /**
+     * 改写文件中所有mvhd、tkhd、mdhd的创建时间和修改时间
+     *
+     * @return 改写的box数量
+     */
+    public static int write(Path file, Instant creationTime, Instant modificationTime) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int patched = patch(channel, 0, channel.size(), toQuickTime(creationTime), toQuickTime(modificationTime));
+            if (patched == 0) {
+                throw new IOException("No mvhd/tkhd/mdhd box found in " + file);
+            }
+            return patched;
+        }
+    }
+
+    private static int patch(FileChannel channel, long start, long end, long creationTime, long modificationTime) throws IOException {
+        int patched = 0;
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = start;
+        while (position + 8 <= end) {
+            Box box = readBox(channel, header, position, end);
+            switch (box.type) {
+                case "moov":
+                case "trak":
+                case "mdia":
+                    patched += patch(channel, box.dataStart, box.end, creationTime, modificationTime);
+                    break;
+                case "mvhd":
+                case "tkhd":
+                case "mdhd":
+                    patchFullBox(channel, box, creationTime, modificationTime);
+                    patched++;
+                    break;
+                default:
+                    break;
+            }
+            position = box.end;
+        }
+        return patched;
+    }
+
+    /**
+     * version 0 的时间字段为32位，version 1 为64位，都紧跟在 version(1) + flags(3) 之后
+     */
+    private static void patchFullBox(FileChannel channel, Box box, long creationTime, long modificationTime) throws IOException {
+        ByteBuffer version = ByteBuffer.allocate(1);
+        readFully(channel, version, box.dataStart);
+        ByteBuffer fields;
+        if (version.get(0) == 1) {
+            fields = ByteBuffer.allocate(16);
+            fields.putLong(creationTime).putLong(modificationTime);
+        } else {
+            if (creationTime > 0xffffffffL || modificationTime > 0xffffffffL) {
+                throw new IOException(String.format("Timestamp cannot be stored in version 0 [%s] box", box.type));
+            }
+            fields = ByteBuffer.allocate(8);
+            fields.putInt((int) creationTime).putInt((int) modificationTime);
+        }
+        fields.flip();
+        long position = box.dataStart + 4;
+        while (fields.hasRemaining()) {
+            position += channel.write(fields, position);
+        }
+    }
+
+    private static Box readBox(FileChannel channel, ByteBuffer header, long position, long end) throws IOException {
+        header.clear().limit(8);
+        readFully(channel, header, position);
+        long size = header.getInt(0) & 0xffffffffL;
+        String type = new String(header.array(), 4, 4, StandardCharsets.US_ASCII);
+        int headerSize = 8;
+        if (size == 1) {
+            header.clear().limit(8);
+            readFully(channel, header, position + 8);
+            size = header.getLong(0);
+            headerSize = 16;
+        } else if (size == 0) {
+            size = end - position;
+        }
+        if (size < headerSize || position + size > end) {
+            throw new IOException(String.format("Invalid box size %d of [%s] at %d", size, type, position));
+        }
+        return new Box(type, position + headerSize, position + size);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static long toQuickTime(Instant instant) {
+        return instant.getEpochSecond() + EPOCH_OFFSET;
+    }
+
+    private static class Box {
+        private final String type;
+        private final long dataStart;
+        private final long end;
+
+        Box(String type, long dataStart, long end) {
+            this.type = type;
+            this.dataStart = dataStart;
+            this.end = end;
+        }
+    }
+}
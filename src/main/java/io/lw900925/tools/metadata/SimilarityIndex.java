@@ -0,0 +1,282 @@
+package io.lw900925.tools.metadata;
+
+import com.google.common.io.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * 持久化的感知哈希索引
+ * <p>
+ * 以 路径+大小+修改时间 为键记录每张照片的拍摄时间(精确到分钟)和{@link PerceptualHash}，文件未变化时不再解码。
+ * 索引文件只追加写入，格式和压缩方式与{@link MetadataIndex}相同。
+ * <p>
+ * 查找汉明距离不超过d的哈希时使用多索引哈希：64位分成d+1段，每段一张表。
+ * 两个哈希最多有d位不同，d+1段中至少有一段完全相同，所以只需比较至少一段相同的候选，不必与所有哈希逐个比较。
+ * 只在同一分钟内查找时直接比较这一分钟的所有哈希。
+ *
+ * @author lw900925
+ */
+public class SimilarityIndex implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimilarityIndex.class);
+
+    private static final int MAGIC = 0x50484458; // PHDX
+    private static final int VERSION = 1;
+
+    private static final int COMPACT_RATIO = 2;
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final Path path;
+    private final int maxDistance;
+    private final int[] chunkStarts;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, List<Entry>> minutes = new HashMap<>();
+    private final List<Map<Long, List<Entry>>> chunks = new ArrayList<>();
+    private int hits;
+    private int misses;
+    private DataOutputStream output;
+    private long records;
+
+    private SimilarityIndex(Path path, int maxDistance) {
+        this.path = path;
+        this.maxDistance = maxDistance;
+        int count = Math.min(maxDistance + 1, Long.SIZE);
+        this.chunkStarts = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            chunkStarts[i] = i * Long.SIZE / count;
+            if (i < count) {
+                chunks.add(new HashMap<>());
+            }
+        }
+    }
+
+    /**
+     * 打开索引文件，不存在时创建
+     *
+     * @param path        索引文件路径
+     * @param maxDistance 认为相似的最大汉明距离
+     * @param rebuild     是否丢弃已有索引重新建立
+     */
+    public static SimilarityIndex open(Path path, int maxDistance, boolean rebuild) throws IOException {
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("Distance must not be negative: " + maxDistance);
+        }
+        SimilarityIndex index = new SimilarityIndex(path, maxDistance);
+        if (path.getParent() != null && Files.notExists(path.getParent())) {
+            Files.createDirectories(path.getParent());
+        }
+        if (rebuild) {
+            Files.deleteIfExists(path);
+        }
+        index.load();
+        return index;
+    }
+
+    /**
+     * 查找文件的哈希，文件大小或修改时间变化时视为未命中
+     *
+     * @return 未命中时返回null
+     */
+    public synchronized Entry get(Path file, BasicFileAttributes attrs) {
+        Entry entry = entries.get(key(file));
+        if (entry == null || entry.size != attrs.size() || entry.modifiedTime != attrs.lastModifiedTime().toMillis()) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry;
+    }
+
+    /**
+     * 记录文件的哈希
+     *
+     * @param minute 拍摄时间，精确到分钟
+     */
+    public synchronized Entry put(Path file, BasicFileAttributes attrs, String minute, long hash) throws IOException {
+        Entry entry = new Entry(key(file), attrs.size(), attrs.lastModifiedTime().toMillis(), minute, hash);
+        add(entry);
+        write(output, entry);
+        records++;
+        return entry;
+    }
+
+    /**
+     * 查找汉明距离不超过最大距离的其他文件
+     *
+     * @param sameMinute 是否只在同一拍摄分钟内查找
+     */
+    public synchronized List<Entry> find(Entry entry, boolean sameMinute) {
+        Collection<Entry> candidates;
+        if (sameMinute) {
+            candidates = minutes.getOrDefault(entry.minute, Collections.emptyList());
+        } else {
+            candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = 0; i < chunks.size(); i++) {
+                candidates.addAll(chunks.get(i).getOrDefault(chunk(entry.hash, i), Collections.emptyList()));
+            }
+        }
+
+        List<Entry> similar = new ArrayList<>();
+        for (Entry candidate : candidates) {
+            if (candidate != entry && PerceptualHash.distance(entry.hash, candidate.hash) <= maxDistance) {
+                similar.add(candidate);
+            }
+        }
+        return similar;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        output.close();
+        LOGGER.info("Similarity index {} - entries: {}, hits: {}, misses: {}", path, entries.size(), hits, misses);
+        if (records > (long) entries.size() * COMPACT_RATIO && records > COMPACT_THRESHOLD) {
+            compact();
+        }
+    }
+
+    /**
+     * 只保留每个路径的最新记录，丢弃源文件已不存在的记录
+     */
+    public synchronized void compact() throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        int removed = 0;
+        try (DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            compacted.writeInt(MAGIC);
+            compacted.writeInt(VERSION);
+            for (Entry entry : entries.values()) {
+                if (Files.notExists(Paths.get(entry.path))) {
+                    removed++;
+                    continue;
+                }
+                write(compacted, entry);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Similarity index {} compacted from {} to {} records.", path, records, entries.size() - removed);
+        records = entries.size() - removed;
+    }
+
+    private void add(Entry entry) {
+        Entry previous = entries.put(entry.path, entry);
+        if (previous != null) {
+            remove(minutes, previous.minute, previous);
+            for (int i = 0; i < chunks.size(); i++) {
+                remove(chunks.get(i), chunk(previous.hash, i), previous);
+            }
+        }
+        minutes.computeIfAbsent(entry.minute, minute -> new ArrayList<>(2)).add(entry);
+        for (int i = 0; i < chunks.size(); i++) {
+            chunks.get(i).computeIfAbsent(chunk(entry.hash, i), chunk -> new ArrayList<>(2)).add(entry);
+        }
+    }
+
+    private static <K> void remove(Map<K, List<Entry>> buckets, K key, Entry entry) {
+        List<Entry> bucket = buckets.get(key);
+        if (bucket == null) {
+            return;
+        }
+        bucket.removeIf(candidate -> candidate == entry);
+        if (bucket.isEmpty()) {
+            buckets.remove(key);
+        }
+    }
+
+    /**
+     * 哈希的第i段
+     */
+    private long chunk(long hash, int i) {
+        int bits = chunkStarts[i + 1] - chunkStarts[i];
+        long mask = bits == Long.SIZE ? -1L : (1L << bits) - 1;
+        return (hash >>> chunkStarts[i]) & mask;
+    }
+
+    private void load() throws IOException {
+        long validLength = 0;
+        if (Files.exists(path)) {
+            try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(Files.newInputStream(path)));
+                 DataInputStream input = new DataInputStream(counting)) {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    throw new IOException("Unsupported similarity index " + path);
+                }
+                validLength = counting.getCount();
+                while (true) {
+                    add(read(input));
+                    records++;
+                    validLength = counting.getCount();
+                }
+            } catch (EOFException | UTFDataFormatException e) {
+                // 读到末尾，或者上次写入时中断留下的不完整记录
+            }
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // 截掉末尾不完整的记录
+        channel.truncate(validLength);
+        channel.position(validLength);
+        output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        if (validLength == 0) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+        }
+        LOGGER.debug("Similarity index {} loaded, entries: {}, records: {}", path, entries.size(), records);
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static void write(DataOutputStream output, Entry entry) throws IOException {
+        output.writeUTF(entry.path);
+        output.writeLong(entry.size);
+        output.writeLong(entry.modifiedTime);
+        output.writeUTF(entry.minute);
+        output.writeLong(entry.hash);
+    }
+
+    private static Entry read(DataInputStream input) throws IOException {
+        return new Entry(input.readUTF(), input.readLong(), input.readLong(), input.readUTF(), input.readLong());
+    }
+
+    /**
+     * 索引记录
+     */
+    public static class Entry {
+        private final String path;
+        private final long size;
+        private final long modifiedTime;
+        private final String minute;
+        private final long hash;
+
+        Entry(String path, long size, long modifiedTime, String minute, long hash) {
+            this.path = path;
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.minute = minute;
+            this.hash = hash;
+        }
+
+        public Path getPath() {
+            return Paths.get(path);
+        }
+
+        public String getMinute() {
+            return minute;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package io.lw900925.tools.metadata;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 缩略图生成
+ * <p>
+ * JPEG优先直接使用EXIF中内嵌的缩略图，不需要解码；没有内嵌缩略图时通过{@link ImagePreview}按间隔采样解码。
+ * <p>
+ * 解码在独立的有界线程池中执行，队列满时提交方阻塞。每次解码按采样后的尺寸估算内存并从预算中扣除，
+ * 预算不足时等待其他解码完成，超过整个预算的图像直接跳过。
+ *
+ * @author lw900925
+ */
+public class ThumbnailGenerator implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailGenerator.class);
+
+    /**
+     * 每个像素解码时占用的字节数，采样后的图像和缩放后的图像各一份
+     */
+    private static final int BYTES_PER_PIXEL = 4 * 2;
+
+    private final int size;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore budget;
+    private final int budgetKilobytes;
+    private final AtomicInteger embedded = new AtomicInteger();
+    private final AtomicInteger decoded = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * @param size         缩略图长边的像素数
+     * @param threads      解码线程数
+     * @param memoryBudget 同时解码的图像最多占用的字节数
+     */
+    public ThumbnailGenerator(int size, int threads, long memoryBudget) {
+        this.size = size;
+        this.budgetKilobytes = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / 1024));
+        this.budget = new Semaphore(budgetKilobytes);
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("thumbnail-%d").setDaemon(true).build();
+        int poolSize = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(poolSize * 4), threadFactory, (runnable, pool) -> {
+            // 队列已满时阻塞提交方
+            if (pool.isShutdown()) {
+                throw new RejectedExecutionException("Thumbnail generator has been closed");
+            }
+            try {
+                pool.getQueue().put(runnable);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        });
+    }
+
+    /**
+     * 是否支持该扩展名
+     */
+    public static boolean isSupported(String extension) {
+        String lower = extension.toLowerCase(Locale.ROOT);
+        return "jpg".equals(lower) || "jpeg".equals(lower) || "png".equals(lower);
+    }
+
+    /**
+     * 异步生成缩略图，目标文件已存在时跳过
+     *
+     * @param source 原图
+     * @param target 缩略图，JPEG格式
+     */
+    public void submit(Path source, Path target) {
+        executor.execute(() -> {
+            try {
+                generate(source, target);
+            } catch (FileAlreadyExistsException e) {
+                skipped.incrementAndGet();
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                LOGGER.warn("Generate thumbnail failed, file: {}, message: {}", source, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 等待已提交的缩略图全部生成
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        LOGGER.info("Thumbnails - embedded: {}, decoded: {}, skipped: {}, failed: {}", embedded, decoded, skipped, failed);
+    }
+
+    private void generate(Path source, Path target) throws IOException, InterruptedException {
+        if (Files.exists(target)) {
+            throw new FileAlreadyExistsException(target.toString());
+        }
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+
+        // 内嵌缩略图原样写入
+        byte[] thumbnail = ImagePreview.embeddedThumbnail(source);
+        if (thumbnail != null) {
+            Files.write(target, thumbnail, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            embedded.incrementAndGet();
+            return;
+        }
+
+        ImagePreview.read(source, reader -> {
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            int subsampling = ImagePreview.subsampling(width, height, size);
+            long pixels = (long) (width / subsampling + 1) * (height / subsampling + 1);
+            int kilobytes = (int) Math.min(Integer.MAX_VALUE, pixels * BYTES_PER_PIXEL / 1024 + 1);
+            if (kilobytes > budgetKilobytes) {
+                skipped.incrementAndGet();
+                LOGGER.warn("Image [{}] {}x{} exceeds thumbnail memory budget, skipped.", source, width, height);
+                return null;
+            }
+
+            budget.acquire(kilobytes);
+            try {
+                write(scale(ImagePreview.decode(reader, subsampling)), target);
+                decoded.incrementAndGet();
+            } finally {
+                budget.release(kilobytes);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 缩放到长边为size，透明部分填充白色
+     */
+    private BufferedImage scale(BufferedImage image) {
+        double ratio = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private static void write(BufferedImage image, Path target) throws IOException {
+        try (OutputStream output = Files.newOutputStream(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            if (!ImageIO.write(image, "jpg", output)) {
+                throw new IOException("No JPEG writer");
+            }
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package io.lw900925.tools.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文件拷贝引擎
+ * <p>
+ * 所有写入目标文件的操作共用一个引擎：
+ * <ul>
+ *     <li>按块执行{@link FileChannel#transferTo}，由内核在两个文件之间直接传输；关闭零拷贝或内核不支持时
+ *     使用直接缓冲区读写，缓冲区在文件之间复用</li>
+ *     <li>同时进行的拷贝数有上限，多个线程拷贝时不会超出目标盘的承受能力；配置了{@link IoScheduler}时
+ *     每个设备还有各自的上限，机械盘上的读写按位置排序</li>
+ *     <li>fsync策略：不刷盘、每个文件、每批文件或全部结束时</li>
+ * </ul>
+ * 可以在多个线程中使用。
+ *
+ * @author lw900925
+ */
+public class CopyEngine implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CopyEngine.class);
+
+    private final int chunkSize;
+    private final Sync sync;
+    private final int batchSize;
+    private final boolean zeroCopy;
+    private final Semaphore permits;
+    private final IoScheduler scheduler;
+    private final BlockingQueue<ByteBuffer> buffers;
+    private final List<Path> pending = new ArrayList<>();
+    private final AtomicInteger files = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger syncs = new AtomicInteger();
+
+    /**
+     * @param chunkSize 单次传输的最大字节数，也是直接缓冲区的大小
+     * @param inFlight  同时进行的拷贝数
+     * @param sync      fsync策略
+     * @param batchSize {@link Sync#BATCH}时每批的文件数
+     * @param zeroCopy  是否使用{@link FileChannel#transferTo}
+     * @param scheduler 按设备限制并发，为null时只限制总的拷贝数
+     */
+    public CopyEngine(int chunkSize, int inFlight, Sync sync, int batchSize, boolean zeroCopy, IoScheduler scheduler) {
+        this.chunkSize = Math.max(4096, chunkSize);
+        this.sync = sync;
+        this.batchSize = Math.max(1, batchSize);
+        this.zeroCopy = zeroCopy;
+        this.permits = new Semaphore(Math.max(1, inFlight), true);
+        this.buffers = new ArrayBlockingQueue<>(Math.max(1, inFlight));
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 拷贝文件内容，不保留文件属性，与{@link Files#copy(Path, Path, java.nio.file.CopyOption...)}一致
+     *
+     * @throws FileAlreadyExistsException 目标文件已存在
+     */
+    public void copy(Path source, Path target) throws IOException {
+        // 先等设备空闲，再占用总的拷贝数，等待机械盘时不影响其他设备上的拷贝
+        Closeable lease = schedule(source, target);
+        try {
+            acquire();
+            try (FileChannel input = FileChannel.open(source, StandardOpenOption.READ)) {
+                try (FileChannel output = create(target)) {
+                    transfer(input, 0, input.size(), output);
+                    commit(target, output);
+                } catch (FileAlreadyExistsException e) {
+                    throw e;
+                } catch (IOException | RuntimeException e) {
+                    Files.deleteIfExists(target);
+                    throw e;
+                }
+            } finally {
+                permits.release();
+            }
+        } finally {
+            lease.close();
+        }
+    }
+
+    /**
+     * 等待源设备和目标设备空闲，不经过{@link #copy}直接读写时使用
+     *
+     * @return 读写结束后关闭
+     */
+    public Closeable schedule(Path source, Path target) throws IOException {
+        return scheduler == null ? () -> { } : scheduler.acquire(source, target);
+    }
+
+    /**
+     * 创建目标文件，写入完成后需要调用{@link #commit}
+     *
+     * @throws FileAlreadyExistsException 目标文件已存在
+     */
+    public FileChannel create(Path target) throws IOException {
+        return FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * 目标文件写入完成，按fsync策略刷盘，在关闭channel之前调用
+     */
+    public void commit(Path target, FileChannel output) throws IOException {
+        files.incrementAndGet();
+        switch (sync) {
+            case FILE:
+                output.force(true);
+                syncs.incrementAndGet();
+                break;
+            case BATCH:
+            case END:
+                List<Path> batch = null;
+                synchronized (pending) {
+                    pending.add(target);
+                    if (sync == Sync.BATCH && pending.size() >= batchSize) {
+                        batch = new ArrayList<>(pending);
+                        pending.clear();
+                    }
+                }
+                if (batch != null) {
+                    force(batch);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 把input中从position开始的count个字节写入output的当前位置
+     */
+    public void transfer(FileChannel input, long position, long count, FileChannel output) throws IOException {
+        long end = position + count;
+        if (zeroCopy) {
+            while (position < end) {
+                long transferred = input.transferTo(position, Math.min(chunkSize, end - position), output);
+                if (transferred <= 0) {
+                    // 内核不支持或暂时无法传输，剩余部分用缓冲区拷贝
+                    break;
+                }
+                position += transferred;
+            }
+        }
+        if (position < end) {
+            ByteBuffer buffer = borrow();
+            try {
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    int read = input.read(buffer, position);
+                    if (read < 0) {
+                        throw new EOFException("Unexpected end of file at " + position);
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        output.write(buffer);
+                    }
+                    position += read;
+                }
+            } finally {
+                buffers.offer(buffer);
+            }
+        }
+        bytes.addAndGet(count);
+    }
+
+    /**
+     * 刷盘所有尚未刷盘的文件
+     */
+    public void sync() throws IOException {
+        List<Path> batch;
+        synchronized (pending) {
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        force(batch);
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        LOGGER.debug("Copy engine - files: {}, bytes: {}, syncs: {}, policy: {}", files, bytes, syncs, sync);
+        if (scheduler != null) {
+            scheduler.report().forEach(line -> LOGGER.info("Device {}", line));
+        }
+    }
+
+    /**
+     * 重新打开文件刷盘，再刷盘所在的文件夹，保证新建的目录项也已持久化
+     */
+    private void force(List<Path> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Path file : batch) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            if (file.getParent() != null) {
+                directories.add(file.getParent());
+            }
+        }
+        for (Path directory : directories) {
+            try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException e) {
+                // Windows上无法打开文件夹
+                LOGGER.trace("Sync directory [{}] failed - {}", directory, e.getMessage());
+            }
+        }
+        syncs.addAndGet(batch.size());
+    }
+
+    private void acquire() throws InterruptedIOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Copy interrupted");
+        }
+    }
+
+    private ByteBuffer borrow() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(chunkSize);
+    }
+
+    /**
+     * fsync策略
+     */
+    public enum Sync {
+        /**
+         * 不主动刷盘，由操作系统决定
+         */
+        NONE,
+        /**
+         * 每个文件写完后刷盘
+         */
+        FILE,
+        /**
+         * 每批文件刷盘一次
+         */
+        BATCH,
+        /**
+         * 全部结束时刷盘一次
+         */
+        END;
+
+        public static Sync of(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
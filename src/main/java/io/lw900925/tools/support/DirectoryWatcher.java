@@ -0,0 +1,247 @@
+package io.lw900925.tools.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * 监听文件夹中新到达的文件
+ * <p>
+ * 基于{@link WatchService}监听整个目录树，新建的子文件夹自动加入监听。收到事件的文件先进入等待队列，
+ * 大小和修改时间在一段时间内不再变化后才认为写入完成，避免处理拷贝到一半的文件。
+ * <p>
+ * 操作系统的事件队列溢出时会丢失事件，此时{@link #isOverflowed()}返回true，
+ * 调用方应尽快{@link #reconcile()}重新扫描整个目录树。只在一个线程中使用。
+ *
+ * @author lw900925
+ */
+public class DirectoryWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+    private final Path root;
+    private final long settleNanos;
+    private final Predicate<Path> filter;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private final Map<Path, Candidate> pending = new LinkedHashMap<>();
+    private boolean overflowed;
+
+    private DirectoryWatcher(Path root, long settleMillis, Predicate<Path> filter) throws IOException {
+        this.root = root;
+        this.settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+        this.filter = filter;
+        this.watchService = root.getFileSystem().newWatchService();
+    }
+
+    /**
+     * 开始监听，并扫描一遍目录树中已有的文件
+     *
+     * @param root         监听的文件夹
+     * @param settleMillis 文件大小和修改时间保持不变多少毫秒后认为写入完成
+     * @param filter       返回false的文件不处理
+     */
+    public static DirectoryWatcher open(Path root, long settleMillis, Predicate<Path> filter) throws IOException {
+        DirectoryWatcher watcher = new DirectoryWatcher(root.toAbsolutePath().normalize(), settleMillis, filter);
+        try {
+            watcher.reconcile();
+        } catch (IOException e) {
+            watcher.close();
+            throw e;
+        }
+        return watcher;
+    }
+
+    /**
+     * 等待文件系统事件，返回已经写入完成的文件
+     *
+     * @param timeoutMillis 没有事件时最多等待的毫秒数，有文件等待写入完成时不超过稳定时间的一半
+     * @param limit         最多返回的文件数，其余的留到下一次
+     */
+    public List<Arrival> poll(long timeoutMillis, int limit) throws IOException, InterruptedException {
+        long wait = pending.isEmpty() ? timeoutMillis : Math.min(timeoutMillis, Math.max(1, TimeUnit.NANOSECONDS.toMillis(settleNanos) / 2));
+        WatchKey key = watchService.poll(wait, TimeUnit.MILLISECONDS);
+        while (key != null) {
+            handle(key);
+            key = watchService.poll();
+        }
+        return settled(limit);
+    }
+
+    /**
+     * 重新扫描整个目录树，补上丢失的事件和没有监听到的子文件夹
+     */
+    public void reconcile() throws IOException {
+        overflowed = false;
+        scan(root);
+    }
+
+    /**
+     * 是否丢失过事件，{@link #reconcile()}后重置
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * 根文件夹是否仍在监听，被删除或移走后返回false
+     */
+    public boolean isOpen() {
+        return keys.containsValue(root);
+    }
+
+    /**
+     * 等待写入完成的文件数
+     */
+    public int pending() {
+        return pending.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void handle(WatchKey key) throws IOException {
+        Path directory = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOGGER.warn("Watch events overflowed, directory: {}", directory);
+                overflowed = true;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                pending.remove(path);
+            } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                // 新建的子文件夹在开始监听前可能已经写入了文件
+                scan(path);
+            } else {
+                offer(path, true);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    private void scan(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(root) && !filter.test(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                keys.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    offer(file, false);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // 扫描期间被删除或移走的文件
+                LOGGER.debug("Visit [{}] failed - {}", file, e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @param modified 是否收到了修改事件，修改时间精度较低时仅凭大小和修改时间可能看不出变化
+     */
+    private void offer(Path file, boolean modified) {
+        Candidate candidate = pending.get(file);
+        if (candidate != null) {
+            // 仍在写入，重新计时
+            if (modified) {
+                candidate.changed = System.nanoTime();
+            }
+        } else if (filter.test(file)) {
+            pending.put(file, new Candidate());
+        }
+    }
+
+    private List<Arrival> settled(int limit) throws IOException {
+        List<Arrival> arrivals = new ArrayList<>();
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Path, Candidate>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext() && arrivals.size() < limit) {
+            Map.Entry<Path, Candidate> entry = iterator.next();
+            Candidate candidate = entry.getValue();
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(entry.getKey(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                iterator.remove();
+                continue;
+            }
+            if (attrs.size() != candidate.size || attrs.lastModifiedTime().toMillis() != candidate.modified) {
+                candidate.size = attrs.size();
+                candidate.modified = attrs.lastModifiedTime().toMillis();
+                candidate.changed = now;
+            } else if (now - candidate.changed >= settleNanos) {
+                iterator.remove();
+                arrivals.add(new Arrival(entry.getKey(), attrs, candidate.arrived));
+            }
+        }
+        return arrivals;
+    }
+
+    /**
+     * 等待写入完成的文件
+     */
+    private static class Candidate {
+        private final long arrived = System.nanoTime();
+        private long changed = arrived;
+        private long size = -1;
+        private long modified = -1;
+    }
+
+    /**
+     * 一个写入完成的文件
+     */
+    public static class Arrival {
+        private final Path file;
+        private final BasicFileAttributes attrs;
+        private final long arrived;
+
+        Arrival(Path file, BasicFileAttributes attrs, long arrived) {
+            this.file = file;
+            this.attrs = attrs;
+            this.arrived = arrived;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public BasicFileAttributes getAttrs() {
+            return attrs;
+        }
+
+        /**
+         * 第一次发现该文件时的{@link System#nanoTime()}
+         */
+        public long getArrived() {
+            return arrived;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package io.lw900925.tools.support;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按内容识别重复文件
+ * <p>
+ * 记录已拷贝到目标文件夹的文件，新文件依次经过三级比较，每一级只在上一级相同时才计算：
+ * <ol>
+ *     <li>文件大小，不需要读取内容</li>
+ *     <li>头部和尾部各64KB的哈希</li>
+ *     <li>全文件的SHA-256</li>
+ * </ol>
+ * 计算过的哈希和目标文件一起追加写入存储文件，下次运行时直接使用；目标文件被修改或删除后对应记录失效。
+ * 打开期间持有{@link IndexLock}，同一存储文件同时只能被一个进程打开。
+ *
+ * @author lw900925
+ */
+public class DuplicateDetector implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DuplicateDetector.class);
+
+    private static final int MAGIC = 0x44555045; // DUPE
+    private static final int VERSION = 1;
+
+    private static final int PARTIAL_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int PARTIAL_HASH_LENGTH = 16;
+    private static final int FULL_HASH_LENGTH = 32;
+
+    private static final HashFunction PARTIAL_HASH = Hashing.murmur3_128();
+    private static final HashFunction FULL_HASH = Hashing.sha256();
+
+    private static final int FLAG_PARTIAL = 1;
+    private static final int FLAG_FULL = 2;
+
+    private static final int COMPACT_RATIO = 2;
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    private final Path path;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<Long, List<Entry>> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private final AtomicLong savedBytes = new AtomicLong();
+    private final AtomicInteger partialHashes = new AtomicInteger();
+    private final AtomicInteger fullHashes = new AtomicInteger();
+    private IndexLock lock;
+    private DataOutputStream output;
+    private long records;
+
+    private DuplicateDetector(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * 打开存储文件，不存在时创建
+     *
+     * @throws IOException 存储文件已被其他进程打开
+     */
+    public static DuplicateDetector open(Path path) throws IOException {
+        DuplicateDetector detector = new DuplicateDetector(path);
+        if (path.getParent() != null && Files.notExists(path.getParent())) {
+            Files.createDirectories(path.getParent());
+        }
+        detector.lock = IndexLock.acquire(path, "Duplicate store");
+        try {
+            detector.load();
+        } catch (IOException e) {
+            detector.lock.close();
+            throw e;
+        }
+        return detector;
+    }
+
+    /**
+     * 查找内容相同的已有文件，没有时执行拷贝并记录拷贝出的目标文件
+     * <p>
+     * 同样大小的文件串行处理，保证并行拷贝时两个相同的文件不会都被拷贝。
+     *
+     * @param source 源文件
+     * @param attrs  源文件属性
+     * @param copier 拷贝源文件，返回目标文件
+     * @return 内容相同的已有文件，没有时返回null
+     */
+    public Path findOrCopy(Path source, BasicFileAttributes attrs, Copier copier) throws IOException {
+        long size = attrs.size();
+        if (size == 0) {
+            copier.copy();
+            return null;
+        }
+
+        List<Entry> bucket = buckets.computeIfAbsent(size, key -> new ArrayList<>());
+        synchronized (bucket) {
+            Entry candidate = new Entry(null, size, 0, null, null);
+            Iterator<Entry> iterator = bucket.iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                Path file = Paths.get(entry.path);
+                if (!isValid(entry, file)) {
+                    iterator.remove();
+                    entries.remove(entry.path, entry);
+                    continue;
+                }
+                if (!Arrays.equals(partialHash(entry, file), partialHash(candidate, source))) {
+                    continue;
+                }
+                // 头部和尾部已经覆盖整个文件
+                if (size <= PARTIAL_SIZE * 2 || Arrays.equals(fullHash(entry, file), fullHash(candidate, source))) {
+                    duplicates.incrementAndGet();
+                    savedBytes.addAndGet(size);
+                    return file;
+                }
+            }
+
+            Path target = copier.copy();
+            BasicFileAttributes targetAttrs = Files.readAttributes(target, BasicFileAttributes.class);
+            Entry entry = new Entry(key(target), size, targetAttrs.lastModifiedTime().toMillis(), candidate.partialHash, candidate.fullHash);
+            bucket.add(entry);
+            put(entry);
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            output.close();
+            LOGGER.info("Duplicate detector {} - entries: {}, duplicates: {}, saved: {} bytes, partial hashes: {}, full hashes: {}",
+                    path, entries.size(), duplicates, savedBytes, partialHashes, fullHashes);
+            if (records > (long) entries.size() * COMPACT_RATIO && records > COMPACT_THRESHOLD) {
+                compact();
+            }
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * 只保留每个文件的最新记录，丢弃目标文件已不存在的记录
+     */
+    public synchronized void compact() throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        int removed = 0;
+        try (DataOutputStream compacted = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            compacted.writeInt(MAGIC);
+            compacted.writeInt(VERSION);
+            for (Entry entry : entries.values()) {
+                if (Files.notExists(Paths.get(entry.path))) {
+                    removed++;
+                    continue;
+                }
+                write(compacted, entry);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Duplicate detector {} compacted from {} to {} records.", path, records, entries.size() - removed);
+        records = entries.size() - removed;
+    }
+
+    private boolean isValid(Entry entry, Path file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            return attrs.size() == entry.size && attrs.lastModifiedTime().toMillis() == entry.modifiedTime;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private byte[] partialHash(Entry entry, Path file) throws IOException {
+        if (entry.partialHash == null) {
+            Hasher hasher = PARTIAL_HASH.newHasher().putLong(entry.size);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(PARTIAL_SIZE);
+                hash(channel, buffer, 0, Math.min(PARTIAL_SIZE, entry.size), hasher);
+                if (entry.size > PARTIAL_SIZE) {
+                    long tail = Math.max(PARTIAL_SIZE, entry.size - PARTIAL_SIZE);
+                    hash(channel, buffer, tail, entry.size - tail, hasher);
+                }
+            }
+            entry.partialHash = hasher.hash().asBytes();
+            partialHashes.incrementAndGet();
+            if (entry.path != null) {
+                put(entry);
+            }
+        }
+        return entry.partialHash;
+    }
+
+    private byte[] fullHash(Entry entry, Path file) throws IOException {
+        if (entry.fullHash == null) {
+            Hasher hasher = FULL_HASH.newHasher();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                hash(channel, ByteBuffer.allocate(BUFFER_SIZE), 0, entry.size, hasher);
+            }
+            entry.fullHash = hasher.hash().asBytes();
+            fullHashes.incrementAndGet();
+            if (entry.path != null) {
+                put(entry);
+            }
+        }
+        return entry.fullHash;
+    }
+
+    private static void hash(FileChannel channel, ByteBuffer buffer, long position, long length, Hasher hasher) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at " + position);
+            }
+            buffer.flip();
+            hasher.putBytes(buffer);
+            position += read;
+        }
+    }
+
+    private void put(Entry entry) throws IOException {
+        entries.put(entry.path, entry);
+        synchronized (this) {
+            write(output, entry);
+            records++;
+        }
+    }
+
+    private void load() throws IOException {
+        long validLength = 0;
+        if (Files.exists(path)) {
+            try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(Files.newInputStream(path)));
+                 DataInputStream input = new DataInputStream(counting)) {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    throw new IOException("Unsupported duplicate store " + path);
+                }
+                validLength = counting.getCount();
+                while (true) {
+                    Entry entry = read(input);
+                    entries.put(entry.path, entry);
+                    records++;
+                    validLength = counting.getCount();
+                }
+            } catch (EOFException | UTFDataFormatException e) {
+                // 读到末尾，或者上次写入时中断留下的不完整记录
+            }
+        }
+        entries.values().forEach(entry -> buckets.computeIfAbsent(entry.size, key -> new ArrayList<>()).add(entry));
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // 截掉末尾不完整的记录
+        channel.truncate(validLength);
+        channel.position(validLength);
+        output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        if (validLength == 0) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+        }
+        LOGGER.debug("Duplicate detector {} loaded, entries: {}, records: {}", path, entries.size(), records);
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static void write(DataOutputStream output, Entry entry) throws IOException {
+        output.writeUTF(entry.path);
+        output.writeLong(entry.size);
+        output.writeLong(entry.modifiedTime);
+        byte[] partialHash = entry.partialHash;
+        byte[] fullHash = entry.fullHash;
+        output.writeByte((partialHash != null ? FLAG_PARTIAL : 0) | (fullHash != null ? FLAG_FULL : 0));
+        if (partialHash != null) {
+            output.write(partialHash);
+        }
+        if (fullHash != null) {
+            output.write(fullHash);
+        }
+    }
+
+    private static Entry read(DataInputStream input) throws IOException {
+        String path = input.readUTF();
+        long size = input.readLong();
+        long modifiedTime = input.readLong();
+        int flags = input.readUnsignedByte();
+        byte[] partialHash = null;
+        byte[] fullHash = null;
+        if ((flags & FLAG_PARTIAL) != 0) {
+            partialHash = new byte[PARTIAL_HASH_LENGTH];
+            input.readFully(partialHash);
+        }
+        if ((flags & FLAG_FULL) != 0) {
+            fullHash = new byte[FULL_HASH_LENGTH];
+            input.readFully(fullHash);
+        }
+        return new Entry(path, size, modifiedTime, partialHash, fullHash);
+    }
+
+    /**
+     * 重复文件的处理方式
+     */
+    public enum Action {
+        /**
+         * 不检测重复
+         */
+        NONE,
+        /**
+         * 跳过重复文件
+         */
+        SKIP,
+        /**
+         * 在目标位置创建指向已有文件的硬链接
+         */
+        LINK;
+
+        public static Action of(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * 拷贝源文件
+     */
+    @FunctionalInterface
+    public interface Copier {
+        Path copy() throws IOException;
+    }
+
+    /**
+     * 已拷贝的文件，哈希在第一次需要时计算
+     */
+    private static class Entry {
+        private final String path;
+        private final long size;
+        private final long modifiedTime;
+        private byte[] partialHash;
+        private byte[] fullHash;
+
+        Entry(String path, long size, long modifiedTime, byte[] partialHash, byte[] fullHash) {
+            this.path = path;
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.partialHash = partialHash;
+            this.fullHash = fullHash;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package io.lw900925.tools.support;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 外部排序
+ * <p>
+ * 条目先在内存中累积，超过阈值时排序后写入临时文件；遍历时对所有临时文件和内存中的条目做多路归并。
+ * 内存占用不超过阈值条目数加上每个临时文件一个条目。
+ *
+ * @param <T> 条目类型
+ * @author lw900925
+ */
+public class ExternalSorter<T> implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Comparator<? super T> comparator;
+    private final Codec<T> codec;
+    private final int threshold;
+    private final Path directory;
+    private final List<T> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private long size;
+
+    /**
+     * @param comparator 排序规则
+     * @param codec      条目的序列化方式
+     * @param threshold  内存中最多保留的条目数
+     * @param directory  临时文件所在文件夹
+     */
+    public ExternalSorter(Comparator<? super T> comparator, Codec<T> codec, int threshold, Path directory) {
+        this.comparator = comparator;
+        this.codec = codec;
+        this.threshold = Math.max(1, threshold);
+        this.directory = directory;
+    }
+
+    public synchronized void add(T item) throws IOException {
+        buffer.add(item);
+        size++;
+        if (buffer.size() >= threshold) {
+            spill();
+        }
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * 写入临时文件的次数
+     */
+    public synchronized int spills() {
+        return runs.size();
+    }
+
+    /**
+     * 按顺序遍历所有条目
+     */
+    public synchronized void forEach(Consumer<? super T> consumer) throws IOException {
+        buffer.sort(comparator);
+        if (runs.isEmpty()) {
+            for (T item : buffer) {
+                consumer.accept(item);
+            }
+            return;
+        }
+
+        List<Cursor<T>> cursors = new ArrayList<>();
+        try {
+            PriorityQueue<Cursor<T>> queue = new PriorityQueue<>((a, b) -> comparator.compare(a.head, b.head));
+            for (Path run : runs) {
+                Cursor<T> cursor = new RunCursor<>(run, codec);
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+            Cursor<T> memory = new ListCursor<>(buffer.iterator());
+            if (memory.advance()) {
+                queue.add(memory);
+            }
+            while (!queue.isEmpty()) {
+                Cursor<T> cursor = queue.poll();
+                consumer.accept(cursor.head);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        } finally {
+            for (Cursor<T> cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * 删除临时文件
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(comparator);
+        if (Files.notExists(directory)) {
+            Files.createDirectories(directory);
+        }
+        Path run = Files.createTempFile(directory, "sort-", ".run");
+        runs.add(run);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE))) {
+            output.writeInt(buffer.size());
+            for (T item : buffer) {
+                codec.write(output, item);
+            }
+        }
+        buffer.clear();
+    }
+
+    /**
+     * 条目的序列化方式
+     */
+    public interface Codec<T> {
+        void write(DataOutput output, T item) throws IOException;
+
+        T read(DataInput input) throws IOException;
+    }
+
+    /**
+     * 遍历回调
+     */
+    @FunctionalInterface
+    public interface Consumer<T> {
+        void accept(T item) throws IOException;
+    }
+
+    private abstract static class Cursor<T> implements Closeable {
+        T head;
+
+        abstract boolean advance() throws IOException;
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static class ListCursor<T> extends Cursor<T> {
+        private final Iterator<T> iterator;
+
+        ListCursor(Iterator<T> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            head = iterator.next();
+            return true;
+        }
+    }
+
+    private static class RunCursor<T> extends Cursor<T> {
+        private final DataInputStream input;
+        private final Codec<T> codec;
+        private int remaining;
+
+        RunCursor(Path run, Codec<T> codec) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE));
+            this.codec = codec;
+            this.remaining = input.readInt();
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            head = codec.read(input);
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package io.lw900925.tools.support;
+
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 把文件放到目标位置
+ * <p>
+ * 同一文件系统内移动、硬链接和reflink都不需要复制数据，跨文件系统或者文件系统不支持时
+ * 回退为通过{@link CopyEngine}拷贝。
+ *
+ * @author lw900925
+ */
+public final class FileTransfer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileTransfer.class);
+
+    private static final boolean MAC_OS = System.getProperty("os.name").toLowerCase(Locale.ROOT).contains("mac");
+    private static final boolean WINDOWS = System.getProperty("os.name").toLowerCase(Locale.ROOT).contains("windows");
+
+    /**
+     * (源文件系统, 目标文件系统) 是否支持reflink，同一文件系统只在探测后记录为不支持
+     */
+    private static final Map<List<FileStore>, Boolean> REFLINK = new ConcurrentHashMap<>();
+
+    /**
+     * 文件夹所在的文件系统，{@link Files#getFileStore}每次都要读取挂载表
+     */
+    private static final Map<Path, FileStore> STORES = new ConcurrentHashMap<>();
+
+    private FileTransfer() {
+    }
+
+    /**
+     * 把source放到target，target已存在时抛出{@link FileAlreadyExistsException}
+     *
+     * @return 实际使用的方式
+     */
+    public static Mode transfer(Path source, Path target, Mode mode, CopyEngine engine) throws IOException {
+        switch (mode) {
+            case MOVE:
+                // 原子重命名时目标已存在的行为取决于操作系统，这里统一为失败
+                if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+                    throw new FileAlreadyExistsException(target.toString());
+                }
+                try {
+                    Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+                    return Mode.MOVE;
+                } catch (AtomicMoveNotSupportedException e) {
+                    // 跨文件系统，拷贝后删除源文件
+                    engine.copy(source, target);
+                    Files.delete(source);
+                    return Mode.COPY;
+                }
+            case HARDLINK:
+                try {
+                    Files.createLink(target, source);
+                    return Mode.HARDLINK;
+                } catch (FileAlreadyExistsException e) {
+                    throw e;
+                } catch (UnsupportedOperationException | FileSystemException e) {
+                    LOGGER.debug("Create link [{}] failed, fallback to copy - {}", target, e.getMessage());
+                }
+                break;
+            case REFLINK:
+                if (reflink(source, target)) {
+                    return Mode.REFLINK;
+                }
+                break;
+            default:
+                break;
+        }
+        engine.copy(source, target);
+        return Mode.COPY;
+    }
+
+    /**
+     * JDK没有提供reflink，通过 cp --reflink=always (macOS上为 cp -c) 完成
+     * <p>
+     * 跨文件系统不可能reflink，直接回退；同一文件系统内失败时用一个小文件探测，
+     * 确认不支持后这一对文件系统不再尝试，其他原因(权限、空间不足等)的失败只回退当前文件。
+     * cp 写入目标文件夹中的临时文件，再用硬链接原子地放到目标位置，目标已存在时失败，不会覆盖别人刚写入的文件。
+     *
+     * @return 不支持reflink或需要回退为拷贝时返回false
+     */
+    private static boolean reflink(Path source, Path target) throws IOException {
+        if (WINDOWS) {
+            return false;
+        }
+        List<FileStore> stores = Arrays.asList(store(source.toAbsolutePath().getParent()), store(target.toAbsolutePath().getParent()));
+        if (Boolean.FALSE.equals(REFLINK.get(stores))) {
+            return false;
+        }
+        if (!stores.get(0).equals(stores.get(1))) {
+            REFLINK.put(stores, false);
+            LOGGER.info("Reflink between [{}] and [{}] is not possible, fallback to copy.", stores.get(0), stores.get(1));
+            return false;
+        }
+
+        Path temp = target.resolveSibling("." + target.getFileName() + "." + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE) + ".reflink");
+        try {
+            String output = cp(source, temp);
+            if (output != null) {
+                if (!REFLINK.containsKey(stores)) {
+                    probe(stores, target.getParent());
+                }
+                LOGGER.debug("Reflink [{}] failed, fallback to copy - {}", target, output);
+                return false;
+            }
+            Files.createLink(target, temp);
+            REFLINK.putIfAbsent(stores, true);
+            return true;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * 在目标文件夹中reflink一个小文件，确认文件系统是否支持
+     */
+    private static void probe(List<FileStore> stores, Path directory) throws IOException {
+        Path probe = Files.createTempFile(directory, ".reflink-probe", ".tmp");
+        Path clone = probe.resolveSibling(probe.getFileName() + ".clone");
+        try {
+            Files.write(probe, new byte[]{0});
+            String output = cp(probe, clone);
+            REFLINK.putIfAbsent(stores, output == null);
+            if (output != null) {
+                LOGGER.warn("File store [{}] does not support reflink, fallback to copy - {}", stores.get(1), output);
+            }
+        } finally {
+            Files.deleteIfExists(clone);
+            Files.delete(probe);
+        }
+    }
+
+    /**
+     * @return 成功时返回null，失败时返回cp的输出
+     */
+    private static String cp(Path source, Path target) throws IOException {
+        ProcessBuilder builder = MAC_OS
+                ? new ProcessBuilder("cp", "-c", source.toString(), target.toString())
+                : new ProcessBuilder("cp", "--reflink=always", "--", source.toString(), target.toString());
+        Process process = builder.redirectErrorStream(true).start();
+        try {
+            String output;
+            try (InputStream input = process.getInputStream()) {
+                output = new String(ByteStreams.toByteArray(input), StandardCharsets.UTF_8).trim();
+            }
+            return process.waitFor() == 0 ? null : output;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            process.destroy();
+            throw new IOException("Reflink interrupted " + source, e);
+        }
+    }
+
+    private static FileStore store(Path directory) throws IOException {
+        FileStore store = STORES.get(directory);
+        if (store == null) {
+            store = Files.getFileStore(directory);
+            STORES.putIfAbsent(directory, store);
+        }
+        return store;
+    }
+
+    /**
+     * 放置方式
+     */
+    public enum Mode {
+        /**
+         * 拷贝文件内容
+         */
+        COPY,
+        /**
+         * 移动，同一文件系统内为原子重命名
+         */
+        MOVE,
+        /**
+         * 硬链接
+         */
+        HARDLINK,
+        /**
+         * 写时复制(Btrfs、XFS、APFS等)
+         */
+        REFLINK;
+
+        public static Mode of(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+}
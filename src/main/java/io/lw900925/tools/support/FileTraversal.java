@@ -0,0 +1,143 @@
+package io.lw900925.tools.support;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单次遍历的文件树引擎
+ * <p>
+ * 每个目录只枚举一次，枚举到的文件立即交给访问者处理，不再为了统计总数预先遍历一遍。
+ * 进度按已发现的文件数计算，遍历结束前总数带"+"表示仍在增长。
+ * 同一时刻最多只打开一个{@link DirectoryStream}，处理完立即关闭。
+ * 隐藏文件夹(例如缩略图文件夹 .thumbnails)不属于整理的文件，不进入遍历。
+ *
+ * @author lw900925
+ */
+public final class FileTraversal {
+
+    private FileTraversal() {
+    }
+
+    /**
+     * 深度优先遍历目录下的所有文件(不包括目录)，跳过根目录下的隐藏文件夹
+     */
+    public static Progress walk(Path root, Visitor visitor) throws IOException {
+        Progress progress = new Progress();
+        BasicFileAttributes rootAttrs = Files.readAttributes(root, BasicFileAttributes.class);
+        if (!rootAttrs.isDirectory()) {
+            progress.discovered.incrementAndGet();
+            progress.complete = true;
+            visitor.visit(root, rootAttrs, progress);
+            return progress;
+        }
+
+        Deque<Path> directories = new ArrayDeque<>();
+        directories.push(root);
+        while (!directories.isEmpty()) {
+            List<Path> children = new ArrayList<>();
+            boolean proceed = true;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directories.pop())) {
+                for (Path entry : stream) {
+                    BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isDirectory()) {
+                        if (!isHidden(entry)) {
+                            children.add(entry);
+                        }
+                        continue;
+                    }
+                    progress.discovered.incrementAndGet();
+                    if (!visitor.visit(entry, attrs, progress)) {
+                        proceed = false;
+                        break;
+                    }
+                }
+            }
+            if (!proceed) {
+                break;
+            }
+            // 逆序入栈，保证子目录按枚举顺序处理
+            for (int i = children.size() - 1; i >= 0; i--) {
+                directories.push(children.get(i));
+            }
+        }
+        progress.complete = true;
+        return progress;
+    }
+
+    /**
+     * 遍历目录的直接子项(包括目录)
+     */
+    public static Progress list(Path directory, Visitor visitor) throws IOException {
+        Progress progress = new Progress();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                progress.discovered.incrementAndGet();
+                if (!visitor.visit(entry, Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS), progress)) {
+                    break;
+                }
+            }
+        }
+        progress.complete = true;
+        return progress;
+    }
+
+    /**
+     * 名称以"."开头的文件或文件夹
+     */
+    public static boolean isHidden(Path path) {
+        Path name = path.getFileName();
+        return name != null && name.toString().startsWith(".");
+    }
+
+    /**
+     * 文件访问者
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * @return 返回false时停止遍历
+         */
+        boolean visit(Path file, BasicFileAttributes attrs, Progress progress) throws IOException;
+    }
+
+    /**
+     * 遍历进度，可以在多个线程中使用
+     */
+    public static class Progress {
+        private final AtomicLong discovered = new AtomicLong();
+        private final AtomicInteger index = new AtomicInteger(1);
+        private volatile boolean complete;
+
+        /**
+         * 处理完一个文件，返回它的序号
+         */
+        public int next() {
+            return index.getAndIncrement();
+        }
+
+        /**
+         * 当前已知的总数，遍历未结束时带"+"
+         */
+        public String total() {
+            return complete ? String.valueOf(discovered.get()) : discovered.get() + "+";
+        }
+
+        public long discovered() {
+            return discovered.get();
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+}
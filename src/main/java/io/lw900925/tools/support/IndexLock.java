@@ -0,0 +1,64 @@
+package io.lw900925.tools.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 索引文件的独占锁
+ * <p>
+ * 只追加写入的索引在关闭时会压缩重写，两个进程同时打开同一个索引时，先关闭的进程压缩后会丢掉另一个进程追加的记录。
+ * 打开索引前先锁住旁边的 .lock 文件，已被其他进程(或本进程中的另一个实例)打开时直接失败，不等待。
+ * 锁在 .lock 文件上而不是索引文件上，压缩时替换索引文件不影响锁。
+ *
+ * @author lw900925
+ */
+public class IndexLock implements Closeable {
+
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private IndexLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * 锁住索引文件，索引文件所在的文件夹必须已经存在
+     *
+     * @param file 索引文件
+     * @param name 索引名称，用于错误信息
+     */
+    public static IndexLock acquire(Path file, String name) throws IOException {
+        Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException(String.format("%s %s is in use by another process, wait for it to finish (lock file: %s)",
+                    name, file, lockFile));
+        }
+        return new IndexLock(channel, lock);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.release();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package io.lw900925.tools.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按设备限制并发的I/O调度
+ * <p>
+ * 每个路径按所在的{@link FileStore}归到一个设备，每个设备有各自的并发上限和等待队列：
+ * <ul>
+ *     <li>机械盘默认同时只有一个读写，等待的操作按 文件夹+inode 以电梯顺序放行，尽量顺序读取，减少寻道</li>
+ *     <li>固态盘并发上限更高，等待的操作按到达顺序放行</li>
+ * </ul>
+ * 一次拷贝同时占用源设备和目标设备，按设备编号顺序获取，多个线程之间不会死锁。
+ * <p>
+ * Linux上根据 /sys/class/block/&lt;设备&gt;/queue/rotational 判断是否为机械盘；NFS、SMB等网络文件系统
+ * 视为机械盘(通常是NAS上的机械盘)；其他系统上无法判断时视为固态盘，可以通过配置的路径前缀指定机械盘。
+ * 可以在多个线程中使用。
+ *
+ * @author lw900925
+ */
+public class IoScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IoScheduler.class);
+
+    private static final Set<String> NETWORK_TYPES = new HashSet<>(Arrays.asList(
+            "nfs", "nfs4", "cifs", "smb3", "smbfs", "afpfs", "webdav", "fuse.sshfs"));
+
+    private static final Path SYS_BLOCK = Paths.get("/sys/class/block");
+
+    private final int rotationalInFlight;
+    private final int solidStateInFlight;
+    private final List<Path> rotationalPaths = new ArrayList<>();
+    private final Map<Path, Device> directories = new ConcurrentHashMap<>();
+    private final Map<FileStore, Device> devices = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final long startTime = System.nanoTime();
+
+    /**
+     * @param rotationalInFlight 机械盘同时进行的读写数
+     * @param solidStateInFlight 固态盘同时进行的读写数
+     * @param rotationalPaths    视为机械盘的路径前缀，用于无法自动判断的设备
+     */
+    public IoScheduler(int rotationalInFlight, int solidStateInFlight, Collection<String> rotationalPaths) {
+        this.rotationalInFlight = Math.max(1, rotationalInFlight);
+        this.solidStateInFlight = Math.max(1, solidStateInFlight);
+        for (String path : rotationalPaths) {
+            this.rotationalPaths.add(Paths.get(path).toAbsolutePath().normalize());
+        }
+    }
+
+    /**
+     * 等待源设备和目标设备都有空闲后开始一次拷贝
+     *
+     * @param source 读取的文件
+     * @param target 写入的文件，所在文件夹必须已经存在
+     * @return 拷贝结束后关闭，释放占用的设备
+     */
+    public Lease acquire(Path source, Path target) throws IOException {
+        Path sourceDirectory = directory(source);
+        Path targetDirectory = directory(target);
+        Device sourceDevice = device(sourceDirectory);
+        Device targetDevice = device(targetDirectory);
+        // 只有机械盘上需要inode排序，固态盘上省去一次stat
+        Request read = new Request(sourceDevice, sourceDirectory.toString(), sourceDevice.rotational ? inode(source) : 0);
+        if (sourceDevice == targetDevice) {
+            return new Lease(read);
+        }
+        Request write = new Request(targetDevice, targetDirectory.toString(), 0);
+        // 按设备编号顺序获取
+        return sourceDevice.id < targetDevice.id ? new Lease(read, write) : new Lease(write, read);
+    }
+
+    /**
+     * 每个用到的设备的利用率：至少有一个读写进行中的时间占运行时间的比例
+     */
+    public List<String> report() {
+        double elapsed = Math.max(System.nanoTime() - startTime, 1);
+        List<Device> used = new ArrayList<>(devices.values());
+        used.sort(Comparator.comparingInt(device -> device.id));
+        List<String> lines = new ArrayList<>();
+        for (Device device : used) {
+            synchronized (device) {
+                long busy = device.busyNanos + (device.active > 0 ? System.nanoTime() - device.busySince : 0);
+                lines.add(String.format("%s (%s, %s, in-flight %d) - operations: %d, utilization: %.1f%%, wait: %d ms, max queue: %d",
+                        device.name, device.type, device.rotational ? "rotational" : "solid-state", device.limit,
+                        device.operations, busy * 100 / elapsed, TimeUnit.NANOSECONDS.toMillis(device.waitNanos), device.maxQueue));
+            }
+        }
+        return lines;
+    }
+
+    private static Path directory(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        return absolute.getParent() != null ? absolute.getParent() : absolute;
+    }
+
+    /**
+     * 同一文件夹下的文件一定在同一设备上，只在第一次遇到文件夹时查找{@link FileStore}
+     */
+    private Device device(Path directory) throws IOException {
+        Device device = directories.get(directory);
+        if (device != null) {
+            return device;
+        }
+        FileStore store = store(directory);
+        device = devices.computeIfAbsent(store, key -> {
+            boolean rotational = isRotational(key, directory);
+            Device created = new Device(ids.incrementAndGet(), key.name(), key.type(), rotational,
+                    rotational ? rotationalInFlight : solidStateInFlight);
+            LOGGER.debug("Device {} ({}) - {}, in-flight: {}", created.name, created.type,
+                    rotational ? "rotational" : "solid-state", created.limit);
+            return created;
+        });
+        directories.put(directory, device);
+        return device;
+    }
+
+    /**
+     * 文件夹还不存在时使用最近的已存在的上级文件夹
+     */
+    private static FileStore store(Path directory) throws IOException {
+        Path path = directory;
+        while (true) {
+            try {
+                return Files.getFileStore(path);
+            } catch (NoSuchFileException e) {
+                if (path.getParent() == null) {
+                    throw e;
+                }
+                path = path.getParent();
+            }
+        }
+    }
+
+    private boolean isRotational(FileStore store, Path directory) {
+        for (Path path : rotationalPaths) {
+            if (directory.startsWith(path)) {
+                return true;
+            }
+        }
+        if (NETWORK_TYPES.contains(store.type().toLowerCase(Locale.ROOT))) {
+            return true;
+        }
+        return isRotationalBlockDevice(store.name());
+    }
+
+    /**
+     * Linux上读取块设备的rotational标志，分区没有该文件时读取所在磁盘的
+     */
+    private static boolean isRotationalBlockDevice(String name) {
+        if (!name.startsWith("/dev/") || Files.notExists(SYS_BLOCK)) {
+            return false;
+        }
+        try {
+            // /dev/mapper/xxx 等符号链接指向实际的设备，例如 /dev/dm-0
+            Path block = SYS_BLOCK.resolve(Paths.get(name).toRealPath().getFileName().toString()).toRealPath();
+            Path flag = block.resolve("queue/rotational");
+            if (Files.notExists(flag)) {
+                flag = block.getParent().resolve("queue/rotational");
+            }
+            return Files.exists(flag) && new String(Files.readAllBytes(flag), StandardCharsets.US_ASCII).trim().equals("1");
+        } catch (IOException e) {
+            LOGGER.trace("Detect rotational [{}] failed - {}", name, e.getMessage());
+            return false;
+        }
+    }
+
+    private static long inode(Path file) {
+        try {
+            return Plan.inode(Files.readAttributes(file, BasicFileAttributes.class));
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 一次拷贝占用的设备
+     */
+    public static class Lease implements Closeable {
+        private final Request[] requests;
+        private int acquired;
+
+        private Lease(Request... requests) throws InterruptedIOException {
+            this.requests = requests;
+            try {
+                for (Request request : requests) {
+                    request.device.acquire(request);
+                    acquired++;
+                }
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("I/O scheduling interrupted");
+            }
+        }
+
+        @Override
+        public void close() {
+            for (int i = acquired - 1; i >= 0; i--) {
+                requests[i].device.release();
+            }
+            acquired = 0;
+        }
+    }
+
+    /**
+     * 一个设备上的读写请求，机械盘上按 文件夹+inode 排序
+     */
+    private static class Request implements Comparable<Request> {
+        private final Device device;
+        private final String directory;
+        private final long inode;
+        private long sequence;
+        private boolean granted;
+
+        Request(Device device, String directory, long inode) {
+            this.device = device;
+            this.directory = device.rotational ? directory : "";
+            this.inode = device.rotational ? inode : 0;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            int result = directory.compareTo(other.directory);
+            if (result == 0) {
+                result = Long.compare(inode, other.inode);
+            }
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * 一个设备的并发许可和等待队列
+     */
+    private static class Device {
+        private final int id;
+        private final String name;
+        private final String type;
+        private final boolean rotational;
+        private final int limit;
+        private final TreeSet<Request> waiting = new TreeSet<>();
+        private Request last;
+        private long sequence;
+        private int active;
+        private long busySince;
+        private long busyNanos;
+        private long waitNanos;
+        private long operations;
+        private int maxQueue;
+
+        Device(int id, String name, String type, boolean rotational, int limit) {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+            this.rotational = rotational;
+            this.limit = limit;
+        }
+
+        synchronized void acquire(Request request) throws InterruptedException {
+            request.sequence = sequence++;
+            if (active < limit && waiting.isEmpty()) {
+                start(request);
+                return;
+            }
+            long start = System.nanoTime();
+            waiting.add(request);
+            maxQueue = Math.max(maxQueue, waiting.size());
+            try {
+                while (!request.granted) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                if (request.granted) {
+                    release();
+                } else {
+                    waiting.remove(request);
+                }
+                throw e;
+            } finally {
+                waitNanos += System.nanoTime() - start;
+            }
+        }
+
+        synchronized void release() {
+            active--;
+            if (active == 0) {
+                busyNanos += System.nanoTime() - busySince;
+            }
+            if (!waiting.isEmpty()) {
+                // 电梯顺序：从上一次的位置继续向后，到末尾后回到开头
+                Request next = last == null ? null : waiting.ceiling(last);
+                if (next == null) {
+                    next = waiting.first();
+                }
+                waiting.remove(next);
+                next.granted = true;
+                start(next);
+                notifyAll();
+            }
+        }
+
+        private void start(Request request) {
+            if (active == 0) {
+                busySince = System.nanoTime();
+            }
+            active++;
+            operations++;
+            last = request;
+        }
+    }
+}
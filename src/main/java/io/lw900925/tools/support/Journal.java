@@ -0,0 +1,259 @@
+package io.lw900925.tools.support;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.MoreFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批处理的运行日志
+ * <p>
+ * 写入目标文件之前先追加一条 源文件→目标文件 的意图记录并刷盘，处理完成后追加完成记录，
+ * 处理失败的文件记录失败原因后继续处理下一个。完成记录按批次刷盘：每{@value #SYNC_BATCH}条或距上次刷盘超过
+ * {@value #SYNC_INTERVAL}毫秒时执行一次fsync。
+ * <p>
+ * 以 --resume 重新运行同样的命令时，先调用{@link #recover()}处理上次中断时只有意图记录的文件：
+ * 目标文件与源文件内容一致时补记完成，否则删除写了一半的目标文件，重新处理时使用同一个目标文件名。
+ * 之后已完成的文件直接跳过，不再读取；失败的文件重新处理。
+ *
+ * @author lw900925
+ */
+public class Journal implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Journal.class);
+
+    private static final int MAGIC = 0x4a524e4c; // JRNL
+    private static final int VERSION = 1;
+
+    private static final byte COMPLETED = 'C';
+    private static final byte FAILED = 'F';
+    private static final byte INTENDED = 'I';
+
+    private static final int SYNC_BATCH = 100;
+    private static final long SYNC_INTERVAL = 1000;
+
+    /**
+     * 失败原因最多保留的字符数
+     */
+    private static final int MAX_MESSAGE_LENGTH = 1024;
+
+    private final Path path;
+    private final Map<String, Boolean> entries = new ConcurrentHashMap<>();
+    /**
+     * 上次运行中只有意图记录的文件，源文件→目标文件
+     */
+    private final Map<String, String> pending = new LinkedHashMap<>();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private int completed;
+    private int failed;
+    private FileChannel channel;
+    private DataOutputStream output;
+    private int unsynced;
+    private long lastSync = System.currentTimeMillis();
+
+    private Journal(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * 打开日志文件
+     *
+     * @param path   日志文件
+     * @param resume 是否接着上次的进度，否则清空已有记录
+     */
+    public static Journal open(Path path, boolean resume) throws IOException {
+        Journal journal = new Journal(path);
+        if (path.getParent() != null && Files.notExists(path.getParent())) {
+            Files.createDirectories(path.getParent());
+        }
+        if (!resume) {
+            Files.deleteIfExists(path);
+        }
+        journal.load();
+        return journal;
+    }
+
+    /**
+     * 同一命令、源文件夹、目标文件夹对应同一个日志文件
+     */
+    public static Path resolve(String directory, String command, String source, String target) {
+        String key = Paths.get(source).toAbsolutePath().normalize() + "\0" + Paths.get(target).toAbsolutePath().normalize();
+        String hash = Hashing.murmur3_128().hashString(key, StandardCharsets.UTF_8).toString().substring(0, 16);
+        return Paths.get(directory, command + "-" + hash + ".journal");
+    }
+
+    /**
+     * 上次运行中是否已经处理完成，已完成时计入跳过数
+     */
+    public boolean isCompleted(Path source) {
+        if (Boolean.TRUE.equals(entries.get(key(source)))) {
+            skipped.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 是否已经处理完成，不计入跳过数，用于反复检查同一文件的场景
+     */
+    public boolean contains(Path source) {
+        return Boolean.TRUE.equals(entries.get(key(source)));
+    }
+
+    /**
+     * 记录即将写入的目标文件，调用方写完一批意图记录后调用{@link #sync()}，再开始写入目标文件
+     */
+    public synchronized void intended(Path source, Path target) throws IOException {
+        write(INTENDED, key(source), key(target));
+    }
+
+    /**
+     * 处理上次中断时只有意图记录的文件，只检查意图记录中的那一个目标文件：
+     * <ul>
+     *     <li>目标文件不存在：没有开始写入，重新处理</li>
+     *     <li>目标文件与源文件大小、内容一致，或者源文件已被移走：保留目标文件，补记完成</li>
+     *     <li>其他情况：目标文件写了一半，删除后重新处理，重新计划时得到同一个目标文件名</li>
+     * </ul>
+     *
+     * @return 补记完成的文件数
+     */
+    public int recover() throws IOException {
+        int kept = 0;
+        int removed = 0;
+        for (Map.Entry<String, String> entry : pending.entrySet()) {
+            Path source = Paths.get(entry.getKey());
+            Path target = Paths.get(entry.getValue());
+            if (Files.notExists(target, LinkOption.NOFOLLOW_LINKS)) {
+                continue;
+            }
+            if (Files.notExists(source) || sameContent(source, target)) {
+                completed(source, target);
+                kept++;
+            } else {
+                Files.delete(target);
+                removed++;
+                LOGGER.warn("Incomplete target [{}] of {} removed", target, source);
+            }
+        }
+        pending.clear();
+        sync();
+        if (kept > 0 || removed > 0) {
+            LOGGER.info("Journal {} recovered, kept: {}, removed: {}", path, kept, removed);
+        }
+        return kept;
+    }
+
+    public void completed(Path source, Path target) throws IOException {
+        String key = key(source);
+        entries.put(key, Boolean.TRUE);
+        synchronized (this) {
+            write(COMPLETED, key, target == null ? "" : key(target));
+            completed++;
+        }
+    }
+
+    public void failed(Path source, Throwable cause) throws IOException {
+        String key = key(source);
+        entries.put(key, Boolean.FALSE);
+        String message = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName();
+        if (message.length() > MAX_MESSAGE_LENGTH) {
+            message = message.substring(0, MAX_MESSAGE_LENGTH);
+        }
+        synchronized (this) {
+            write(FAILED, key, message);
+            failed++;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            output.close();
+        }
+        LOGGER.info("Journal {} - completed: {}, failed: {}, skipped: {}", path, completed, failed, skipped);
+    }
+
+    private void write(byte type, String source, String detail) throws IOException {
+        output.writeByte(type);
+        output.writeUTF(source);
+        output.writeUTF(detail);
+        unsynced++;
+        if (unsynced >= SYNC_BATCH || System.currentTimeMillis() - lastSync >= SYNC_INTERVAL) {
+            sync();
+        }
+    }
+
+    /**
+     * 立即刷盘，长时间运行的命令在每一批处理完后调用
+     */
+    public synchronized void sync() throws IOException {
+        output.flush();
+        channel.force(false);
+        unsynced = 0;
+        lastSync = System.currentTimeMillis();
+    }
+
+    private void load() throws IOException {
+        long validLength = 0;
+        int records = 0;
+        if (Files.exists(path)) {
+            try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(Files.newInputStream(path)));
+                 DataInputStream input = new DataInputStream(counting)) {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    throw new IOException("Unsupported journal " + path);
+                }
+                validLength = counting.getCount();
+                while (true) {
+                    byte type = input.readByte();
+                    String source = input.readUTF();
+                    String detail = input.readUTF();
+                    if (type == INTENDED) {
+                        pending.put(source, detail);
+                    } else {
+                        pending.remove(source);
+                        entries.put(source, type == COMPLETED);
+                    }
+                    records++;
+                    validLength = counting.getCount();
+                }
+            } catch (EOFException | UTFDataFormatException e) {
+                // 读到末尾，或者中断时留下的不完整记录
+            }
+        }
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // 截掉末尾不完整的记录
+        channel.truncate(validLength);
+        channel.position(validLength);
+        output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        if (validLength == 0) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+        }
+        if (records > 0) {
+            long done = entries.values().stream().filter(Boolean::booleanValue).count();
+            LOGGER.info("Journal {} resumed, completed: {}, failed: {}, interrupted: {}", path, done, entries.size() - done, pending.size());
+        }
+    }
+
+    private static boolean sameContent(Path source, Path target) throws IOException {
+        return Files.size(source) == Files.size(target) && MoreFiles.asByteSource(source).contentEquals(MoreFiles.asByteSource(target));
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+}
@@ -0,0 +1,170 @@
+package io.lw900925.tools.support;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+
+/**
+ * 有界流水线
+ * <p>
+ * 解析阶段(CPU密集)和拷贝阶段(IO密集)各自使用独立的线程池，阶段之间通过有界队列连接。
+ * 队列满时提交方阻塞，避免遍历速度远大于处理速度时占满内存。
+ *
+ * @param <I> 解析阶段的输入
+ * @param <O> 解析阶段的输出，即拷贝阶段的输入
+ * @author lw900925
+ */
+public class Pipeline<I, O> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Pipeline.class);
+
+    private final ThreadPoolExecutor parseExecutor;
+    private final ThreadPoolExecutor copyExecutor;
+    private final Stage<I, O> parseStage;
+    private final Sink<O> copyStage;
+    private volatile FailureHandler failureHandler;
+
+    /**
+     * @param name          线程名前缀
+     * @param parseThreads  解析阶段线程数
+     * @param copyThreads   拷贝阶段线程数
+     * @param queueCapacity 每个阶段的队列容量
+     * @param parseStage    解析阶段，返回null表示跳过该条目
+     * @param copyStage     拷贝阶段
+     */
+    public Pipeline(String name, int parseThreads, int copyThreads, int queueCapacity, Stage<I, O> parseStage, Sink<O> copyStage) {
+        this.parseExecutor = newExecutor(name + "-parse-%d", parseThreads, queueCapacity);
+        this.copyExecutor = newExecutor(name + "-copy-%d", copyThreads, queueCapacity);
+        this.parseStage = parseStage;
+        this.copyStage = copyStage;
+    }
+
+    /**
+     * 按并行度创建流水线，解析线程数不超过CPU核数，拷贝线程数等于并行度
+     */
+    public static <I, O> Pipeline<I, O> create(String name, int parallelism, Stage<I, O> parseStage, Sink<O> copyStage) {
+        int parseThreads = Math.max(1, Math.min(parallelism, Runtime.getRuntime().availableProcessors()));
+        int copyThreads = Math.max(1, parallelism);
+        return new Pipeline<>(name, parseThreads, copyThreads, Math.max(parseThreads, copyThreads) * 4, parseStage, copyStage);
+    }
+
+    /**
+     * 条目处理失败时的回调，在记录日志之后调用
+     */
+    public Pipeline<I, O> onFailure(FailureHandler failureHandler) {
+        this.failureHandler = failureHandler;
+        return this;
+    }
+
+    /**
+     * 提交一个条目，队列已满时阻塞
+     */
+    public void submit(I item) {
+        parseExecutor.execute(() -> {
+            O output;
+            try {
+                output = parseStage.apply(item);
+            } catch (Exception e) {
+                LOGGER.error("Parse stage failed, item: {}, message: {}", item, e.getMessage(), e);
+                failed(item, e);
+                return;
+            }
+            if (output == null) {
+                return;
+            }
+            copyExecutor.execute(() -> {
+                try {
+                    copyStage.accept(output);
+                } catch (Exception e) {
+                    LOGGER.error("Copy stage failed, item: {}, message: {}", output, e.getMessage(), e);
+                    failed(output, e);
+                }
+            });
+        });
+    }
+
+    /**
+     * 解析阶段队列中等待的条目数
+     */
+    public int parseQueueSize() {
+        return parseExecutor.getQueue().size();
+    }
+
+    /**
+     * 拷贝阶段队列中等待的条目数
+     */
+    public int copyQueueSize() {
+        return copyExecutor.getQueue().size();
+    }
+
+    /**
+     * 等待已提交的条目全部处理完成，之后不能再提交
+     */
+    public void await() throws InterruptedException {
+        parseExecutor.shutdown();
+        parseExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        copyExecutor.shutdown();
+        copyExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void close() {
+        parseExecutor.shutdownNow();
+        copyExecutor.shutdownNow();
+    }
+
+    private void failed(Object item, Exception cause) {
+        FailureHandler handler = failureHandler;
+        if (handler == null) {
+            return;
+        }
+        try {
+            handler.failed(item, cause);
+        } catch (Exception e) {
+            LOGGER.error("Failure handler failed, item: {}, message: {}", item, e.getMessage(), e);
+        }
+    }
+
+    private static ThreadPoolExecutor newExecutor(String nameFormat, int threads, int queueCapacity) {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, (runnable, executor) -> {
+            // 队列已满时阻塞提交方，形成背压
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Pipeline has been shut down");
+            }
+            try {
+                executor.getQueue().put(runnable);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        });
+    }
+
+    /**
+     * 解析阶段
+     */
+    @FunctionalInterface
+    public interface Stage<I, O> {
+        O apply(I input) throws Exception;
+    }
+
+    /**
+     * 拷贝阶段
+     */
+    @FunctionalInterface
+    public interface Sink<O> {
+        void accept(O input) throws Exception;
+    }
+
+    /**
+     * 失败回调，item为解析阶段的输入或拷贝阶段的输入
+     */
+    @FunctionalInterface
+    public interface FailureHandler {
+        void failed(Object item, Exception cause) throws Exception;
+    }
+}
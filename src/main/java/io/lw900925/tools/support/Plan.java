@@ -0,0 +1,280 @@
+package io.lw900925.tools.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * 执行计划
+ * <p>
+ * 先收集所有 源文件→目标文件夹 的操作，不做任何写入；全部收集完成后统一确定目标文件名，
+ * 重名时按 目标文件夹、期望名称、源文件路径 的顺序依次尝试下一个名称，同样的输入总是得到同样的结果。
+ * 每个目标文件夹只列一次已有文件，不对每个文件单独stat。
+ * 执行时按目标文件夹和源文件的inode排序，尽量顺序读取源盘、顺序写入目标文件夹。
+ * <p>
+ * 操作数超过阈值时写入临时文件，内存占用与文件总数无关。
+ *
+ * @author lw900925
+ */
+public class Plan implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Plan.class);
+
+    /**
+     * 同一期望名称最多尝试的次数
+     */
+    private static final int MAX_ATTEMPTS = 10000;
+
+    private static final Comparator<Operation> NAME_ORDER = Comparator.comparing((Operation operation) -> operation.directory)
+            .thenComparing(operation -> operation.stem)
+            .thenComparing(operation -> operation.extension)
+            .thenComparing(operation -> operation.source);
+
+    private static final Comparator<Operation> EXECUTION_ORDER = Comparator.comparing((Operation operation) -> operation.directory)
+            .thenComparingLong(operation -> operation.inode)
+            .thenComparing(operation -> operation.source);
+
+    private final Naming naming;
+    private final ExternalSorter<Operation> planned;
+    private final ExternalSorter<Operation> resolved;
+    private final List<Path> directories = new ArrayList<>();
+    private boolean isResolved;
+
+    private Plan(Path spillDirectory, int spillThreshold, Naming naming) {
+        this.naming = naming;
+        this.planned = new ExternalSorter<>(NAME_ORDER, CODEC, spillThreshold, spillDirectory);
+        this.resolved = new ExternalSorter<>(EXECUTION_ORDER, CODEC, spillThreshold, spillDirectory);
+    }
+
+    /**
+     * @param spillDirectory 临时文件所在文件夹
+     * @param spillThreshold 内存中最多保留的操作数
+     * @param naming         根据期望名称和尝试次数生成目标文件名
+     */
+    public static Plan create(Path spillDirectory, int spillThreshold, Naming naming) {
+        return new Plan(spillDirectory, spillThreshold, naming);
+    }
+
+    /**
+     * 添加一个操作，可以在多个线程中调用
+     *
+     * @param source    源文件或文件夹
+     * @param attrs     源文件属性
+     * @param directory 目标文件夹
+     * @param stem      期望的名称，不含扩展名
+     * @param extension 扩展名，没有时为空字符串
+     */
+    public void add(Path source, BasicFileAttributes attrs, Path directory, String stem, String extension) throws IOException {
+        if (isResolved) {
+            throw new IllegalStateException("Plan has been resolved");
+        }
+        planned.add(new Operation(key(source), key(directory), stem, extension, attrs.size(), inode(attrs), null));
+    }
+
+    /**
+     * 确定所有操作的目标文件名，与目标文件夹中已有的文件和计划中的其他操作都不重名
+     *
+     * @return 操作数
+     */
+    public long resolve() throws IOException {
+        Set<String> used = new HashSet<>();
+        String[] directory = new String[1];
+        planned.forEach(operation -> {
+            Path parent = Paths.get(operation.directory);
+            if (!operation.directory.equals(directory[0])) {
+                // 按目标文件夹排序，换到下一个文件夹时重新读取已有文件
+                directory[0] = operation.directory;
+                directories.add(parent);
+                used.clear();
+                list(parent, used);
+            }
+            for (int attempt = 0; operation.name == null; attempt++) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw new FileAlreadyExistsException(parent.resolve(naming.name(operation, 0)).toString(), null, "No available name after " + MAX_ATTEMPTS + " attempts");
+                }
+                String name = naming.name(operation, attempt);
+                if (used.add(name)) {
+                    operation.name = name;
+                }
+            }
+            resolved.add(operation);
+        });
+        LOGGER.debug("Plan resolved, operations: {}, spills: {}", resolved.size(), planned.spills() + resolved.spills());
+        planned.close();
+        isResolved = true;
+        return resolved.size();
+    }
+
+    /**
+     * 计划中用到的所有目标文件夹，需要先{@link #resolve()}
+     */
+    public List<Path> getDirectories() {
+        return Collections.unmodifiableList(directories);
+    }
+
+    public long size() {
+        return isResolved ? resolved.size() : planned.size();
+    }
+
+    /**
+     * 按执行顺序遍历
+     */
+    public void forEach(ExternalSorter.Consumer<Operation> consumer) throws IOException {
+        if (!isResolved) {
+            throw new IllegalStateException("Plan has not been resolved");
+        }
+        resolved.forEach(consumer);
+    }
+
+    /**
+     * 按执行顺序输出 源文件\t目标文件 到文本文件
+     */
+    public void export(Path file) throws IOException {
+        if (file.getParent() != null && Files.notExists(file.getParent())) {
+            Files.createDirectories(file.getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            forEach(operation -> {
+                writer.write(operation.source);
+                writer.write('\t');
+                writer.write(operation.getTarget().toString());
+                writer.newLine();
+            });
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            planned.close();
+        } finally {
+            resolved.close();
+        }
+    }
+
+    private static void list(Path directory, Set<String> names) throws IOException {
+        if (Files.notExists(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path entry : stream) {
+                names.add(entry.getFileName().toString());
+            }
+        }
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * JDK没有提供读取inode的接口，Unix上{@link BasicFileAttributes#fileKey()}的格式为 (dev=xxx,ino=xxx)
+     *
+     * @return 无法获取时返回0
+     */
+    static long inode(BasicFileAttributes attrs) {
+        Object fileKey = attrs.fileKey();
+        if (fileKey == null) {
+            return 0;
+        }
+        String text = fileKey.toString();
+        int start = text.indexOf("ino=");
+        if (start < 0) {
+            return 0;
+        }
+        long inode = 0;
+        for (int i = start + 4; i < text.length() && Character.isDigit(text.charAt(i)); i++) {
+            inode = inode * 10 + (text.charAt(i) - '0');
+        }
+        return inode;
+    }
+
+    private static final ExternalSorter.Codec<Operation> CODEC = new ExternalSorter.Codec<Operation>() {
+        @Override
+        public void write(DataOutput output, Operation operation) throws IOException {
+            output.writeUTF(operation.source);
+            output.writeUTF(operation.directory);
+            output.writeUTF(operation.stem);
+            output.writeUTF(operation.extension);
+            output.writeLong(operation.size);
+            output.writeLong(operation.inode);
+            output.writeUTF(operation.name == null ? "" : operation.name);
+        }
+
+        @Override
+        public Operation read(DataInput input) throws IOException {
+            String source = input.readUTF();
+            String directory = input.readUTF();
+            String stem = input.readUTF();
+            String extension = input.readUTF();
+            long size = input.readLong();
+            long inode = input.readLong();
+            String name = input.readUTF();
+            return new Operation(source, directory, stem, extension, size, inode, name.isEmpty() ? null : name);
+        }
+    };
+
+    /**
+     * 生成目标文件名
+     */
+    @FunctionalInterface
+    public interface Naming {
+        /**
+         * @param attempt 第几次尝试，从0开始，前一次的名称已被占用时加1
+         */
+        String name(Operation operation, int attempt);
+    }
+
+    /**
+     * 一个 源文件→目标文件 操作
+     */
+    public static class Operation {
+        private final String source;
+        private final String directory;
+        private final String stem;
+        private final String extension;
+        private final long size;
+        private final long inode;
+        private String name;
+
+        Operation(String source, String directory, String stem, String extension, long size, long inode, String name) {
+            this.source = source;
+            this.directory = directory;
+            this.stem = stem;
+            this.extension = extension;
+            this.size = size;
+            this.inode = inode;
+            this.name = name;
+        }
+
+        public Path getSource() {
+            return Paths.get(source);
+        }
+
+        public Path getTarget() {
+            return Paths.get(directory, name);
+        }
+
+        public String getStem() {
+            return stem;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return source;
+        }
+    }
+}
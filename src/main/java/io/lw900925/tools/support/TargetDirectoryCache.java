@@ -0,0 +1,53 @@
+package io.lw900925.tools.support;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 已创建的目标文件夹
+ * <p>
+ * 每个文件夹只在第一次用到时调用一次{@link Files#createDirectories}，之后只查内存，
+ * 目标在NFS/SMB等网络文件系统上时省去每个文件一次的stat。可以在多个线程中使用。
+ * <p>
+ * 只在一次运行内有效，运行期间被外部删除的文件夹不会重新创建。
+ *
+ * @author lw900925
+ */
+public class TargetDirectoryCache {
+
+    private final Set<Path> created = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 创建文件夹及其所有父文件夹，已创建过时直接返回
+     */
+    public void createDirectories(Path directory) throws IOException {
+        if (directory == null || created.contains(directory)) {
+            return;
+        }
+        Files.createDirectories(directory);
+        // 父文件夹也一定存在，遇到已记录的父文件夹时更上层也已记录
+        Path path = directory;
+        while (path != null && created.add(path)) {
+            path = path.getParent();
+        }
+    }
+
+    /**
+     * 创建文件所在的文件夹
+     */
+    public void createParent(Path file) throws IOException {
+        createDirectories(file.getParent());
+    }
+
+    /**
+     * 一次性创建所有文件夹，用于执行计划前预先建好整个目录树
+     */
+    public void createAll(Iterable<Path> directories) throws IOException {
+        for (Path directory : directories) {
+            createDirectories(directory);
+        }
+    }
+}
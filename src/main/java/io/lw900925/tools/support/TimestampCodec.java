@@ -0,0 +1,295 @@
+package io.lw900925.tools.support;
+
+import java.io.File;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.TextStyle;
+import java.util.Collections;
+import java.util.Locale;
+
+/**
+ * 拍摄时间的解析和格式化
+ * <p>
+ * 文件名和EXIF中使用的定长格式手工解析和格式化，不创建Formatter，也不依赖异常判断格式：
+ * <ul>
+ *     <li>yyyy:MM:dd HH:mm:ss - EXIF</li>
+ *     <li>yyyy_MM_dd_HH_mm - rename 生成的文件名</li>
+ *     <li>yyyyMMdd_HHmmss_SSS - aggregateDir 生成的文件夹名</li>
+ * </ul>
+ * 其余格式(metadata-extractor输出的 Date#toString 风格)使用缓存的{@link DateTimeFormatter}，
+ * 解析前先检查形状，只有形状匹配但内容非法时才会抛出异常。
+ * Date#toString 按本机时区输出时区缩写，CST 等有歧义的缩写优先按本机时区理解，
+ * 例如在中国输出的 CST 是 Asia/Shanghai 而不是 America/Chicago。
+ *
+ * @author lw900925
+ */
+public final class TimestampCodec {
+
+    /**
+     * 系统时区，文件名中的时间都按系统时区理解
+     */
+    public static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    private static final DateTimeFormatter METADATA_ENGLISH = metadataFormatter(Locale.ENGLISH, ZONE);
+    private static final DateTimeFormatter METADATA_CHINESE = metadataFormatter(Locale.CHINESE, ZONE);
+
+    private TimestampCodec() {
+    }
+
+    /**
+     * 解析元数据标签中的日期
+     *
+     * @return 无法识别时返回null
+     */
+    public static Instant parseMetadata(String text) {
+        return parseMetadata(text, ZONE);
+    }
+
+    /**
+     * 解析元数据标签中的日期
+     *
+     * @param zone 没有时区的日期按该时区理解，有歧义的时区缩写优先认为是该时区
+     * @return 无法识别时返回null
+     */
+    static Instant parseMetadata(String text, ZoneId zone) {
+        if (text == null) {
+            return null;
+        }
+        // yyyy:MM:dd HH:mm:ss，后面可能跟着其他内容
+        LocalDateTime exif = parseExif(text);
+        if (exif != null) {
+            return exif.atZone(zone).toInstant();
+        }
+        // EEE MMM dd HH:mm:ss XXX yyyy，至少包含5个空格，最后4位是年份
+        int length = text.length();
+        if (length < 24 || !isDigits(text, length - 4, length) || text.charAt(length - 5) != ' ') {
+            return null;
+        }
+        try {
+            Locale locale = containsChinese(text) ? Locale.CHINESE : Locale.ENGLISH;
+            DateTimeFormatter formatter;
+            if (zone.equals(ZONE)) {
+                formatter = locale == Locale.CHINESE ? METADATA_CHINESE : METADATA_ENGLISH;
+            } else {
+                formatter = metadataFormatter(locale, zone);
+            }
+            return ZonedDateTime.parse(text, formatter).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * EEE MMM dd HH:mm:ss [XXX][z] yyyy，时区缩写有歧义时优先使用给定的时区
+     */
+    private static DateTimeFormatter metadataFormatter(Locale locale, ZoneId zone) {
+        return new DateTimeFormatterBuilder()
+                .appendPattern("EEE MMM dd HH:mm:ss ")
+                .optionalStart().appendOffset("+HH:MM", "Z").optionalEnd()
+                .optionalStart().appendZoneText(TextStyle.SHORT, Collections.singleton(zone)).optionalEnd()
+                .appendPattern(" yyyy")
+                .toFormatter(locale);
+    }
+
+    /**
+     * 解析 yyyy:MM:dd HH:mm:ss
+     *
+     * @return 格式不匹配时返回null
+     */
+    public static LocalDateTime parseExif(CharSequence text) {
+        if (text.length() < 19
+                || text.charAt(4) != ':' || text.charAt(7) != ':' || text.charAt(10) != ' '
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return null;
+        }
+        return of(text, 0, 5, 8, 11, 14, 17, -1);
+    }
+
+    /**
+     * 解析 yyyy_MM_dd_HH_mm，文件名后面的内容忽略
+     *
+     * @return 格式不匹配时返回null
+     */
+    public static LocalDateTime parseFilename(CharSequence text) {
+        if (text.length() < 16
+                || text.charAt(4) != '_' || text.charAt(7) != '_' || text.charAt(10) != '_' || text.charAt(13) != '_') {
+            return null;
+        }
+        return of(text, 0, 5, 8, 11, 14, -1, -1);
+    }
+
+    /**
+     * 解析 yyyyMMdd_HHmmss_SSS，文件名后面的内容忽略
+     *
+     * @return 格式不匹配时返回null
+     */
+    public static LocalDateTime parseCompact(CharSequence text) {
+        if (text.length() < 19 || text.charAt(8) != '_' || text.charAt(15) != '_') {
+            return null;
+        }
+        return of(text, 0, 4, 6, 9, 11, 13, 16);
+    }
+
+    /**
+     * 解析整理后的文件名或文件夹名中的拍摄日期，依次尝试 yyyy_MM_dd_HH_mm 和 yyyyMMdd_HHmmss_SSS
+     *
+     * @return 都不匹配时返回null
+     */
+    public static LocalDateTime parseArchiveName(CharSequence text) {
+        LocalDateTime dateTime = parseFilename(text);
+        return dateTime != null ? dateTime : parseCompact(text);
+    }
+
+    /**
+     * 解析名称开头的 yyyyMM 或 yyyy_MM，后面的内容忽略，例如 20200915_123456.jpg、2020_09_vacation.jpg
+     *
+     * @return 格式不匹配时返回null
+     */
+    public static YearMonth parseYearMonth(CharSequence text) {
+        int start = text.length() > 4 && text.charAt(4) == '_' ? 5 : 4;
+        if (text.length() < start + 2) {
+            return null;
+        }
+        int year = digits(text, 0, 4);
+        int month = digits(text, start, 2);
+        if (year < 0 || month < 1 || month > 12) {
+            return null;
+        }
+        return YearMonth.of(year, month);
+    }
+
+    /**
+     * 格式化为按月分组的文件夹，例如 2020/09.Sep
+     */
+    public static String formatMonthDirectory(YearMonth yearMonth) {
+        int month = yearMonth.getMonthValue();
+        return yearMonth.getYear() + File.separator + (month < 10 ? "0" : "") + month + "." + MONTHS[month - 1];
+    }
+
+    /**
+     * 格式化为 yyyy_MM_dd_HH_mm
+     */
+    public static String formatFilename(Instant instant) {
+        return formatFilename(LocalDateTime.ofInstant(instant, ZONE));
+    }
+
+    /**
+     * 格式化为 yyyy_MM_dd_HH_mm
+     */
+    public static String formatFilename(LocalDateTime dateTime) {
+        char[] chars = new char[16];
+        write(chars, 0, dateTime.getYear(), 4);
+        chars[4] = '_';
+        write(chars, 5, dateTime.getMonthValue(), 2);
+        chars[7] = '_';
+        write(chars, 8, dateTime.getDayOfMonth(), 2);
+        chars[10] = '_';
+        write(chars, 11, dateTime.getHour(), 2);
+        chars[13] = '_';
+        write(chars, 14, dateTime.getMinute(), 2);
+        return new String(chars);
+    }
+
+    /**
+     * 格式化为 yyyy:MM:dd HH:mm:ss
+     */
+    public static String formatExif(LocalDateTime dateTime) {
+        char[] chars = new char[19];
+        write(chars, 0, dateTime.getYear(), 4);
+        chars[4] = ':';
+        write(chars, 5, dateTime.getMonthValue(), 2);
+        chars[7] = ':';
+        write(chars, 8, dateTime.getDayOfMonth(), 2);
+        chars[10] = ' ';
+        write(chars, 11, dateTime.getHour(), 2);
+        chars[13] = ':';
+        write(chars, 14, dateTime.getMinute(), 2);
+        chars[16] = ':';
+        write(chars, 17, dateTime.getSecond(), 2);
+        return new String(chars);
+    }
+
+    /**
+     * 格式化为 yyyyMMdd_HHmmss_SSS
+     */
+    public static String formatCompact(LocalDateTime dateTime) {
+        char[] chars = new char[19];
+        write(chars, 0, dateTime.getYear(), 4);
+        write(chars, 4, dateTime.getMonthValue(), 2);
+        write(chars, 6, dateTime.getDayOfMonth(), 2);
+        chars[8] = '_';
+        write(chars, 9, dateTime.getHour(), 2);
+        write(chars, 11, dateTime.getMinute(), 2);
+        write(chars, 13, dateTime.getSecond(), 2);
+        chars[15] = '_';
+        write(chars, 16, dateTime.getNano() / 1_000_000, 3);
+        return new String(chars);
+    }
+
+    /**
+     * 按各字段的起始位置读取数字，位置为-1的字段取0
+     */
+    private static LocalDateTime of(CharSequence text, int year, int month, int day, int hour, int minute, int second, int millis) {
+        int y = digits(text, year, 4);
+        int mo = digits(text, month, 2);
+        int d = digits(text, day, 2);
+        int h = digits(text, hour, 2);
+        int mi = digits(text, minute, 2);
+        int s = second < 0 ? 0 : digits(text, second, 2);
+        int ms = millis < 0 ? 0 : digits(text, millis, 3);
+        if ((y | mo | d | h | mi | s | ms) < 0) {
+            return null;
+        }
+        try {
+            return LocalDateTime.of(y, mo, d, h, mi, s, ms * 1_000_000);
+        } catch (DateTimeException e) {
+            // 例如 0000:00:00 00:00:00 这样的空日期
+            return null;
+        }
+    }
+
+    /**
+     * 读取定长的十进制数字，包含非数字字符时返回-1
+     */
+    private static int digits(CharSequence text, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigits(CharSequence text, int start, int end) {
+        return digits(text, start, end - start) >= 0;
+    }
+
+    private static void write(char[] chars, int start, int value, int length) {
+        for (int i = start + length - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static boolean containsChinese(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '\u4e00' && c <= '\u9fa5') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,44 @@
+package io.lw900925.tools.app;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunMetricsTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void exportEscapesNames() throws Exception {
+        // 错误类型来自用户的文件名
+        String type = "jp\"g\\x,y\n";
+        Path json = tempDir.resolve("report.json");
+        Path csv = tempDir.resolve("report.csv");
+        // 不关闭：关闭时按配置输出报告和日志
+        RunMetrics.Run run = new RunMetrics().new Run("re\"name", 1000);
+        run.processed(10);
+        run.record("copy", 1_000_000);
+        run.error(type);
+        run.error(type);
+        run.export(json);
+        run.export(csv);
+
+        JSONObject report = new JSONObject(new String(Files.readAllBytes(json), StandardCharsets.UTF_8));
+        assertEquals("re\"name", report.getString("command"));
+        assertEquals(1, report.getLong("files"));
+        assertEquals(1, report.getJSONObject("stages").getJSONObject("copy").getLong("count"));
+        assertEquals(2, report.getJSONObject("errors").getLong(type));
+
+        List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        assertEquals("\"jp\"\"g\\x,y", lines.get(lines.size() - 2).substring("error,".length()));
+        assertEquals("\",2,,,,,,", lines.get(lines.size() - 1));
+    }
+}
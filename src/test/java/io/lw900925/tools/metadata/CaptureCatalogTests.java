@@ -0,0 +1,191 @@
+package io.lw900925.tools.metadata;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CaptureCatalogTests {
+
+    private static final LocalDateTime T1 = LocalDateTime.of(2019, 5, 6, 7, 8);
+    private static final LocalDateTime T2 = LocalDateTime.of(2020, 9, 13, 12, 26);
+    private static final LocalDateTime T3 = LocalDateTime.of(2020, 9, 13, 12, 26, 30);
+    private static final LocalDateTime T4 = LocalDateTime.of(2021, 1, 1, 0, 0);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void findInCaptureTimeOrder() throws Exception {
+        Path catalogPath = tempDir.resolve("catalog.idx");
+        try (CaptureCatalog catalog = CaptureCatalog.open(catalogPath, false)) {
+            catalog.add(file("2020/09.Sep/B.MOV"), T3);
+            catalog.add(file("2021/01.Jan/D.JPG"), T4);
+            catalog.add(file("2019/05.May/A.JPG"), T1);
+            catalog.add(file("2020/09.Sep/C.JPG"), T2);
+        }
+        assertTrue(Files.exists(catalogPath));
+
+        try (CaptureCatalog.Reader reader = CaptureCatalog.read(catalogPath)) {
+            assertEquals(4, reader.size());
+            assertEquals(Arrays.asList(T1 + " A.JPG", T2 + " C.JPG", T3 + " B.MOV", T4 + " D.JPG"),
+                    find(reader, LocalDateTime.MIN, LocalDateTime.MAX, null));
+            // 起止时间都包含在内
+            assertEquals(Arrays.asList(T2 + " C.JPG", T3 + " B.MOV"), find(reader, T2, T3, null));
+            assertEquals(Collections.singletonList(T3 + " B.MOV"), find(reader, T2.plusSeconds(1), T4.minusSeconds(1), null));
+            assertEquals(Collections.emptyList(), find(reader, T4.plusSeconds(1), LocalDateTime.MAX, null));
+            assertEquals(Arrays.asList(T1 + " A.JPG", T2 + " C.JPG", T4 + " D.JPG"),
+                    find(reader, LocalDateTime.MIN, LocalDateTime.MAX, path -> path.endsWith(".JPG")));
+        }
+    }
+
+    @Test
+    void pendingRecordsMergedIntoResults() throws Exception {
+        Path catalogPath = tempDir.resolve("catalog.idx");
+        try (CaptureCatalog catalog = CaptureCatalog.open(catalogPath, false)) {
+            catalog.add(file("A.JPG"), T1);
+            catalog.add(file("C.JPG"), T3);
+        }
+
+        List<String> expected = Arrays.asList(T1 + " A.JPG", T2 + " B.JPG", T3 + " D.JPG", T4 + " C.JPG");
+        try (CaptureCatalog catalog = CaptureCatalog.open(catalogPath, false)) {
+            catalog.add(file("B.JPG"), T2);
+            catalog.add(file("D.JPG"), T3);
+            // 同一路径以后记录的为准
+            catalog.add(file("C.JPG"), T4);
+            catalog.sync();
+
+            // 还未合并时查询，一并读取待合并日志
+            try (CaptureCatalog.Reader reader = CaptureCatalog.read(catalogPath)) {
+                assertEquals(4, reader.size());
+                assertEquals(expected, find(reader, LocalDateTime.MIN, LocalDateTime.MAX, null));
+            }
+        }
+
+        // 合并后结果不变
+        try (CaptureCatalog.Reader reader = CaptureCatalog.read(catalogPath)) {
+            assertEquals(4, reader.size());
+            assertEquals(expected, find(reader, LocalDateTime.MIN, LocalDateTime.MAX, null));
+        }
+    }
+
+    @Test
+    void rangeQueriesMatchFullScan() throws Exception {
+        Path catalogPath = tempDir.resolve("catalog.idx");
+        Random random = new Random(7);
+        TreeMap<String, LocalDateTime> all = new TreeMap<>();
+        // 分三次写入，后两次与已合并的记录交错，最后一次不合并
+        CaptureCatalog last = null;
+        for (int session = 0; session < 3; session++) {
+            CaptureCatalog catalog = CaptureCatalog.open(catalogPath, false);
+            for (int i = 0; i < 500; i++) {
+                String name = String.format("IMG_%04d.JPG", random.nextInt(1200));
+                LocalDateTime captureTime = T1.plusMinutes(random.nextInt(5000));
+                catalog.add(file(name), captureTime);
+                all.put(name, captureTime);
+            }
+            if (session < 2) {
+                catalog.close();
+            } else {
+                catalog.sync();
+                last = catalog;
+            }
+        }
+
+        try (CaptureCatalog.Reader reader = CaptureCatalog.read(catalogPath)) {
+            assertEquals(all.size(), reader.size());
+            for (int i = 0; i < 20; i++) {
+                LocalDateTime from = T1.plusMinutes(random.nextInt(5000));
+                LocalDateTime to = from.plusMinutes(random.nextInt(500));
+                List<String> expected = new ArrayList<>();
+                all.entrySet().stream()
+                        .filter(entry -> !entry.getValue().isBefore(from) && !entry.getValue().isAfter(to))
+                        .sorted(Map.Entry.<String, LocalDateTime>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+                        .forEach(entry -> expected.add(entry.getValue() + " " + entry.getKey()));
+                assertEquals(expected, find(reader, from, to, null));
+            }
+        } finally {
+            last.close();
+        }
+    }
+
+    @Test
+    void truncatedLogTailIgnored() throws Exception {
+        Path catalogPath = tempDir.resolve("catalog.idx");
+        try (CaptureCatalog catalog = CaptureCatalog.open(catalogPath, false)) {
+            catalog.add(file("A.JPG"), T1);
+            catalog.sync();
+            // 写入中断时留下的半条记录
+            Files.write(tempDir.resolve("catalog.idx.log"), new byte[]{0, 40, '/', 't'}, StandardOpenOption.APPEND);
+
+            try (CaptureCatalog.Reader reader = CaptureCatalog.read(catalogPath)) {
+                assertEquals(Collections.singletonList(T1 + " A.JPG"), find(reader, LocalDateTime.MIN, LocalDateTime.MAX, null));
+            }
+        }
+    }
+
+    @Test
+    void rebuildDiscardsRecords() throws Exception {
+        Path catalogPath = tempDir.resolve("catalog.idx");
+        try (CaptureCatalog catalog = CaptureCatalog.open(catalogPath, false)) {
+            catalog.add(file("A.JPG"), T1);
+        }
+        try (CaptureCatalog catalog = CaptureCatalog.open(catalogPath, true)) {
+            catalog.add(file("B.JPG"), T2);
+        }
+
+        try (CaptureCatalog.Reader reader = CaptureCatalog.read(catalogPath)) {
+            assertEquals(Collections.singletonList(T2 + " B.JPG"), find(reader, LocalDateTime.MIN, LocalDateTime.MAX, null));
+        }
+    }
+
+    @Test
+    void addArchivedUsesFilenameDate() throws Exception {
+        Path catalogPath = tempDir.resolve("catalog.idx");
+        try (CaptureCatalog catalog = CaptureCatalog.open(catalogPath, false)) {
+            assertTrue(catalog.addArchived(file("2020_09_13_12_26_IMG_1234.JPG")));
+            assertTrue(catalog.addArchived(file("20190506_070800_000")));
+            // 只有年月的文件名没有完整的拍摄时间，不记录
+            assertFalse(catalog.addArchived(file("2020_09_vacation.jpg")));
+            assertFalse(catalog.addArchived(file("IMG_0001.JPG")));
+        }
+
+        try (CaptureCatalog.Reader reader = CaptureCatalog.read(catalogPath)) {
+            assertEquals(Arrays.asList(T1 + " 20190506_070800_000", T2 + " 2020_09_13_12_26_IMG_1234.JPG"),
+                    find(reader, LocalDateTime.MIN, LocalDateTime.MAX, null));
+        }
+    }
+
+    @Test
+    void missingCatalogIsEmpty() throws Exception {
+        try (CaptureCatalog.Reader reader = CaptureCatalog.read(tempDir.resolve("missing.idx"))) {
+            assertEquals(0, reader.size());
+            assertEquals(Collections.emptyList(), find(reader, LocalDateTime.MIN, LocalDateTime.MAX, null));
+        }
+    }
+
+    private Path file(String name) {
+        return tempDir.resolve("archive").resolve(name);
+    }
+
+    private static List<String> find(CaptureCatalog.Reader reader, LocalDateTime from, LocalDateTime to, Predicate<String> filter) throws IOException {
+        List<String> found = new ArrayList<>();
+        long count = reader.find(from, to, filter, (captureTime, file) -> found.add(captureTime + " " + file.getFileName()));
+        assertEquals(found.size(), count);
+        return found;
+    }
+}
@@ -0,0 +1,262 @@
+package io.lw900925.tools.metadata;
+
+import com.drew.imaging.jpeg.JpegMetadataReader;
+import com.drew.imaging.mp4.Mp4MetadataReader;
+import com.drew.imaging.png.PngMetadataReader;
+import com.drew.imaging.quicktime.QuickTimeMetadataReader;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.mov.QuickTimeDirectory;
+import com.drew.metadata.mp4.Mp4Directory;
+import com.drew.metadata.png.PngDirectory;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants;
+import org.apache.commons.imaging.formats.tiff.write.TiffImageWriterLossy;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HeaderMetadataReaderTests {
+
+    private static final String DATE_TIME = "2020:09:13 12:26:00";
+    private static final Instant CREATION_TIME = Instant.parse("2020-09-13T12:26:40Z");
+
+    /**
+     * QuickTime的时间从1904-01-01开始计算
+     */
+    private static final long EPOCH_1904 = 2082844800L;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void jpegExifFirst() throws Exception {
+        byte[] image = image();
+        Path file = write("first.jpg", bytes(soi(), exif(), Arrays.copyOfRange(image, 2, image.length)));
+
+        Metadata metadata = readJpeg(file, 1024);
+        assertEquals(DATE_TIME, metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class).getString(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL));
+        assertSameDate(JpegMetadataReader.readMetadata(file.toFile()), metadata);
+    }
+
+    @Test
+    void jpegExifAfterOtherSegments() throws Exception {
+        byte[] image = image();
+        // 注释、ICC、XMP(同样是APP1，但不是Exif)和填充字节都在Exif之前，JFIF在Exif之后
+        byte[] xmp = bytes("http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.US_ASCII), "<x:xmpmeta/>".getBytes(StandardCharsets.US_ASCII));
+        byte[] icc = bytes("ICC_PROFILE\0".getBytes(StandardCharsets.US_ASCII), new byte[300]);
+        Path file = write("after.jpg", bytes(soi(), segment(0xfe, "comment".getBytes(StandardCharsets.US_ASCII)), segment(0xe2, icc),
+                segment(0xe1, xmp), new byte[]{(byte) 0xff}, exif(), Arrays.copyOfRange(image, 2, image.length)));
+
+        Metadata metadata = readJpeg(file, 2048);
+        assertEquals(DATE_TIME, metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class).getString(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL));
+        assertSameDate(JpegMetadataReader.readMetadata(file.toFile()), metadata);
+    }
+
+    @Test
+    void jpegWithoutExif() throws Exception {
+        Path file = write("plain.jpg", image());
+
+        // 读到SOS为止，不读取扫描数据
+        Metadata metadata = readJpeg(file, 2048);
+        assertNull(metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class));
+    }
+
+    @Test
+    void mp4MoovAfterMdat() throws Exception {
+        Path file = write("clip.mp4", bytes(box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), new byte[4]),
+                box("mdat", new byte[1024 * 1024]), moov()));
+
+        Metadata metadata = readMoov(file, true);
+        assertEquals(CREATION_TIME.getEpochSecond(), metadata.getFirstDirectoryOfType(Mp4Directory.class).getDate(Mp4Directory.TAG_CREATION_TIME).getTime() / 1000);
+        assertEquals(Mp4MetadataReader.readMetadata(file.toFile()).getFirstDirectoryOfType(Mp4Directory.class).getDate(Mp4Directory.TAG_CREATION_TIME),
+                metadata.getFirstDirectoryOfType(Mp4Directory.class).getDate(Mp4Directory.TAG_CREATION_TIME));
+    }
+
+    @Test
+    void movMoovAfterLargeMdat() throws Exception {
+        // 64位长度的mdat
+        byte[] data = new byte[1024 * 1024];
+        ByteBuffer mdat = ByteBuffer.allocate(16 + data.length).putInt(1).put("mdat".getBytes(StandardCharsets.US_ASCII)).putLong(16L + data.length).put(data);
+        Path file = write("clip.mov", bytes(box("ftyp", "qt  ".getBytes(StandardCharsets.US_ASCII), new byte[4]), box("wide"), mdat.array(), moov()));
+
+        Metadata metadata = readMoov(file, false);
+        QuickTimeDirectory directory = metadata.getFirstDirectoryOfType(QuickTimeDirectory.class);
+        assertEquals(CREATION_TIME.getEpochSecond(), directory.getDate(QuickTimeDirectory.TAG_CREATION_TIME).getTime() / 1000);
+        assertEquals(QuickTimeMetadataReader.readMetadata(file.toFile()).getFirstDirectoryOfType(QuickTimeDirectory.class).getDate(QuickTimeDirectory.TAG_CREATION_TIME),
+                directory.getDate(QuickTimeDirectory.TAG_CREATION_TIME));
+    }
+
+    @Test
+    void moovMissing() throws Exception {
+        Path file = write("broken.mp4", bytes(box("ftyp", "isom".getBytes(StandardCharsets.US_ASCII), new byte[4]), box("mdat", new byte[64])));
+        try (HeaderMetadataReader.HeaderChannel channel = open(file)) {
+            assertThrows(IOException.class, () -> HeaderMetadataReader.readMoov(channel));
+        }
+    }
+
+    @Test
+    void pngChunksBeforeIdat() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(noise(256, 256), "png", output);
+        byte[] image = output.toByteArray();
+        // 签名(8) + IHDR(25)之后插入
+        TiffOutputSet set = new TiffOutputSet();
+        set.getOrCreateRootDirectory().add(TiffTagConstants.TIFF_TAG_DATE_TIME, DATE_TIME);
+        byte[] exif = chunk("eXIf", tiff(set));
+        Path file = write("image.png", bytes(Arrays.copyOf(image, 33), chunk("tEXt", "Title\0Vacation".getBytes(StandardCharsets.ISO_8859_1)),
+                exif, Arrays.copyOfRange(image, 33, image.length)));
+
+        byte[] header;
+        try (HeaderMetadataReader.HeaderChannel channel = open(file)) {
+            header = HeaderMetadataReader.readPngHeader(channel);
+            assertTrue(channel.bytesRead() < 1024, "bytes read: " + channel.bytesRead());
+        }
+        Metadata metadata = PngMetadataReader.readMetadata(new ByteArrayInputStream(header));
+
+        assertTrue(text(metadata).contains("Vacation"), text(metadata));
+        assertEquals(text(PngMetadataReader.readMetadata(file.toFile())), text(metadata));
+        // 当前版本的metadata-extractor不解析eXIf，只检查chunk原样保留
+        assertTrue(contains(header, exif));
+    }
+
+    private Metadata readJpeg(Path file, long maxBytesRead) throws Exception {
+        try (HeaderMetadataReader.HeaderChannel channel = open(file)) {
+            Metadata metadata = HeaderMetadataReader.readJpegHeader(channel);
+            assertTrue(channel.bytesRead() < maxBytesRead, "bytes read: " + channel.bytesRead() + "/" + channel.size());
+            return metadata;
+        }
+    }
+
+    private Metadata readMoov(Path file, boolean mp4) throws Exception {
+        try (HeaderMetadataReader.HeaderChannel channel = open(file)) {
+            byte[] moov = HeaderMetadataReader.readMoov(channel);
+            // 只读了各个box的头部和moov
+            assertTrue(channel.bytesRead() < 1024, "bytes read: " + channel.bytesRead());
+            return mp4 ? Mp4MetadataReader.readMetadata(new ByteArrayInputStream(moov)) : QuickTimeMetadataReader.readMetadata(new ByteArrayInputStream(moov));
+        }
+    }
+
+    private static HeaderMetadataReader.HeaderChannel open(Path file) throws IOException {
+        return new HeaderMetadataReader.HeaderChannel(FileChannel.open(file));
+    }
+
+    private static void assertSameDate(Metadata expected, Metadata actual) {
+        assertEquals(expected.getFirstDirectoryOfType(ExifSubIFDDirectory.class).getString(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL),
+                actual.getFirstDirectoryOfType(ExifSubIFDDirectory.class).getString(ExifSubIFDDirectory.TAG_DATETIME_ORIGINAL));
+    }
+
+    private static String text(Metadata metadata) {
+        StringBuilder text = new StringBuilder();
+        for (Directory directory : metadata.getDirectoriesOfType(PngDirectory.class)) {
+            if (directory.containsTag(PngDirectory.TAG_TEXTUAL_DATA)) {
+                text.append(directory.getDescription(PngDirectory.TAG_TEXTUAL_DATA));
+            }
+        }
+        return text.toString();
+    }
+
+    private static boolean contains(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + part.length), part)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Path write(String name, byte[] bytes) throws IOException {
+        return Files.write(tempDir.resolve(name), bytes);
+    }
+
+    /**
+     * 扫描数据远大于头部的JPEG，以SOI和JFIF开头
+     */
+    private static byte[] image() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(noise(512, 512), "jpg", output);
+        return output.toByteArray();
+    }
+
+    private static BufferedImage noise(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0xffffff));
+            }
+        }
+        return image;
+    }
+
+    private static byte[] soi() {
+        return new byte[]{(byte) 0xff, (byte) 0xd8};
+    }
+
+    private static byte[] exif() throws Exception {
+        TiffOutputSet set = new TiffOutputSet();
+        set.getOrCreateExifDirectory().add(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL, DATE_TIME);
+        return segment(0xe1, bytes("Exif\0\0".getBytes(StandardCharsets.US_ASCII), tiff(set)));
+    }
+
+    private static byte[] tiff(TiffOutputSet set) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new TiffImageWriterLossy().write(output, set);
+        return output.toByteArray();
+    }
+
+    private static byte[] segment(int type, byte[] payload) {
+        return ByteBuffer.allocate(4 + payload.length).put((byte) 0xff).put((byte) type).putShort((short) (payload.length + 2)).put(payload).array();
+    }
+
+    private static byte[] moov() throws IOException {
+        long time = CREATION_TIME.getEpochSecond() + EPOCH_1904;
+        ByteBuffer mvhd = ByteBuffer.allocate(100).putInt(0).putInt((int) time).putInt((int) time).putInt(600).putInt(6000);
+        return box("moov", box("mvhd", mvhd.array()));
+    }
+
+    private static byte[] box(String type, byte[]... payloads) throws IOException {
+        byte[] payload = bytes(payloads);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(8 + payload.length);
+        data.writeBytes(type);
+        data.write(payload);
+        return output.toByteArray();
+    }
+
+    private static byte[] chunk(String type, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(type.getBytes(StandardCharsets.US_ASCII));
+        crc.update(data);
+        return ByteBuffer.allocate(12 + data.length).putInt(data.length).put(type.getBytes(StandardCharsets.US_ASCII)).put(data)
+                .putInt((int) crc.getValue()).array();
+    }
+
+    private static byte[] bytes(byte[]... parts) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            output.write(part, 0, part.length);
+        }
+        return output.toByteArray();
+    }
+}
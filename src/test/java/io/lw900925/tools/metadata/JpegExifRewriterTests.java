@@ -0,0 +1,59 @@
+package io.lw900925.tools.metadata;
+
+import io.lw900925.tools.support.CopyEngine;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegExifRewriterTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rewriteDateTimeOriginal() throws Exception {
+        Path source = jpeg("source.jpg");
+        Path target = tempDir.resolve("target.jpg");
+
+        try (CopyEngine engine = new CopyEngine(4096, 1, CopyEngine.Sync.NONE, 1, true, null)) {
+            JpegExifRewriter.rewrite(source, target, engine,
+                    output -> output.getOrCreateExifDirectory().add(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL, "2020:09:13 12:26:00"));
+        }
+
+        JpegImageMetadata metadata = (JpegImageMetadata) Imaging.getMetadata(target.toFile());
+        assertEquals("'2020:09:13 12:26:00'", metadata.findEXIFValue(ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL).getValueDescription());
+    }
+
+    @Test
+    void keepExistingTarget() throws Exception {
+        Path source = jpeg("source.jpg");
+        Path target = tempDir.resolve("target.jpg");
+        byte[] existing = "existing".getBytes();
+        Files.write(target, existing);
+
+        try (CopyEngine engine = new CopyEngine(4096, 1, CopyEngine.Sync.NONE, 1, true, null)) {
+            assertThrows(FileAlreadyExistsException.class, () -> JpegExifRewriter.rewrite(source, target, engine, output -> {
+            }));
+        }
+
+        assertArrayEquals(existing, Files.readAllBytes(target));
+    }
+
+    private Path jpeg(String name) throws Exception {
+        Path file = tempDir.resolve(name);
+        BufferedImage image = new BufferedImage(32, 16, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(3, 4, 0xff8040);
+        ImageIO.write(image, "jpg", file.toFile());
+        return file;
+    }
+}
@@ -0,0 +1,125 @@
+package io.lw900925.tools.metadata;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetadataIndexTests {
+
+    private static final long CAPTURE_TIME = 1599971160000L;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reopenHitsUnchangedFile() throws Exception {
+        Path indexPath = tempDir.resolve("metadata.idx");
+        Path photo = Files.write(tempDir.resolve("photo.jpg"), new byte[100]);
+        Path raw = Files.write(tempDir.resolve("raw.nef"), new byte[200]);
+        try (MetadataIndex index = MetadataIndex.open(indexPath, false)) {
+            index.put(photo, attrs(photo), CAPTURE_TIME, "Date/Time Original");
+            index.put(raw, attrs(raw), MetadataIndex.NO_CAPTURE_TIME, null);
+        }
+
+        try (MetadataIndex index = MetadataIndex.open(indexPath, false)) {
+            MetadataIndex.Entry entry = index.get(photo, attrs(photo));
+            assertNotNull(entry);
+            assertTrue(entry.hasCaptureTime());
+            assertEquals(CAPTURE_TIME, entry.getCaptureTime());
+            assertEquals("Date/Time Original", entry.getTag());
+
+            MetadataIndex.Entry noCaptureTime = index.get(raw, attrs(raw));
+            assertNotNull(noCaptureTime);
+            assertFalse(noCaptureTime.hasCaptureTime());
+            assertEquals("", noCaptureTime.getTag());
+        }
+    }
+
+    @Test
+    void modifiedFileMisses() throws Exception {
+        Path indexPath = tempDir.resolve("metadata.idx");
+        Path resized = Files.write(tempDir.resolve("resized.jpg"), new byte[100]);
+        Path touched = Files.write(tempDir.resolve("touched.jpg"), new byte[100]);
+        try (MetadataIndex index = MetadataIndex.open(indexPath, false)) {
+            index.put(resized, attrs(resized), CAPTURE_TIME, "Date/Time Original");
+            index.put(touched, attrs(touched), CAPTURE_TIME, "Date/Time Original");
+        }
+
+        // 大小变化
+        Files.write(resized, new byte[10], StandardOpenOption.APPEND);
+        // 大小不变，修改时间变化
+        Files.setLastModifiedTime(touched, FileTime.fromMillis(attrs(touched).lastModifiedTime().toMillis() + 2000));
+
+        try (MetadataIndex index = MetadataIndex.open(indexPath, false)) {
+            assertNull(index.get(resized, attrs(resized)));
+            assertNull(index.get(touched, attrs(touched)));
+
+            // 重新写入后以新记录为准
+            index.put(touched, attrs(touched), CAPTURE_TIME + 1000, "Create Date");
+            assertEquals(CAPTURE_TIME + 1000, index.get(touched, attrs(touched)).getCaptureTime());
+        }
+        try (MetadataIndex index = MetadataIndex.open(indexPath, false)) {
+            assertEquals("Create Date", index.get(touched, attrs(touched)).getTag());
+        }
+    }
+
+    @Test
+    void rebuildDiscardsEntries() throws Exception {
+        Path indexPath = tempDir.resolve("metadata.idx");
+        Path photo = Files.write(tempDir.resolve("photo.jpg"), new byte[100]);
+        try (MetadataIndex index = MetadataIndex.open(indexPath, false)) {
+            index.put(photo, attrs(photo), CAPTURE_TIME, "Date/Time Original");
+        }
+
+        try (MetadataIndex index = MetadataIndex.open(indexPath, true)) {
+            assertNull(index.get(photo, attrs(photo)));
+        }
+    }
+
+    @Test
+    void truncatedTailIgnored() throws Exception {
+        Path indexPath = tempDir.resolve("metadata.idx");
+        Path photo = Files.write(tempDir.resolve("photo.jpg"), new byte[100]);
+        try (MetadataIndex index = MetadataIndex.open(indexPath, false)) {
+            index.put(photo, attrs(photo), CAPTURE_TIME, "Date/Time Original");
+        }
+        // 写入中断时留下的半条记录
+        Files.write(indexPath, new byte[]{0, 40, '/', 't'}, StandardOpenOption.APPEND);
+        long length = Files.size(indexPath);
+
+        try (MetadataIndex index = MetadataIndex.open(indexPath, false)) {
+            assertNotNull(index.get(photo, attrs(photo)));
+        }
+        assertEquals(length - 4, Files.size(indexPath));
+    }
+
+    @Test
+    void secondOpenFailsFast() throws Exception {
+        Path indexPath = tempDir.resolve("metadata.idx");
+        MetadataIndex index = MetadataIndex.open(indexPath, false);
+        try {
+            IOException e = assertThrows(IOException.class, () -> MetadataIndex.open(indexPath, false));
+            assertTrue(e.getMessage().contains("in use"), e.getMessage());
+            // 重建也不能删除正在使用的索引
+            assertThrows(IOException.class, () -> MetadataIndex.open(indexPath, true));
+            assertTrue(Files.exists(indexPath));
+        } finally {
+            index.close();
+        }
+
+        // 关闭后释放
+        MetadataIndex.open(indexPath, false).close();
+    }
+
+    private static BasicFileAttributes attrs(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+}
@@ -0,0 +1,70 @@
+package io.lw900925.tools.metadata;
+
+import com.drew.imaging.mp4.Mp4MetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.mp4.Mp4Directory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QuickTimeTimestampWriterTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writeWithMoovAtEnd() throws Exception {
+        Path file = tempDir.resolve("clip.mp4");
+        byte[] original = video(0L);
+        Files.write(file, original);
+
+        Instant dateTime = Instant.parse("2020-09-13T12:26:40Z");
+        assertEquals(3, QuickTimeTimestampWriter.write(file, dateTime, dateTime));
+
+        byte[] patched = Files.readAllBytes(file);
+        assertEquals(original.length, patched.length);
+        Metadata metadata = Mp4MetadataReader.readMetadata(file.toFile());
+        // metadata-extractor 换算1904纪元时没有清零毫秒，只比较秒
+        assertEquals(dateTime.getEpochSecond(), metadata.getFirstDirectoryOfType(Mp4Directory.class).getDate(Mp4Directory.TAG_CREATION_TIME).getTime() / 1000);
+        // mdat 原样保留
+        assertArrayEquals(Arrays.copyOf(original, 1024), Arrays.copyOf(patched, 1024));
+    }
+
+    private static byte[] video(long time) throws IOException {
+        ByteBuffer mvhd = ByteBuffer.allocate(100).putInt(0).putInt((int) time).putInt((int) time).putInt(600).putInt(6000);
+        ByteBuffer tkhd = ByteBuffer.allocate(84).putInt(0).putInt((int) time).putInt((int) time).putInt(1);
+        ByteBuffer mdhd = ByteBuffer.allocate(24).putInt(0).putInt((int) time).putInt((int) time).putInt(600).putInt(6000);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(box("ftyp", "isom".getBytes(), new byte[4], "isom".getBytes()));
+        output.write(box("mdat", new byte[64 * 1024]));
+        output.write(box("moov", box("mvhd", mvhd.array()), box("trak", box("tkhd", tkhd.array()), box("mdia", box("mdhd", mdhd.array())))));
+        return output.toByteArray();
+    }
+
+    private static byte[] box(String type, byte[]... payloads) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(output);
+        int size = 8;
+        for (byte[] payload : payloads) {
+            size += payload.length;
+        }
+        data.writeInt(size);
+        data.writeBytes(type);
+        for (byte[] payload : payloads) {
+            data.write(payload);
+        }
+        return output.toByteArray();
+    }
+}
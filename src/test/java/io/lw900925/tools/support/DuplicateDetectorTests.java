@@ -0,0 +1,132 @@
+package io.lw900925.tools.support;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateDetectorTests {
+
+    private static final int SMALL = 100 * 1024;
+    private static final int LARGE = 512 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private final AtomicInteger copies = new AtomicInteger();
+
+    @Test
+    void smallDuplicateMatchedByPartialHash() throws Exception {
+        // 不超过128KB时头部和尾部的哈希已覆盖整个文件，不再计算SHA-256
+        Path first = file("a/first.jpg", SMALL, 1);
+        Path same = file("b/same.jpg", SMALL, 1);
+        Path different = file("c/different.jpg", SMALL, 2);
+
+        try (DuplicateDetector detector = DuplicateDetector.open(tempDir.resolve("dedupe.idx"))) {
+            Path target = tempDir.resolve("target/first.jpg");
+            assertNull(findOrCopy(detector, first, target));
+            assertEquals(target, findOrCopy(detector, same, tempDir.resolve("target/same.jpg")));
+            assertNull(findOrCopy(detector, different, tempDir.resolve("target/different.jpg")));
+        }
+        assertEquals(2, copies.get());
+    }
+
+    @Test
+    void largeDuplicateNeedsFullHash() throws Exception {
+        Path first = file("a/first.mov", LARGE, 1);
+        Path same = file("b/same.mov", LARGE, 1);
+        // 头部和尾部相同，中间不同
+        Path middle = file("c/middle.mov", LARGE, 1);
+        byte[] bytes = Files.readAllBytes(middle);
+        bytes[LARGE / 2] ^= 1;
+        Files.write(middle, bytes);
+
+        try (DuplicateDetector detector = DuplicateDetector.open(tempDir.resolve("dedupe.idx"))) {
+            Path target = tempDir.resolve("target/first.mov");
+            assertNull(findOrCopy(detector, first, target));
+            assertNull(findOrCopy(detector, middle, tempDir.resolve("target/middle.mov")));
+            assertEquals(target, findOrCopy(detector, same, tempDir.resolve("target/same.mov")));
+        }
+        assertEquals(2, copies.get());
+    }
+
+    @Test
+    void reopenUsesStoredTargets() throws Exception {
+        Path indexPath = tempDir.resolve("dedupe.idx");
+        Path first = file("a/first.jpg", SMALL, 1);
+        Path target = tempDir.resolve("target/first.jpg");
+        try (DuplicateDetector detector = DuplicateDetector.open(indexPath)) {
+            assertNull(findOrCopy(detector, first, target));
+        }
+
+        try (DuplicateDetector detector = DuplicateDetector.open(indexPath)) {
+            assertEquals(target, findOrCopy(detector, file("b/same.jpg", SMALL, 1), tempDir.resolve("target/same.jpg")));
+        }
+        assertEquals(1, copies.get());
+    }
+
+    @Test
+    void modifiedTargetInvalidated() throws Exception {
+        Path indexPath = tempDir.resolve("dedupe.idx");
+        Path target = tempDir.resolve("target/first.jpg");
+        try (DuplicateDetector detector = DuplicateDetector.open(indexPath)) {
+            assertNull(findOrCopy(detector, file("a/first.jpg", SMALL, 1), target));
+        }
+        // 目标文件被修改后不能再作为已有文件
+        Files.setLastModifiedTime(target, FileTime.fromMillis(Files.getLastModifiedTime(target).toMillis() + 2000));
+
+        try (DuplicateDetector detector = DuplicateDetector.open(indexPath)) {
+            assertNull(findOrCopy(detector, file("b/same.jpg", SMALL, 1), tempDir.resolve("target/same.jpg")));
+        }
+        assertEquals(2, copies.get());
+    }
+
+    @Test
+    void emptyFilesAlwaysCopied() throws Exception {
+        try (DuplicateDetector detector = DuplicateDetector.open(tempDir.resolve("dedupe.idx"))) {
+            assertNull(findOrCopy(detector, file("a/empty", 0, 1), tempDir.resolve("target/empty")));
+            assertNull(findOrCopy(detector, file("b/empty", 0, 1), tempDir.resolve("target/empty_1")));
+        }
+        assertEquals(2, copies.get());
+    }
+
+    @Test
+    void secondOpenFailsFast() throws Exception {
+        Path indexPath = tempDir.resolve("dedupe.idx");
+        DuplicateDetector detector = DuplicateDetector.open(indexPath);
+        try {
+            IOException e = assertThrows(IOException.class, () -> DuplicateDetector.open(indexPath));
+            assertTrue(e.getMessage().contains("in use"), e.getMessage());
+        } finally {
+            detector.close();
+        }
+        DuplicateDetector.open(indexPath).close();
+    }
+
+    private Path findOrCopy(DuplicateDetector detector, Path source, Path target) throws IOException {
+        return detector.findOrCopy(source, Files.readAttributes(source, BasicFileAttributes.class), () -> {
+            Files.createDirectories(target.getParent());
+            Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+            copies.incrementAndGet();
+            return target;
+        });
+    }
+
+    private Path file(String name, int size, int seed) throws IOException {
+        Path file = tempDir.resolve(name);
+        Files.createDirectories(file.getParent());
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return Files.write(file, bytes);
+    }
+}
@@ -0,0 +1,107 @@
+package io.lw900925.tools.support;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExternalSorterTests {
+
+    private static final ExternalSorter.Codec<String> CODEC = new ExternalSorter.Codec<String>() {
+        @Override
+        public void write(DataOutput output, String item) throws IOException {
+            output.writeUTF(item);
+        }
+
+        @Override
+        public String read(DataInput input) throws IOException {
+            return input.readUTF();
+        }
+    };
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void sortInMemory() throws Exception {
+        List<String> items = items(100);
+        Path spillDirectory = tempDir.resolve("spill");
+        try (ExternalSorter<String> sorter = new ExternalSorter<>(Comparator.naturalOrder(), CODEC, 1000, spillDirectory)) {
+            for (String item : items) {
+                sorter.add(item);
+            }
+            assertEquals(0, sorter.spills());
+            assertEquals(sorted(items), collect(sorter));
+        }
+        assertTrue(Files.notExists(spillDirectory));
+    }
+
+    @Test
+    void spillPastThreshold() throws Exception {
+        List<String> items = items(1000);
+        Path spillDirectory = tempDir.resolve("spill");
+        try (ExternalSorter<String> sorter = new ExternalSorter<>(Comparator.naturalOrder(), CODEC, 7, spillDirectory)) {
+            for (String item : items) {
+                sorter.add(item);
+            }
+            // 最后不足阈值的条目留在内存中，与临时文件一起归并
+            assertEquals(1000 / 7, sorter.spills());
+            assertEquals(1000, sorter.size());
+            assertEquals(sorted(items), collect(sorter));
+            // 可以重复遍历
+            assertEquals(sorted(items), collect(sorter));
+            assertEquals(sorter.spills(), count(spillDirectory));
+        }
+        // 关闭时删除临时文件
+        assertEquals(0, count(spillDirectory));
+    }
+
+    @Test
+    void spillKeepsDuplicates() throws Exception {
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            items.add("item-" + (i % 5));
+        }
+        try (ExternalSorter<String> sorter = new ExternalSorter<>(Comparator.naturalOrder(), CODEC, 3, tempDir)) {
+            for (String item : items) {
+                sorter.add(item);
+            }
+            assertEquals(sorted(items), collect(sorter));
+        }
+    }
+
+    private static List<String> items(int count) {
+        Random random = new Random(count);
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            items.add(Integer.toString(random.nextInt(count * 10), 36));
+        }
+        return items;
+    }
+
+    private static List<String> sorted(List<String> items) {
+        List<String> sorted = new ArrayList<>(items);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static List<String> collect(ExternalSorter<String> sorter) throws IOException {
+        List<String> result = new ArrayList<>();
+        sorter.forEach(result::add);
+        return result;
+    }
+
+    private static long count(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package io.lw900925.tools.support;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTransferTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reflinkOrCopy() throws Exception {
+        Path source = Files.write(Files.createDirectories(tempDir.resolve("source")).resolve("IMG_0001.JPG"), new byte[]{1, 2, 3});
+        Path targetDirectory = Files.createDirectories(tempDir.resolve("target"));
+        try (CopyEngine engine = new CopyEngine(4096, 1, CopyEngine.Sync.NONE, 1, true, null)) {
+            // 文件系统不支持时回退为拷贝，第二次使用探测结果
+            for (int i = 0; i < 2; i++) {
+                Path target = targetDirectory.resolve("IMG_000" + i + ".JPG");
+                FileTransfer.Mode mode = FileTransfer.transfer(source, target, FileTransfer.Mode.REFLINK, engine);
+                assertTrue(mode == FileTransfer.Mode.REFLINK || mode == FileTransfer.Mode.COPY, mode.name());
+                assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(target));
+            }
+        }
+        // 临时文件和探测文件都已删除
+        assertEquals(2, list(targetDirectory).size());
+        assertTrue(Files.exists(source));
+    }
+
+    @Test
+    void reflinkKeepsExistingTarget() throws Exception {
+        Path source = Files.write(tempDir.resolve("IMG_0001.JPG"), new byte[]{1, 2, 3});
+        Path targetDirectory = Files.createDirectories(tempDir.resolve("target"));
+        Path target = Files.write(targetDirectory.resolve("IMG_0001.JPG"), new byte[]{9});
+        try (CopyEngine engine = new CopyEngine(4096, 1, CopyEngine.Sync.NONE, 1, true, null)) {
+            assertThrows(FileAlreadyExistsException.class, () -> FileTransfer.transfer(source, target, FileTransfer.Mode.REFLINK, engine));
+        }
+        assertArrayEquals(new byte[]{9}, Files.readAllBytes(target));
+        assertEquals(Collections.singletonList(target), list(targetDirectory));
+    }
+
+    private static List<Path> list(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+}
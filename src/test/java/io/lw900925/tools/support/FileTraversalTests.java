@@ -0,0 +1,59 @@
+package io.lw900925.tools.support;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTraversalTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void walkSkipsHiddenDirectories() throws Exception {
+        Path month = Files.createDirectories(tempDir.resolve("2020/09.Sep"));
+        Files.write(month.resolve("2020_09_15_12_30_IMG_0001.JPG"), new byte[1]);
+        Files.write(month.resolve(".DS_Store"), new byte[1]);
+        // 缩略图文件夹中的文件名也能解析出日期，不能被当成照片
+        Path thumbnails = Files.createDirectories(month.resolve(".thumbnails"));
+        Files.write(thumbnails.resolve("2020_09_15_12_30_IMG_0001.JPG.jpg"), new byte[1]);
+        Files.createDirectories(tempDir.resolve(".hidden/nested"));
+        Files.write(tempDir.resolve(".hidden/nested/IMG_0002.JPG"), new byte[1]);
+
+        List<String> visited = new ArrayList<>();
+        FileTraversal.Progress progress = FileTraversal.walk(tempDir, (file, attrs, p) -> visited.add(tempDir.relativize(file).toString()));
+        Collections.sort(visited);
+
+        // 隐藏文件照常交给访问者，由访问者决定是否处理
+        assertEquals(Arrays.asList(Paths.get("2020", "09.Sep", ".DS_Store").toString(),
+                Paths.get("2020", "09.Sep", "2020_09_15_12_30_IMG_0001.JPG").toString()), visited);
+        assertEquals("2", progress.total());
+    }
+
+    @Test
+    void hiddenRootIsWalked() throws Exception {
+        Path root = Files.createDirectories(tempDir.resolve(".thumbnails"));
+        Files.write(root.resolve("IMG_0001.JPG.jpg"), new byte[1]);
+
+        List<Path> visited = new ArrayList<>();
+        FileTraversal.walk(root, (file, attrs, p) -> visited.add(file));
+        assertEquals(Collections.singletonList(root.resolve("IMG_0001.JPG.jpg")), visited);
+    }
+
+    @Test
+    void isHidden() {
+        assertTrue(FileTraversal.isHidden(tempDir.resolve(".thumbnails")));
+        assertTrue(FileTraversal.isHidden(tempDir.resolve("a/.DS_Store")));
+        assertFalse(FileTraversal.isHidden(tempDir.resolve(".thumbnails/IMG_0001.JPG.jpg")));
+        assertFalse(FileTraversal.isHidden(tempDir.getRoot()));
+    }
+}
@@ -0,0 +1,104 @@
+package io.lw900925.tools.support;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IoSchedulerTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rotationalGrantsInElevatorOrder() throws Exception {
+        // 指定为机械盘，同时只有一个读写
+        IoScheduler scheduler = new IoScheduler(1, 4, Collections.singletonList(tempDir.toString()));
+        List<Path> files = new ArrayList<>();
+        // 先创建的文件inode较小，倒序创建文件夹，只按inode或只按到达顺序放行都得不到期望的顺序
+        for (String directory : Arrays.asList("z", "m", "a")) {
+            Files.createDirectories(tempDir.resolve(directory));
+            for (int i = 0; i < 3; i++) {
+                files.add(Files.write(tempDir.resolve(directory).resolve("IMG_" + i + ".JPG"), new byte[16]));
+            }
+        }
+        Path holding = files.get(7);
+
+        List<Path> granted = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        List<Path> waiting = new ArrayList<>(files);
+        waiting.remove(holding);
+        Collections.shuffle(waiting, new Random(42));
+        IoScheduler.Lease lease = scheduler.acquire(holding, holding);
+        try {
+            for (Path file : waiting) {
+                Thread thread = new Thread(() -> {
+                    try {
+                        IoScheduler.Lease next = scheduler.acquire(file, file);
+                        try {
+                            granted.add(file);
+                        } finally {
+                            next.close();
+                        }
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            awaitQueue(scheduler, waiting.size());
+            assertTrue(granted.isEmpty());
+        } finally {
+            lease.close();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+
+        // 按 文件夹+inode 排序后从占用者的位置继续向后，到末尾后回到开头
+        List<Path> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparing((Path file) -> file.getParent().toString()).thenComparingLong(IoSchedulerTests::inode));
+        int start = sorted.indexOf(holding);
+        List<Path> expected = new ArrayList<>(sorted.subList(start + 1, sorted.size()));
+        expected.addAll(sorted.subList(0, start));
+        assertEquals(expected, granted);
+    }
+
+    @Test
+    void reportCountsOperations() throws Exception {
+        IoScheduler scheduler = new IoScheduler(1, 4, Collections.singletonList(tempDir.toString()));
+        Path source = Files.write(tempDir.resolve("source.jpg"), new byte[16]);
+        for (int i = 0; i < 3; i++) {
+            scheduler.acquire(source, tempDir.resolve("target.jpg")).close();
+        }
+
+        List<String> report = scheduler.report();
+        assertEquals(1, report.size());
+        assertTrue(report.get(0).contains("rotational, in-flight 1"), report.get(0));
+        assertTrue(report.get(0).contains("operations: 3"), report.get(0));
+    }
+
+    private static void awaitQueue(IoScheduler scheduler, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!scheduler.report().get(0).endsWith("max queue: " + size)) {
+            assertTrue(System.currentTimeMillis() < deadline, "Requests not queued: " + scheduler.report());
+            Thread.sleep(10);
+        }
+    }
+
+    private static long inode(Path file) {
+        try {
+            return Plan.inode(Files.readAttributes(file, BasicFileAttributes.class));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package io.lw900925.tools.support;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JournalTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void resumeSkipsCompleted() throws Exception {
+        Path journalPath = tempDir.resolve("rename.journal");
+        Path done = file("done.jpg", 10);
+        Path broken = file("broken.jpg", 10);
+        try (Journal journal = Journal.open(journalPath, false)) {
+            journal.completed(done, tempDir.resolve("target/done.jpg"));
+            journal.failed(broken, new IOException("broken"));
+        }
+
+        try (Journal journal = Journal.open(journalPath, true)) {
+            assertEquals(0, journal.recover());
+            assertTrue(journal.isCompleted(done));
+            assertFalse(journal.isCompleted(broken));
+        }
+
+        // 不恢复时清空已有记录
+        try (Journal journal = Journal.open(journalPath, false)) {
+            assertFalse(journal.contains(done));
+        }
+    }
+
+    @Test
+    void recoverKeepsCompleteTarget() throws Exception {
+        Path journalPath = tempDir.resolve("rename.journal");
+        Path source = file("source.jpg", 4096);
+        Path target = tempDir.resolve("target.jpg");
+        try (Journal journal = Journal.open(journalPath, false)) {
+            journal.intended(source, target);
+            journal.sync();
+            // 拷贝完成后、完成记录刷盘之前中断
+            Files.copy(source, target);
+        }
+
+        try (Journal journal = Journal.open(journalPath, true)) {
+            assertEquals(1, journal.recover());
+            assertTrue(journal.contains(source));
+        }
+        assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+
+        // 补记的完成记录已落盘，再次恢复时不再检查
+        try (Journal journal = Journal.open(journalPath, true)) {
+            assertEquals(0, journal.recover());
+            assertTrue(journal.contains(source));
+        }
+    }
+
+    @Test
+    void recoverRemovesPartialTarget() throws Exception {
+        Path journalPath = tempDir.resolve("rename.journal");
+        Path source = file("source.jpg", 4096);
+        Path target = tempDir.resolve("target.jpg");
+        try (Journal journal = Journal.open(journalPath, false)) {
+            journal.intended(source, target);
+            journal.sync();
+            // 写了一半时中断
+            Files.write(target, Arrays.copyOf(Files.readAllBytes(source), 1024));
+        }
+
+        try (Journal journal = Journal.open(journalPath, true)) {
+            assertEquals(0, journal.recover());
+            assertFalse(journal.contains(source));
+        }
+        assertTrue(Files.notExists(target));
+    }
+
+    @Test
+    void recoverRemovesSameSizeTarget() throws Exception {
+        Path journalPath = tempDir.resolve("rename.journal");
+        Path source = file("source.jpg", 4096);
+        Path target = tempDir.resolve("target.jpg");
+        try (Journal journal = Journal.open(journalPath, false)) {
+            journal.intended(source, target);
+            journal.sync();
+            // 预分配了大小，内容没有写完
+            Files.write(target, new byte[4096]);
+        }
+
+        try (Journal journal = Journal.open(journalPath, true)) {
+            journal.recover();
+            assertFalse(journal.contains(source));
+        }
+        assertTrue(Files.notExists(target));
+    }
+
+    @Test
+    void recoverKeepsMovedTarget() throws Exception {
+        Path journalPath = tempDir.resolve("watch.journal");
+        Path source = file("source.jpg", 4096);
+        Path target = tempDir.resolve("target.jpg");
+        try (Journal journal = Journal.open(journalPath, false)) {
+            journal.intended(source, target);
+            journal.sync();
+            // 移动完成后中断，源文件已不存在
+            Files.move(source, target);
+        }
+
+        try (Journal journal = Journal.open(journalPath, true)) {
+            assertEquals(1, journal.recover());
+            assertTrue(journal.contains(source));
+        }
+        assertTrue(Files.exists(target));
+    }
+
+    @Test
+    void recoverIgnoresFinishedIntents() throws Exception {
+        Path journalPath = tempDir.resolve("rename.journal");
+        Path source = file("source.jpg", 4096);
+        Path target = tempDir.resolve("target.jpg");
+        try (Journal journal = Journal.open(journalPath, false)) {
+            journal.intended(source, target);
+            journal.failed(source, new IOException("target exists"));
+        }
+        // 失败记录之后的目标文件不是这次写入的，不能删除
+        Files.write(target, new byte[16]);
+
+        try (Journal journal = Journal.open(journalPath, true)) {
+            assertEquals(0, journal.recover());
+            assertFalse(journal.contains(source));
+        }
+        assertTrue(Files.exists(target));
+    }
+
+    private Path file(String name, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + name.length());
+        }
+        return Files.write(tempDir.resolve(name), bytes);
+    }
+}
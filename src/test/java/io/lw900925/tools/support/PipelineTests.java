@@ -0,0 +1,145 @@
+package io.lw900925.tools.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineTests {
+
+    @Test
+    void submitBlocksWhenQueueFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> copied = Collections.synchronizedList(new ArrayList<>());
+        try (Pipeline<Integer, Integer> pipeline = new Pipeline<>("test", 1, 1, 1, item -> {
+            started.countDown();
+            release.await();
+            return item;
+        }, copied::add)) {
+            // 第1个条目占住解析线程，第2个条目占满队列
+            pipeline.submit(1);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            pipeline.submit(2);
+            assertEquals(1, pipeline.parseQueueSize());
+
+            // 第3个条目阻塞提交方，而不是被丢弃或抛出异常
+            Thread submitter = new Thread(() -> pipeline.submit(3));
+            submitter.start();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (submitter.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(Thread.State.WAITING, submitter.getState());
+            assertEquals(1, pipeline.parseQueueSize());
+
+            release.countDown();
+            submitter.join(10_000);
+            assertFalse(submitter.isAlive());
+            pipeline.await();
+        }
+        assertEquals(Arrays.asList(1, 2, 3), copied);
+    }
+
+    @Test
+    void failuresReported() throws Exception {
+        Map<Object, Exception> failures = new ConcurrentHashMap<>();
+        AtomicInteger copied = new AtomicInteger();
+        try (Pipeline<Integer, String> pipeline = Pipeline.create("test", 4, item -> {
+            if (item % 3 == 0) {
+                throw new IOException("parse " + item);
+            }
+            // 返回null表示跳过，不算失败
+            return item % 3 == 1 ? null : "copy-" + item;
+        }, output -> {
+            if (output.endsWith("5")) {
+                throw new IOException(output);
+            }
+            copied.incrementAndGet();
+        })) {
+            pipeline.onFailure((item, cause) -> {
+                failures.put(item, cause);
+                // 回调本身出错不影响后续条目
+                throw new IllegalStateException("handler");
+            });
+            for (int i = 1; i <= 30; i++) {
+                pipeline.submit(i);
+            }
+            pipeline.await();
+        }
+
+        Set<Object> expected = new HashSet<>();
+        for (int i = 1; i <= 30; i++) {
+            if (i % 3 == 0) {
+                // 解析阶段失败时回调的是解析阶段的输入
+                expected.add(i);
+            } else if (i % 3 == 2 && i % 10 == 5) {
+                // 拷贝阶段失败时回调的是拷贝阶段的输入
+                expected.add("copy-" + i);
+            }
+        }
+        assertEquals(expected, failures.keySet());
+        assertEquals("parse 9", failures.get(9).getMessage());
+        assertEquals("copy-5", failures.get("copy-5").getMessage());
+        // 2, 8, 11, 14, 17, 20, 23, 26, 29
+        assertEquals(9, copied.get());
+    }
+
+    @Test
+    void awaitDrainsBothStages() throws Exception {
+        List<Integer> copied = Collections.synchronizedList(new ArrayList<>());
+        Pipeline<Integer, Integer> pipeline = Pipeline.create("test", 2, item -> {
+            Thread.sleep(1);
+            return item;
+        }, item -> {
+            // 拷贝阶段比解析阶段慢，解析阶段结束时拷贝阶段仍有积压
+            Thread.sleep(5);
+            copied.add(item);
+        });
+        try {
+            for (int i = 0; i < 50; i++) {
+                pipeline.submit(i);
+            }
+            pipeline.await();
+            assertEquals(50, copied.size());
+            assertEquals(0, pipeline.parseQueueSize());
+            assertEquals(0, pipeline.copyQueueSize());
+            // await之后不能再提交
+            assertThrows(RejectedExecutionException.class, () -> pipeline.submit(50));
+        } finally {
+            pipeline.close();
+        }
+        assertEquals(50, copied.size());
+    }
+
+    @Test
+    void closeInterruptsWithoutAwait() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        List<Integer> copied = Collections.synchronizedList(new ArrayList<>());
+        Pipeline<Integer, Integer> pipeline = new Pipeline<>("test", 1, 1, 4, item -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return item;
+        }, copied::add);
+        pipeline.submit(1);
+        pipeline.submit(2);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // 未await直接关闭：中断正在处理的条目，丢弃队列中的条目
+        pipeline.close();
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        assertThrows(RejectedExecutionException.class, () -> pipeline.submit(3));
+        pipeline.await();
+        assertTrue(copied.isEmpty());
+    }
+}
@@ -0,0 +1,176 @@
+package io.lw900925.tools.support;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PlanTests {
+
+    /**
+     * 与 group 相同：保留原名称，重名时加上序号
+     */
+    private static final Plan.Naming NAMING = (operation, attempt) -> {
+        String stem = attempt == 0 ? operation.getStem() : operation.getStem() + "_" + attempt;
+        return stem + "." + operation.getExtension();
+    };
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void collisionsResolvedInSourceOrder() throws Exception {
+        Path target = tempDir.resolve("target");
+        List<Path> sources = sources(3, "IMG");
+
+        List<String> result = plan(sources, target, Integer.MAX_VALUE);
+        // 按源文件路径的顺序依次加序号
+        assertEquals(Arrays.asList(
+                sources.get(0) + " -> IMG.JPG",
+                sources.get(1) + " -> IMG_1.JPG",
+                sources.get(2) + " -> IMG_2.JPG"), byName(result));
+    }
+
+    @Test
+    void existingNamesSkipped() throws Exception {
+        Path target = Files.createDirectories(tempDir.resolve("target"));
+        Files.write(target.resolve("IMG.JPG"), new byte[1]);
+        Files.write(target.resolve("IMG_2.JPG"), new byte[1]);
+        List<Path> sources = sources(3, "IMG");
+
+        List<String> result = plan(sources, target, Integer.MAX_VALUE);
+        assertEquals(Arrays.asList(
+                sources.get(0) + " -> IMG_1.JPG",
+                sources.get(1) + " -> IMG_3.JPG",
+                sources.get(2) + " -> IMG_4.JPG"), byName(result));
+    }
+
+    @Test
+    void sameInputSameNames() throws Exception {
+        Path target = tempDir.resolve("target");
+        List<Path> sources = new ArrayList<>();
+        sources.addAll(sources(20, "IMG"));
+        sources.addAll(sources(20, "IMG_1"));
+        sources.addAll(sources(20, "DSC"));
+
+        List<String> expected = plan(sources, target, Integer.MAX_VALUE);
+        // 添加顺序不影响结果
+        for (long seed = 0; seed < 5; seed++) {
+            List<Path> shuffled = new ArrayList<>(sources);
+            Collections.shuffle(shuffled, new Random(seed));
+            assertEquals(expected, plan(shuffled, target, Integer.MAX_VALUE));
+        }
+        // 不同名称之间也不会重名，例如 IMG 的第1个序号与 IMG_1
+        Set<String> names = new HashSet<>();
+        for (String line : expected) {
+            assertTrue(names.add(line.substring(line.indexOf(" -> "))), line);
+        }
+    }
+
+    @Test
+    void spillGivesSameOrderAndNames() throws Exception {
+        Path first = Files.createDirectories(tempDir.resolve("target/2020/09.Sep"));
+        Path second = tempDir.resolve("target/2021/01.Jan");
+        Files.write(first.resolve("IMG_3.JPG"), new byte[1]);
+        List<Path> sources = new ArrayList<>();
+        sources.addAll(sources(40, "IMG"));
+        sources.addAll(sources(40, "IMG_1"));
+
+        List<String> inMemory = new ArrayList<>();
+        List<String> spilled = new ArrayList<>();
+        Path spillDirectory = tempDir.resolve("spill");
+        List<Path> directories;
+        try (Plan memoryPlan = Plan.create(spillDirectory, Integer.MAX_VALUE, NAMING);
+             Plan spillPlan = Plan.create(spillDirectory, 3, NAMING)) {
+            for (int i = 0; i < sources.size(); i++) {
+                Path source = sources.get(i);
+                Path directory = i % 2 == 0 ? first : second;
+                String stem = stem(source);
+                memoryPlan.add(source, attrs(source), directory, stem, "JPG");
+                spillPlan.add(source, attrs(source), directory, stem, "JPG");
+            }
+            assertEquals(memoryPlan.resolve(), spillPlan.resolve());
+            memoryPlan.forEach(operation -> inMemory.add(operation.getSource() + " -> " + operation.getTarget()));
+            spillPlan.forEach(operation -> spilled.add(operation.getSource() + " -> " + operation.getTarget()));
+            assertTrue(count(spillDirectory) > 0);
+            directories = spillPlan.getDirectories();
+        }
+
+        assertEquals(sources.size(), spilled.size());
+        assertEquals(inMemory, spilled);
+        assertEquals(Arrays.asList(first.toAbsolutePath(), second.toAbsolutePath()), directories);
+        // 关闭后删除临时文件
+        assertEquals(0, count(spillDirectory));
+    }
+
+    @Test
+    void executionOrderByDirectoryAndInode() throws Exception {
+        Path target = tempDir.resolve("target");
+        List<Path> sources = sources(10, "IMG");
+        Collections.shuffle(sources, new Random(1));
+
+        List<Long> inodes = new ArrayList<>();
+        try (Plan plan = Plan.create(tempDir.resolve("spill"), 4, NAMING)) {
+            for (Path source : sources) {
+                plan.add(source, attrs(source), target, stem(source), "JPG");
+            }
+            plan.resolve();
+            plan.forEach(operation -> inodes.add(Plan.inode(attrs(operation.getSource()))));
+        }
+        List<Long> sorted = new ArrayList<>(inodes);
+        Collections.sort(sorted);
+        assertEquals(sorted, inodes);
+    }
+
+    /**
+     * 源文件放在各自的文件夹中，名称相同
+     */
+    private List<Path> sources(int count, String stem) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path directory = Files.createDirectories(tempDir.resolve("source").resolve(stem).resolve(String.format("%02d", i)));
+            sources.add(Files.write(directory.resolve(stem + ".JPG"), new byte[i + 1]));
+        }
+        return sources;
+    }
+
+    private List<String> plan(List<Path> sources, Path target, int spillThreshold) throws IOException {
+        List<String> result = new ArrayList<>();
+        try (Plan plan = Plan.create(tempDir.resolve("spill"), spillThreshold, NAMING)) {
+            for (Path source : sources) {
+                plan.add(source, attrs(source), target, stem(source), "JPG");
+            }
+            plan.resolve();
+            plan.forEach(operation -> result.add(operation.getSource() + " -> " + operation.getTarget().getFileName()));
+        }
+        return result;
+    }
+
+    private static List<String> byName(List<String> result) {
+        List<String> sorted = new ArrayList<>(result);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static String stem(Path source) {
+        String filename = source.getFileName().toString();
+        return filename.substring(0, filename.lastIndexOf('.'));
+    }
+
+    private static long count(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    private static BasicFileAttributes attrs(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+}
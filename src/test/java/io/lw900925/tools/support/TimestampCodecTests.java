@@ -0,0 +1,203 @@
+package io.lw900925.tools.support;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.File;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+class TimestampCodecTests {
+
+    private static final ZoneId SHANGHAI = ZoneId.of("Asia/Shanghai");
+    private static final ZoneId CHICAGO = ZoneId.of("America/Chicago");
+    private static final ZoneId UTC = ZoneId.of("UTC");
+
+    /**
+     * 2020-09-13 12:26:00 +08:00
+     */
+    private static final Instant SHANGHAI_NOON = Instant.parse("2020-09-13T04:26:00Z");
+
+    /**
+     * 本机时区、标签中的日期、期望的时刻，无法识别时为null
+     */
+    static Stream<Arguments> metadata() {
+        return Stream.of(
+                // EXIF格式没有时区，按本机时区理解
+                arguments(SHANGHAI, "2020:09:13 12:26:00", SHANGHAI_NOON),
+                arguments(UTC, "2020:09:13 12:26:00", Instant.parse("2020-09-13T12:26:00Z")),
+                arguments(SHANGHAI, "2020:09:13 12:26:00 (后面的内容忽略)", SHANGHAI_NOON),
+                // Date#toString 风格，带偏移量时与本机时区无关
+                arguments(SHANGHAI, "Sun Sep 13 12:26:00 +08:00 2020", SHANGHAI_NOON),
+                arguments(CHICAGO, "Sun Sep 13 12:26:00 +08:00 2020", SHANGHAI_NOON),
+                arguments(UTC, "Sun Sep 13 12:26:00 Z 2020", Instant.parse("2020-09-13T12:26:00Z")),
+                // 有歧义的缩写按本机时区理解
+                arguments(SHANGHAI, "Sun Sep 13 12:26:00 CST 2020", SHANGHAI_NOON),
+                arguments(CHICAGO, "Sun Sep 13 12:26:00 CST 2020", Instant.parse("2020-09-13T17:26:00Z")),
+                // 没有歧义的缩写与本机时区无关
+                arguments(SHANGHAI, "Sun Sep 13 12:26:00 JST 2020", Instant.parse("2020-09-13T03:26:00Z")),
+                arguments(SHANGHAI, "Sun Sep 13 12:26:00 UTC 2020", Instant.parse("2020-09-13T12:26:00Z")),
+                arguments(CHICAGO, "Sun Sep 13 12:26:00 GMT 2020", Instant.parse("2020-09-13T12:26:00Z")),
+                // 中文的星期和月份名称取决于JDK的区域数据，用同一份数据生成
+                arguments(SHANGHAI, chinese("EEE MMM dd HH:mm:ss XXX yyyy", SHANGHAI), SHANGHAI_NOON),
+                arguments(SHANGHAI, chinese("EEE MMM dd HH:mm:ss z yyyy", SHANGHAI), SHANGHAI_NOON),
+                arguments(CHICAGO, chinese("EEE MMM dd HH:mm:ss XXX yyyy", SHANGHAI), SHANGHAI_NOON),
+                // 无法识别
+                arguments(SHANGHAI, null, null),
+                arguments(SHANGHAI, "", null),
+                arguments(SHANGHAI, "Unknown", null),
+                arguments(SHANGHAI, "2020-09-13 12:26:00", null),
+                arguments(SHANGHAI, "2020:13:01 12:26:00", null),
+                arguments(SHANGHAI, "2020:09:13 25:26:00", null),
+                arguments(SHANGHAI, "0000:00:00 00:00:00", null),
+                arguments(SHANGHAI, "    :  :     :  :  ", null),
+                arguments(SHANGHAI, "Sun Sep 13 12:26:00 +08:00 20", null),
+                arguments(SHANGHAI, "Xyz Sep 13 12:26:00 +08:00 2020", null),
+                arguments(SHANGHAI, "Sun Sep 13 12:26:00 XYZ 2020", null),
+                // 星期与日期不一致
+                arguments(SHANGHAI, "Mon Sep 13 12:26:00 +08:00 2020", null)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("metadata")
+    void parseMetadata(ZoneId zone, String text, Instant expected) {
+        assertEquals(expected, TimestampCodec.parseMetadata(text, zone));
+    }
+
+    /**
+     * 文件名、期望的日期，无法识别时为null
+     */
+    static Stream<Arguments> filenames() {
+        return Stream.of(
+                arguments("2020_09_13_12_26_IMG_1234.JPG", LocalDateTime.of(2020, 9, 13, 12, 26)),
+                arguments("2020_09_13_12_26", LocalDateTime.of(2020, 9, 13, 12, 26)),
+                arguments("1999_12_31_23_59_IMG_0001.MOV", LocalDateTime.of(1999, 12, 31, 23, 59)),
+                arguments("IMG_1234.JPG", null),
+                arguments("2020_09_13", null),
+                arguments("2020-09-13_12_26_IMG_1234.JPG", null),
+                arguments("2020_13_13_12_26_IMG_1234.JPG", null),
+                arguments("2020_02_30_12_26_IMG_1234.JPG", null),
+                arguments("2020_0a_13_12_26_IMG_1234.JPG", null)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("filenames")
+    void parseFilename(String text, LocalDateTime expected) {
+        assertEquals(expected, TimestampCodec.parseFilename(text));
+        if (expected != null) {
+            assertEquals(text.substring(0, 16), TimestampCodec.formatFilename(expected));
+        }
+    }
+
+    /**
+     * 文件夹名、期望的日期，无法识别时为null
+     */
+    static Stream<Arguments> compactNames() {
+        return Stream.of(
+                arguments("20200913_122600_000", LocalDateTime.of(2020, 9, 13, 12, 26)),
+                arguments("20200913_122630_123", LocalDateTime.of(2020, 9, 13, 12, 26, 30, 123_000_000)),
+                arguments("20200913_122600_000_clip.mov", LocalDateTime.of(2020, 9, 13, 12, 26)),
+                arguments("20200913_1226", null),
+                arguments("2020_09_13_12_26_IMG_1234.JPG", null),
+                arguments("20200913-122600-000", null),
+                arguments("20200913_246000_000", null)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("compactNames")
+    void parseCompact(String text, LocalDateTime expected) {
+        assertEquals(expected, TimestampCodec.parseCompact(text));
+        if (expected != null) {
+            assertEquals(text.substring(0, 19), TimestampCodec.formatCompact(expected));
+        }
+    }
+
+    /**
+     * 整理后的文件名、期望的日期，无法识别时为null
+     */
+    static Stream<Arguments> archiveNames() {
+        return Stream.of(
+                arguments("2020_09_13_12_26_IMG_1234.JPG", LocalDateTime.of(2020, 9, 13, 12, 26)),
+                arguments("2020_09_13_12_26.JPG", LocalDateTime.of(2020, 9, 13, 12, 26)),
+                arguments("2021_01_02_03_04_1.MOV", LocalDateTime.of(2021, 1, 2, 3, 4)),
+                arguments("20191231_235959_999_IMG_0001.JPG", LocalDateTime.of(2019, 12, 31, 23, 59, 59, 999_000_000)),
+                arguments("20200501_000000_000", LocalDateTime.of(2020, 5, 1, 0, 0)),
+                // 没有完整的拍摄时间
+                arguments("20200915_123456.jpg", null),
+                arguments("2020_09_vacation.jpg", null),
+                arguments("IMG_1234.JPG", null),
+                arguments("", null),
+                arguments("2020_13_13_12_26_IMG_1234.JPG", null)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("archiveNames")
+    void parseArchiveName(String text, LocalDateTime expected) {
+        assertEquals(expected, TimestampCodec.parseArchiveName(text));
+    }
+
+    /**
+     * 文件名、期望的月份文件夹，无法识别时为null
+     */
+    static Stream<Arguments> yearMonths() {
+        return Stream.of(
+                arguments("2020_09_13_12_26_IMG_1234.JPG", "2020/09.Sep"),
+                arguments("20191231_235959_999_IMG_0001.JPG", "2019/12.Dec"),
+                // 只要求开头的年份和月份
+                arguments("20200915_123456.jpg", "2020/09.Sep"),
+                arguments("2020_09_vacation.jpg", "2020/09.Sep"),
+                arguments("202101.png", "2021/01.Jan"),
+                arguments("2021_01", "2021/01.Jan"),
+                arguments("IMG_1234.JPG", null),
+                arguments("a.jpg", null),
+                arguments("", null),
+                arguments("2020", null),
+                arguments("2020_9_1.jpg", null),
+                arguments("202013_vacation.jpg", null),
+                arguments("2020_00_vacation.jpg", null)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("yearMonths")
+    void parseYearMonth(String text, String expected) {
+        YearMonth yearMonth = TimestampCodec.parseYearMonth(text);
+        assertEquals(expected == null, yearMonth == null, text);
+        if (expected != null) {
+            assertEquals(expected.replace('/', File.separatorChar), TimestampCodec.formatMonthDirectory(yearMonth));
+        }
+    }
+
+    static Stream<Arguments> exifDates() {
+        return Stream.of(
+                arguments(LocalDateTime.of(2020, 9, 13, 12, 26), "2020:09:13 12:26:00"),
+                arguments(LocalDateTime.of(2020, 1, 2, 3, 4, 5), "2020:01:02 03:04:05"),
+                arguments(LocalDateTime.of(1999, 12, 31, 23, 59, 59), "1999:12:31 23:59:59")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("exifDates")
+    void formatExif(LocalDateTime dateTime, String expected) {
+        assertEquals(expected, TimestampCodec.formatExif(dateTime));
+        assertEquals(dateTime, TimestampCodec.parseExif(expected));
+    }
+
+    private static String chinese(String pattern, ZoneId zone) {
+        return DateTimeFormatter.ofPattern(pattern, Locale.CHINESE).format(ZonedDateTime.ofInstant(SHANGHAI_NOON, zone));
+    }
+}